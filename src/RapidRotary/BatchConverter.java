@@ -0,0 +1,934 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Command line batch conversion: converts files, glob patterns and whole
+ * directory trees with the same settings as the GUI, several files at a time.
+ *
+ *   java -cp RapidRotary.jar RapidRotary.BatchConverter -z 0.25 -m each posted/ extra/*.ngc
+ *
+ * Each output file is named like the GUI names it (part.ngc -> part_G93.ngc),
+ * next to its input file or under the --output-dir.  Files that already have
+ * the _G93 name are skipped when directories and patterns are searched, so a
+ * tree can be converted again.  A JSON summary (per file and in total, with
+ * the statistics the GUI shows and the throughput) is written to stdout or to
+ * the --summary file, progress goes to stderr.
+ *
+ * Exit status: 0 all files converted (possibly with warnings), 1 some files
+ * failed, 2 bad arguments or no input files.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class BatchConverter
+{
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_FILES_FAILED = 1;
+    public static final int EXIT_USAGE = 2;
+
+    // conversions also wait on the disk, so run more files at once than there are cores
+    private static final int JOBS_PER_CORE = 2;
+
+    // the conversion settings options, also used by RapidRotary_CLI
+    static final String SETTINGS_USAGE =
+            "  -z, --z-offset <distance>   Z-zero offset distance from the rotary axis (required):\n"
+            + "                              0.0 for the center of the material, the radius for the top surface\n"
+            + "  -m, --mode <all|each>       all = G93 for the entire file (default), each = wrap each rotary move in G93\n"
+            + "  -u, --units <in|mm>         distance units (default in)\n"
+            + "  -f, --f-digits <0-7>        digits after the decimal point for the F values (default 5)\n"
+            + "      --rounding <half-up|half-even>  rounding of the F values (default half-up)\n"
+            + "      --sync                  force each output file to the disk before it is moved into place\n"
+            + "      --incremental           convert only the parts of each file that changed since its output file was\n"
+            + "                              converted, copy the rest from it (kept in a hidden .<output>.rrinc file)\n"
+            + "      --compile               keep a compiled toolpath (<input>.rrtp) next to each input file, and convert\n"
+            + "                              from it while the input file is unchanged (e.g. to try other settings)\n"
+            + "      --cache <dir>           copy the output of an earlier conversion of the same file and settings from here\n"
+            + "                              (and keep each new one there)\n"
+            + "      --cache-size <MB>       size of the cache, the entries used longest ago are removed (default "
+            + (ConversionCache.DEFAULT_MAX_SIZE / (1024 * 1024)) + ")\n";
+
+    static final String MISSING_Z_ZERO_OFFSET = "the Z-zero offset distance from the rotary axis is missing (-z): "
+            + "use 0.0 for the center of the material or the radius of the material if touching off the top surface";
+
+    private static final String USAGE =
+            "Usage: java -cp RapidRotary.jar RapidRotary.BatchConverter [options] <file|directory|glob>...\n"
+            + "Converts G-code from G94 to G93 inverse time, several files at a time.\n"
+            + "\n"
+            + SETTINGS_USAGE
+            + "  -o, --output-dir <dir>      write the output files here (default: next to each input file)\n"
+            + "  -e, --ext <ext,...>         extensions to look for in directories (default ngc, .gz of them too)\n"
+            + "  -j, --jobs <n>              files converted at once (default " + JOBS_PER_CORE + " per core)\n"
+            + "  -s, --summary <file>        write the JSON summary to a file instead of stdout\n"
+            + "  -v, --verbose               also print the conversion messages\n"
+            + "  -q, --quiet                 no progress lines\n"
+            + "  -h, --help                  show this help\n"
+            + "\n"
+            + "Exit status: 0 all converted, 1 some files failed, 2 bad arguments or no input files.\n";
+
+    private final PrintStream out;
+    private final PrintStream err;
+
+    // settings from the arguments
+    private final GCodeConversionSettings settings = new GCodeConversionSettings();
+    private boolean zZeroOffsetSet = false;
+    private final List<String> inputArgs = new ArrayList<String>();
+    private final Set<String> extensions = new HashSet<String>(Arrays.asList("ngc"));
+    private Path outputDirectory = null; // null = next to each input file
+    private int jobs = 0; // 0 = from the number of cores
+    private Path summaryFile = null; // null = stdout
+    private boolean verbose = false;
+    private boolean quiet = false;
+
+    // an input file and where its output goes
+    private static class FileJob
+    {
+        final Path input;
+        final Path output;
+        long inputBytes;
+
+        // the outcome
+        GCodeConversionResult result;
+        String error; // null if converted
+        int errorLine; // where the error is in the input (0 if not known)
+        int errorColumn;
+        final List<String> warnings = new ArrayList<String>();
+        long elapsedNanos;
+
+        FileJob(Path input, Path output)
+        {
+            this.input = input;
+            this.output = output;
+        }
+    } // FileJob class
+
+    // a bad command line argument
+    static class UsageException extends Exception
+    {
+        private static final long serialVersionUID = 1L;
+
+        UsageException(String message)
+        {
+            super(message);
+        }
+    } // UsageException class
+
+    public BatchConverter(PrintStream out, PrintStream err)
+    {
+        this.out = out;
+        this.err = err;
+    } // constructor
+
+    public static void main(String[] args)
+    {
+        System.exit(new BatchConverter(System.out, System.err).run(args));
+    }
+
+    // run the batch, returns the exit status
+    public int run(String[] args)
+    {
+        List<FileJob> fileJobs;
+        try
+        {
+            if (!parseArguments(args))
+            {
+                out.print(USAGE);
+                return EXIT_OK; // help
+            }
+            fileJobs = findInputFiles();
+        }
+        catch (UsageException e)
+        {
+            err.println("ERROR: " + e.getMessage());
+            err.println("(use --help for the options)");
+            return EXIT_USAGE;
+        }
+
+        if (fileJobs.isEmpty())
+        {
+            err.println("ERROR: no input files found");
+            return EXIT_USAGE;
+        }
+
+        long startTime = System.nanoTime();
+        int jobCount = convertFiles(fileJobs);
+        long elapsedNanos = System.nanoTime() - startTime;
+
+        String summary = summaryJson(fileJobs, jobCount, elapsedNanos);
+        try
+        {
+            if (summaryFile != null)
+            {
+                Files.write(summaryFile, (summary + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            else
+            {
+                out.println(summary);
+                out.flush();
+            }
+        }
+        catch (IOException e)
+        {
+            err.println("ERROR writing the summary: " + e.getMessage());
+            return EXIT_FILES_FAILED;
+        }
+
+        for (FileJob job : fileJobs)
+        {
+            if (job.error != null)
+            {
+                return EXIT_FILES_FAILED;
+            }
+        }
+        return EXIT_OK;
+
+    } // run
+
+    // returns false if only the help was asked for
+    private boolean parseArguments(String[] args) throws UsageException
+    {
+        boolean optionsEnded = false;
+        for (int i = 0; i < args.length; i++)
+        {
+            String arg = args[i];
+            if (optionsEnded || !arg.startsWith("-") || arg.equals("-"))
+            {
+                inputArgs.add(arg);
+                continue;
+            }
+
+            switch (arg)
+            {
+                case "--":
+                    optionsEnded = true;
+                    break;
+                case "-h":
+                case "--help":
+                    return false;
+                case "-o":
+                case "--output-dir":
+                    outputDirectory = Paths.get(optionValue(args, ++i, arg));
+                    break;
+                case "-e":
+                case "--ext":
+                    extensions.clear();
+                    for (String ext : optionValue(args, ++i, arg).split(","))
+                    {
+                        ext = ext.trim();
+                        extensions.add((ext.startsWith(".") ? ext.substring(1) : ext).toLowerCase(Locale.ROOT));
+                    }
+                    break;
+                case "-j":
+                case "--jobs":
+                    jobs = parseInt(arg, optionValue(args, ++i, arg), 1, Integer.MAX_VALUE);
+                    break;
+                case "-s":
+                case "--summary":
+                    summaryFile = Paths.get(optionValue(args, ++i, arg));
+                    break;
+                case "-v":
+                case "--verbose":
+                    verbose = true;
+                    break;
+                case "-q":
+                case "--quiet":
+                    quiet = true;
+                    break;
+                default:
+                    int last = parseSettingsOption(args, i, settings);
+                    if (last < 0)
+                    {
+                        throw new UsageException("unknown option " + arg);
+                    }
+                    zZeroOffsetSet |= isZZeroOffsetOption(arg);
+                    i = last;
+                    break;
+            } // switch on option
+        } // for each argument
+
+        if (!zZeroOffsetSet)
+        {
+            throw new UsageException(MISSING_Z_ZERO_OFFSET);
+        }
+        if (inputArgs.isEmpty())
+        {
+            throw new UsageException("no input files, directories or patterns given");
+        }
+        return true;
+
+    } // parseArguments
+
+    // a conversion settings option (SETTINGS_USAGE) at args[i] into settings: returns the index of its last argument, or -1 if it isn't one
+    static int parseSettingsOption(String[] args, int i, GCodeConversionSettings settings) throws UsageException
+    {
+        String arg = args[i];
+        switch (arg)
+        {
+            case "-z":
+            case "--z-offset":
+                settings.setZZeroOffset(parseDouble(arg, optionValue(args, ++i, arg)));
+                break;
+            case "-m":
+            case "--mode":
+                settings.setConversionMode(parseConversionMode(optionValue(args, ++i, arg)));
+                break;
+            case "-u":
+            case "--units":
+                settings.setDistanceUnits(parseDistanceUnits(optionValue(args, ++i, arg)));
+                break;
+            case "-f":
+            case "--f-digits":
+                settings.setFOutputPrecision(parseInt(arg, optionValue(args, ++i, arg), 0, GCodeNumberFormatter.MAX_DIGITS));
+                break;
+            case "--rounding":
+                settings.setFRoundingMode(parseRoundingMode(optionValue(args, ++i, arg)));
+                break;
+            case "--sync":
+                settings.setSyncOutput(true);
+                break;
+            case "--incremental":
+                settings.setIncremental(true);
+                break;
+            case "--compile":
+                settings.setCompiledToolpath(true);
+                break;
+            case "--cache":
+                String directory = optionValue(args, ++i, arg);
+                try
+                {
+                    long maxSize = (settings.getCache() != null) ? settings.getCache().getMaxSize() : ConversionCache.DEFAULT_MAX_SIZE;
+                    settings.setCache(new ConversionCache(Paths.get(directory), maxSize));
+                }
+                catch (IOException | InvalidPathException e)
+                {
+                    throw new UsageException("cannot use cache directory " + directory + ": " + e.getMessage());
+                }
+                break;
+            case "--cache-size":
+                int megabytes = parseInt(arg, optionValue(args, ++i, arg), 0, Integer.MAX_VALUE);
+                if (settings.getCache() == null)
+                {
+                    throw new UsageException(arg + " needs --cache before it");
+                }
+                settings.getCache().setMaxSize(megabytes * 1024L * 1024);
+                break;
+            default:
+                return -1;
+        } // switch on option
+        return i;
+
+    } // parseSettingsOption
+
+    static boolean isZZeroOffsetOption(String arg)
+    {
+        return arg.equals("-z") || arg.equals("--z-offset");
+    }
+
+    // the value of an option (args[i]), for the other front ends too
+    static String optionValue(String[] args, int i, String option) throws UsageException
+    {
+        if (i >= args.length)
+        {
+            throw new UsageException(option + " needs a value");
+        }
+        return args[i];
+    } // optionValue
+
+    static double parseDouble(String option, String value) throws UsageException
+    {
+        try
+        {
+            return Double.parseDouble(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new UsageException(option + " is not a number: " + value);
+        }
+    } // parseDouble
+
+    // a whole number from min to max (Integer.MAX_VALUE for no maximum)
+    static int parseInt(String option, String value, int min, int max) throws UsageException
+    {
+        int result;
+        try
+        {
+            result = Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new UsageException(option + " is not a whole number: " + value);
+        }
+        if (result < min || result > max)
+        {
+            throw new UsageException(option + ((max == Integer.MAX_VALUE) ? " must be at least " + min : " must be " + min + " to " + max) + ": " + result);
+        }
+        return result;
+    } // parseInt
+
+    static ConversionMode parseConversionMode(String value) throws UsageException
+    {
+        switch (value.toLowerCase(Locale.ROOT))
+        {
+            case "all":
+            case "wrap_all":
+                return ConversionMode.WRAP_ALL;
+            case "each":
+            case "wrap_each_a_move":
+                return ConversionMode.WRAP_EACH_A_MOVE;
+            default:
+                throw new UsageException("mode must be all or each: " + value);
+        }
+    } // parseConversionMode
+
+    static DistanceUnits parseDistanceUnits(String value) throws UsageException
+    {
+        switch (value.toLowerCase(Locale.ROOT))
+        {
+            case "in":
+            case "inch":
+            case "inches":
+                return DistanceUnits.INCHES;
+            case "mm":
+                return DistanceUnits.MM;
+            default:
+                throw new UsageException("units must be in or mm: " + value);
+        }
+    } // parseDistanceUnits
+
+    static RoundingMode parseRoundingMode(String value) throws UsageException
+    {
+        switch (value.toLowerCase(Locale.ROOT).replace('_', '-'))
+        {
+            case "half-up":
+                return RoundingMode.HALF_UP;
+            case "half-even":
+                return RoundingMode.HALF_EVEN;
+            default:
+                throw new UsageException("rounding must be half-up or half-even: " + value);
+        }
+    } // parseRoundingMode
+
+    // --- input files ---
+
+    // the files to convert, in the order given (each directory and pattern sorted by path)
+    private List<FileJob> findInputFiles() throws UsageException
+    {
+        List<FileJob> fileJobs = new ArrayList<FileJob>();
+        Map<Path, Path> outputs = new HashMap<Path, Path>(); // output -> input, to catch two files with the same output
+        Set<Path> inputs = new HashSet<Path>();
+
+        for (String arg : inputArgs)
+        {
+            List<Path> found = new ArrayList<Path>();
+            Path baseDirectory; // output paths under the output directory are relative to this
+            if (isGlob(arg))
+            {
+                baseDirectory = globBaseDirectory(arg);
+                findGlobMatches(arg, baseDirectory, found);
+            }
+            else
+            {
+                Path path = Paths.get(arg);
+                if (Files.isDirectory(path))
+                {
+                    baseDirectory = path;
+                    findFilesInDirectory(path, found);
+                }
+                else if (Files.isRegularFile(path))
+                {
+                    baseDirectory = path.toAbsolutePath().getParent();
+                    found.add(path);
+                }
+                else
+                {
+                    throw new UsageException("input file or directory not found: " + arg);
+                }
+            }
+
+            for (Path input : found)
+            {
+                Path absoluteInput = input.toAbsolutePath().normalize();
+                if (!inputs.add(absoluteInput))
+                {
+                    continue; // given twice
+                }
+
+                Path output = outputFileFor(input, baseDirectory).toAbsolutePath().normalize();
+                if (output.equals(absoluteInput))
+                {
+                    throw new UsageException("the output file would overwrite the input file: " + input);
+                }
+                Path otherInput = outputs.put(output, absoluteInput);
+                if (otherInput != null)
+                {
+                    throw new UsageException(input + " and " + otherInput + " would both be converted to " + output);
+                }
+                fileJobs.add(new FileJob(input, output));
+            } // for each file found
+        } // for each input argument
+
+        return fileJobs;
+
+    } // findInputFiles
+
+    private Path outputFileFor(Path input, Path baseDirectory)
+    {
+        String outputName = GCodeConversionOutput.defaultFileName(input.getFileName().toString());
+        if (outputDirectory == null)
+        {
+            return input.resolveSibling(outputName);
+        }
+
+        // keep the directory structure below the directory (or pattern base) that was given
+        Path relativeParent = baseDirectory.toAbsolutePath().normalize().relativize(input.toAbsolutePath().normalize().getParent());
+        return outputDirectory.resolve(relativeParent.toString()).resolve(outputName);
+    } // outputFileFor
+
+    private void findFilesInDirectory(Path directory, final List<Path> found) throws UsageException
+    {
+        try
+        {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                {
+                    String name = file.getFileName().toString();
+                    String ext = GCodeConversionInput.gcodeExtension(name);
+                    if (attrs.isRegularFile() && extensions.contains(ext) && !GCodeConversionOutput.isDefaultFileName(name))
+                    {
+                        found.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        catch (IOException e)
+        {
+            throw new UsageException("cannot search directory " + directory + ": " + e.getMessage());
+        }
+        Collections.sort(found);
+    } // findFilesInDirectory
+
+    private static boolean isGlob(String arg)
+    {
+        return arg.indexOf('*') >= 0 || arg.indexOf('?') >= 0 || arg.indexOf('[') >= 0 || arg.indexOf('{') >= 0;
+    }
+
+    // the directory part of a pattern before the first wildcard (e.g. "posted/2018" for "posted/2018/*.ngc")
+    private static Path globBaseDirectory(String pattern)
+    {
+        int lastSeparator = baseDirectoryEnd(pattern);
+        return (lastSeparator >= 0) ? Paths.get(pattern.substring(0, lastSeparator + 1)) : Paths.get(".");
+    } // globBaseDirectory
+
+    // index of the last separator before the first wildcard, -1 if none
+    private static int baseDirectoryEnd(String pattern)
+    {
+        int firstWildcard = pattern.length();
+        for (char c : new char[] { '*', '?', '[', '{' })
+        {
+            int i = pattern.indexOf(c);
+            if (i >= 0 && i < firstWildcard)
+            {
+                firstWildcard = i;
+            }
+        }
+        return Math.max(pattern.lastIndexOf('/', firstWildcard), pattern.lastIndexOf('\\', firstWildcard));
+    } // baseDirectoryEnd
+
+    private static void findGlobMatches(String pattern, final Path baseDirectory, final List<Path> found) throws UsageException
+    {
+        int lastSeparator = baseDirectoryEnd(pattern);
+        String relativePattern = pattern.substring(lastSeparator + 1).replace('\\', '/');
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + relativePattern);
+
+        if (!Files.isDirectory(baseDirectory))
+        {
+            throw new UsageException("directory not found for pattern " + pattern);
+        }
+        try
+        {
+            Files.walkFileTree(baseDirectory, new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                {
+                    if (attrs.isRegularFile() && matcher.matches(baseDirectory.relativize(file))
+                            && !GCodeConversionOutput.isDefaultFileName(file.getFileName().toString()))
+                    {
+                        found.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        catch (IOException e)
+        {
+            throw new UsageException("cannot search for " + pattern + ": " + e.getMessage());
+        }
+        Collections.sort(found);
+    } // findGlobMatches
+
+    // --- conversion ---
+
+    // convert all the files, returns the number of files converted at once
+    private int convertFiles(List<FileJob> fileJobs)
+    {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int jobCount = Math.min(fileJobs.size(), (jobs > 0) ? jobs : cores * JOBS_PER_CORE);
+
+        // cores not needed for whole files can split up each file (e.g. one big file)
+        int threadsPerFile = Math.max(1, cores / jobCount);
+        settings.setParallelism(threadsPerFile, settings.getMinChunkSize());
+        settings.setPipelined(threadsPerFile > 1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(jobCount);
+        try
+        {
+            CompletionService<FileJob> completed = new ExecutorCompletionService<FileJob>(pool);
+            for (final FileJob job : fileJobs)
+            {
+                completed.submit(new Callable<FileJob>()
+                {
+                    public FileJob call()
+                    {
+                        convertFile(job);
+                        return job;
+                    }
+                });
+            }
+
+            for (int i = 1; i <= fileJobs.size(); i++)
+            {
+                FileJob job = completed.take().get();
+                if (!quiet)
+                {
+                    printProgress(i, fileJobs.size(), job);
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            // (convertFile catches everything, only an interrupt gets here)
+            err.println("ERROR: batch interrupted: " + e);
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+        return jobCount;
+
+    } // convertFiles
+
+    private void convertFile(final FileJob job)
+    {
+        long startTime = System.nanoTime();
+        GCodeConversionEngine engine = new GCodeConversionEngine(settings);
+        if (verbose)
+        {
+            engine.setListener(new GCodeConversionListener()
+            {
+                public void message(String message)
+                {
+                    synchronized (err)
+                    {
+                        err.println(job.input.getFileName() + ": " + message);
+                    }
+                }
+
+                public void progress(int percent)
+                {
+                }
+            });
+        }
+
+        try
+        {
+            job.inputBytes = Files.size(job.input);
+            engine.convert(GCodeConversionInput.fromPath(job.input), GCodeConversionOutput.toPath(job.output));
+        }
+        catch (Throwable e)
+        {
+            job.error = (e.getMessage() != null) ? e.getMessage() : e.toString();
+            if (e instanceof GCodeException)
+            {
+                job.errorLine = ((GCodeException) e).getLineNumber();
+                job.errorColumn = ((GCodeException) e).getColumn();
+            }
+
+            // delete an older output file so it isn't mistaken for this one! (the engine never leaves a partial one)
+            try
+            {
+                Files.deleteIfExists(job.output);
+            }
+            catch (IOException x)
+            {
+                job.warnings.add("Error deleting output file after error: " + x.getMessage());
+            }
+        }
+        job.elapsedNanos = System.nanoTime() - startTime;
+        job.result = engine.getResult();
+
+        if (job.result != null && job.error == null)
+        {
+            if (!job.result.isEndOfProgramFound())
+            {
+                job.warnings.add(GCodeConversionEngine.NO_END_OF_PROGRAM_WARNING.trim());
+            }
+            String hint = job.result.getConversionModeHint(settings.getConversionMode());
+            if (hint != null)
+            {
+                job.warnings.add(hint);
+            }
+        }
+
+    } // convertFile
+
+    private void printProgress(int done, int total, FileJob job)
+    {
+        String status = (job.error != null) ? "FAILED" : job.warnings.isEmpty() ? "OK" : "WARNING";
+        StringBuilder line = new StringBuilder();
+        line.append('[').append(done).append('/').append(total).append("] ").append(status).append(' ')
+                .append(GCodeException.locate(job.input.toString(), job.errorLine, job.errorColumn));
+        if (job.error == null)
+        {
+            line.append(" -> ").append(job.output);
+        }
+        line.append(String.format(Locale.ROOT, " (%.2f s, %.1f MB/s)", seconds(job.elapsedNanos), megabytesPerSecond(job.inputBytes, job.elapsedNanos)));
+        if (job.result != null && job.result.isFromCache())
+        {
+            line.append(" [cached]");
+        }
+        if (job.error != null)
+        {
+            line.append(": ").append(job.error.replace('\n', ' '));
+        }
+        synchronized (err)
+        {
+            err.println(line);
+            for (String warning : job.warnings)
+            {
+                err.println("    " + warning);
+            }
+        }
+    } // printProgress
+
+    // --- summary ---
+
+    private String summaryJson(List<FileJob> fileJobs, int jobCount, long elapsedNanos)
+    {
+        JsonWriter json = new JsonWriter();
+        json.beginObject();
+        json.field("version", GCodeConversionEngine.VERSION);
+
+        json.name("settings");
+        json.beginObject();
+        json.field("zZeroOffset", settings.getZZeroOffset());
+        json.field("conversionMode", settings.getConversionMode().name());
+        json.field("distanceUnits", settings.getDistanceUnits().name());
+        json.field("fOutputPrecision", settings.getFOutputPrecision());
+        json.field("fRoundingMode", settings.getFRoundingMode().name());
+        json.field("jobs", jobCount);
+        json.endObject();
+
+        // per file, and the totals
+        long files = 0, converted = 0, failed = 0, withWarnings = 0;
+        long inputBytes = 0, lines = 0, g00 = 0, g01 = 0, g02 = 0, g03 = 0, rotaryLines = 0;
+        double toolPathDistance = 0, degreesRotated = 0;
+        long fileNanos = 0;
+
+        json.name("files");
+        json.beginArray();
+        for (FileJob job : fileJobs)
+        {
+            files++;
+            if (job.error != null)
+            {
+                failed++;
+            }
+            else
+            {
+                converted++;
+                if (!job.warnings.isEmpty())
+                {
+                    withWarnings++;
+                }
+            }
+            inputBytes += job.inputBytes;
+            fileNanos += job.elapsedNanos;
+
+            json.beginObject();
+            json.field("input", job.input.toString());
+            json.field("output", (job.error == null) ? job.output.toString() : null);
+            json.field("status", (job.error != null) ? "error" : job.warnings.isEmpty() ? "ok" : "warning");
+            if (job.error != null)
+            {
+                json.field("error", job.error);
+                if (job.errorLine > 0)
+                {
+                    json.field("errorLine", job.errorLine);
+                    json.field("errorColumn", job.errorColumn); // (0 if only the line is known)
+                }
+            }
+            json.name("warnings");
+            json.beginArray();
+            for (String warning : job.warnings)
+            {
+                json.value(warning);
+            }
+            json.endArray();
+
+            GCodeConversionResult result = job.result;
+            if (result != null)
+            {
+                lines += result.getLinesProcessed();
+                g00 += result.getTotalG00lines();
+                g01 += result.getTotalG01lines();
+                g02 += result.getTotalG02lines();
+                g03 += result.getTotalG03lines();
+                rotaryLines += result.getNumberLinesWithRotaryMoves();
+                toolPathDistance += result.getTotalToolPathDistance();
+                degreesRotated += result.getTotalDegreesRotated();
+                writeResult(json, result);
+            } // if any statistics
+            writeThroughput(json, job.inputBytes, (result != null) ? result.getLinesProcessed() : 0, job.elapsedNanos);
+            json.endObject();
+        } // for each file
+        json.endArray();
+
+        json.name("summary");
+        json.beginObject();
+        json.field("files", files);
+        json.field("converted", converted);
+        json.field("warnings", withWarnings);
+        json.field("failed", failed);
+        writeStatistics(json, lines, g00, g01, g02, g03, rotaryLines, toolPathDistance, degreesRotated);
+        writeThroughput(json, inputBytes, lines, elapsedNanos);
+        json.field("fileSeconds", seconds(fileNanos)); // total of the files' times (more than the wall time when files run at once)
+        json.endObject();
+
+        ConversionCache cache = settings.getCache();
+        if (cache != null)
+        {
+            json.name("cache");
+            json.beginObject();
+            json.field("directory", cache.getDirectory().toString());
+            json.field("hits", cache.getHits());
+            json.field("misses", cache.getMisses());
+            json.field("stores", cache.getStores());
+            json.field("evictions", cache.getEvictions());
+            json.endObject();
+        } // cache
+
+        json.endObject();
+        return json.toString();
+
+    } // summaryJson
+
+    // the statistics of one conversion (also the reply of the conversion daemon)
+    static void writeResult(JsonWriter json, GCodeConversionResult result)
+    {
+        writeStatistics(json, result.getLinesProcessed(), result.getTotalG00lines(), result.getTotalG01lines(), result.getTotalG02lines(),
+                result.getTotalG03lines(), result.getNumberLinesWithRotaryMoves(), result.getTotalToolPathDistance(), result.getTotalDegreesRotated());
+        json.field("endOfProgramFound", result.isEndOfProgramFound());
+        json.field("fromCache", result.isFromCache());
+        json.name("rotaryMin");
+        if (result.isRotaryMinMaxFound())
+        {
+            json.value(result.getRotaryMin());
+        }
+        else
+        {
+            json.nullValue();
+        }
+        json.name("rotaryMax");
+        if (result.isRotaryMinMaxFound())
+        {
+            json.value(result.getRotaryMax());
+        }
+        else
+        {
+            json.nullValue();
+        }
+
+    } // writeResult
+
+    // the statistics done() shows in the GUI
+    private static void writeStatistics(JsonWriter json, long lines, long g00, long g01, long g02, long g03, long rotaryLines,
+            double toolPathDistance, double degreesRotated)
+    {
+        long g0123 = g00 + g01 + g02 + g03;
+        json.field("lines", lines);
+        json.field("g00Lines", g00);
+        json.field("g01Lines", g01);
+        json.field("g02Lines", g02);
+        json.field("g03Lines", g03);
+        json.field("g0123Lines", g0123);
+        json.field("rotaryLines", rotaryLines);
+        json.field("rotaryLinesPercent", (g0123 > 0) ? (int) (rotaryLines * 100.0 / g0123) : 0);
+        json.field("toolPathDistance", toolPathDistance);
+        json.field("degreesRotated", degreesRotated);
+    } // writeStatistics
+
+    static void writeThroughput(JsonWriter json, long bytes, long lines, long elapsedNanos)
+    {
+        json.field("inputBytes", bytes);
+        json.field("seconds", seconds(elapsedNanos));
+        json.field("megabytesPerSecond", megabytesPerSecond(bytes, elapsedNanos));
+        json.field("linesPerSecond", (elapsedNanos > 0) ? Math.round(lines / seconds(elapsedNanos)) : 0);
+    } // writeThroughput
+
+    private static double seconds(long nanos)
+    {
+        return nanos / 1000000000.0;
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos)
+    {
+        return (nanos > 0) ? Math.round(bytes / 1000000.0 / seconds(nanos) * 100) / 100.0 : 0;
+    }
+
+} // BatchConverter class
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Reads the lines of G-code from any channel (e.g. a stream from another
+ * program or a network connection) into a reused buffer, for input that can't
+ * be memory mapped.  Like MappedGCodeFileReader there is no char decoding and
+ * no String per line, each line is a view into the buffer.
+ *
+ * The channel is not closed by close(), it belongs to the caller.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class ChannelGCodeLineReader implements GCodeLineReader
+{
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024; // bytes
+    private static final int MAX_LINE_LENGTH = MappedGCodeFileReader.DEFAULT_WINDOW_SIZE;
+
+    private final ReadableByteChannel channel;
+    private byte[] bytes;
+    private ByteBuffer view; // the lines point into this (wraps bytes)
+    private long bufferOffset; // input offset of bytes[0]
+    private int start; // start of the next line
+    private int scanned; // bytes before this (from start) have no line break
+    private int limit; // number of valid bytes
+    private boolean endOfInput;
+
+    public ChannelGCodeLineReader(ReadableByteChannel channel)
+    {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    public ChannelGCodeLineReader(ReadableByteChannel channel, int bufferSize)
+    {
+        this.channel = channel;
+        this.bytes = new byte[bufferSize];
+        this.view = ByteBuffer.wrap(bytes);
+    } // constructor
+
+    @Override
+    public boolean readLine(GCodeLine line) throws IOException
+    {
+        while (true)
+        {
+            // look for the end of this line in what has been read so far
+            if (findLineBreak())
+            {
+                int terminatorLength = (bytes[scanned] == '\r' && scanned + 1 < limit && bytes[scanned + 1] == '\n') ? 2 : 1;
+                line.set(view, start, scanned - start, bufferOffset + start, terminatorLength);
+                start = scanned + terminatorLength;
+                scanned = start;
+                return true;
+            }
+
+            if (endOfInput)
+            {
+                if (start == limit)
+                {
+                    return false;
+                }
+
+                // last line, without a line break
+                line.set(view, start, limit - start, bufferOffset + start, 0);
+                start = limit;
+                scanned = limit;
+                return true;
+            } // end of input
+
+            readMore();
+
+        } // until a full line is found
+
+    } // readLine
+
+    // true if the next readLine() doesn't need to read from the channel (which may wait for the input)
+    public boolean hasBufferedLine()
+    {
+        return findLineBreak() || endOfInput;
+    }
+
+    // moves scanned up to the next line break (\n, \r\n, or a lone \r like BufferedReader.readLine), returns false if
+    // there is none in the buffer yet -- a \r at the end of the buffer waits for the next byte, unless the input has ended
+    private boolean findLineBreak()
+    {
+        for (int i = scanned; i < limit; i++)
+        {
+            if (bytes[i] == '\n' || bytes[i] == '\r')
+            {
+                scanned = i;
+                return (bytes[i] == '\n' || i + 1 < limit || endOfInput);
+            }
+        }
+        scanned = limit;
+        return false;
+    } // findLineBreak
+
+    // read more of the input after the bytes already in the buffer
+    private void readMore() throws IOException
+    {
+        // move the start of the line to the front, or make room for a long line
+        if (start > 0)
+        {
+            System.arraycopy(bytes, start, bytes, 0, limit - start);
+            bufferOffset += start;
+            limit -= start;
+            scanned -= start;
+            start = 0;
+        }
+        else if (limit == bytes.length)
+        {
+            if (bytes.length >= MAX_LINE_LENGTH)
+            {
+                throw new IOException("Line longer than " + MAX_LINE_LENGTH + " bytes at input offset " + bufferOffset);
+            }
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            view = ByteBuffer.wrap(bytes);
+        }
+
+        view.limit(bytes.length);
+        view.position(limit);
+        int bytesRead = channel.read(view);
+        view.clear(); // the lines use absolute indexes up to the capacity
+        if (bytesRead < 0)
+        {
+            endOfInput = true;
+        }
+        else
+        {
+            limit += bytesRead;
+        }
+
+    } // readMore
+
+    @Override
+    public long getPosition()
+    {
+        return bufferOffset + start;
+    }
+
+    @Override
+    public void close()
+    {
+        bytes = null;
+        view = null;
+    } // close
+
+} // ChannelGCodeLineReader class
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Passes the messages and progress of a conversion on to another listener
+ * (e.g. the GUI's), in amounts it can keep up with however big the file is.
+ *
+ * - progress is passed on at most every progressIntervalMillis (and always 0
+ *   and 100)
+ * - a message ending in a line number (e.g. "- G94 ... FOUND! Line =  12") is
+ *   a diagnostic that can repeat on every line: only its first few are passed
+ *   on, the rest are counted, and finish() adds one summary line for each
+ *   with how many there were and their first line numbers
+ * - at most maxMessages are passed on in all, finish() says how many more
+ *   were dropped
+ *
+ * The conversion is never slowed by whoever shows the messages.  Used by one
+ * thread (the conversion's), like any listener.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class CoalescingConversionListener implements GCodeConversionListener
+{
+    public static final int DEFAULT_REPEATS_SHOWN = 5;
+    public static final int DEFAULT_MAX_MESSAGES = 1000;
+    public static final long DEFAULT_PROGRESS_INTERVAL_MS = 50; // 20 updates a second
+    private static final int MAX_DIAGNOSTICS = 64; // different repeated messages counted (any more are passed on as they are)
+
+    private final GCodeConversionListener target;
+    private final int repeatsShown;
+    private final int maxMessages;
+    private final long progressIntervalNanos;
+
+    private final Map<String, Diagnostic> diagnostics = new LinkedHashMap<String, Diagnostic>(); // by message without its line number, in order found
+    private int messagesPassedOn;
+    private long messagesDropped;
+    private int lastProgress = -1; // passed on
+    private int pendingProgress = -1; // not passed on yet (-1 = none)
+    private long lastProgressTime;
+
+    // a message that ends in a line number, and how often it was seen
+    private static class Diagnostic
+    {
+        long count;
+        final StringBuilder firstLines = new StringBuilder();
+    } // Diagnostic class
+
+    public CoalescingConversionListener(GCodeConversionListener target)
+    {
+        this(target, DEFAULT_REPEATS_SHOWN, DEFAULT_MAX_MESSAGES, DEFAULT_PROGRESS_INTERVAL_MS);
+    }
+
+    public CoalescingConversionListener(GCodeConversionListener target, int repeatsShown, int maxMessages, long progressIntervalMillis)
+    {
+        if (target == null)
+        {
+            throw new IllegalArgumentException("Target listener must be set");
+        }
+        this.target = target;
+        this.repeatsShown = Math.max(0, repeatsShown);
+        this.maxMessages = Math.max(0, maxMessages);
+        this.progressIntervalNanos = Math.max(0, progressIntervalMillis) * 1000000L;
+    } // constructor
+
+    public void message(String message)
+    {
+        int numberStart = message.length();
+        while (numberStart > 0 && Character.isDigit(message.charAt(numberStart - 1)))
+        {
+            numberStart--;
+        }
+
+        if (numberStart < message.length() && numberStart > 0)
+        {
+            String key = message.substring(0, numberStart);
+            Diagnostic diagnostic = diagnostics.get(key);
+            if (diagnostic == null && diagnostics.size() < MAX_DIAGNOSTICS)
+            {
+                diagnostic = new Diagnostic();
+                diagnostics.put(key, diagnostic);
+            }
+            if (diagnostic != null)
+            {
+                diagnostic.count++;
+                if (diagnostic.count <= repeatsShown)
+                {
+                    diagnostic.firstLines.append((diagnostic.count > 1) ? ", " : "").append(message, numberStart, message.length());
+                }
+                else
+                {
+                    return; // counted, in the summary
+                }
+            }
+        } // ends in a line number
+
+        passOn(message);
+    } // message
+
+    private void passOn(String message)
+    {
+        if (messagesPassedOn < maxMessages)
+        {
+            messagesPassedOn++;
+            target.message(message);
+        }
+        else
+        {
+            messagesDropped++;
+        }
+    } // passOn
+
+    public void progress(int percent)
+    {
+        if (percent == lastProgress)
+        {
+            return;
+        }
+        long now = System.nanoTime();
+        if (percent == 0 || percent >= 100 || lastProgress < 0 || now - lastProgressTime >= progressIntervalNanos)
+        {
+            target.progress(percent);
+            lastProgress = percent;
+            lastProgressTime = now;
+            pendingProgress = -1;
+        }
+        else
+        {
+            pendingProgress = percent;
+        }
+    } // progress
+
+    // the conversion is over (done or not): the last progress, and the summary of what was not passed on
+    public void finish()
+    {
+        if (pendingProgress >= 0)
+        {
+            target.progress(pendingProgress);
+            lastProgress = pendingProgress;
+            pendingProgress = -1;
+        }
+
+        for (Map.Entry<String, Diagnostic> entry : diagnostics.entrySet())
+        {
+            Diagnostic diagnostic = entry.getValue();
+            if (diagnostic.count > repeatsShown)
+            {
+                target.message(entry.getKey().trim() + " ... " + diagnostic.count + " times in all"
+                        + ((diagnostic.firstLines.length() > 0) ? ", first on lines " + diagnostic.firstLines : ""));
+            }
+        }
+        if (messagesDropped > 0)
+        {
+            target.message("(" + messagesDropped + " more messages not shown)");
+        }
+
+        diagnostics.clear();
+        messagesPassedOn = 0;
+        messagesDropped = 0;
+    } // finish
+
+} // CoalescingConversionListener class
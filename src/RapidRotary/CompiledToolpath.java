@@ -0,0 +1,835 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The tokens of a G-code file compiled into a binary toolpath (.rrtp, kept
+ * next to the G-code file), so converting it again -- e.g. with another Z-zero
+ * offset or F precision -- doesn't tokenize the text or parse the numbers
+ * again.  The toolpath is recorded while the file is converted (see Builder),
+ * it doesn't take a pass of its own.
+ *
+ * The toolpath is split in segments, one for each part of the G-code file
+ * that was converted on its own (the chunks of a parallel conversion, or the
+ * whole file), so a parallel conversion can convert the same chunks from it.
+ * The file has a header, then the tokens of the lines in blocks of up to
+ * BLOCK_LINES lines (the blocks of the segments may be mixed), then the
+ * segment table: for each segment the G-code bytes it covers, their CRC-32,
+ * and the offsets of its blocks.  Each block holds its columns one after the
+ * other:
+ *   int lines, int tokens, int extra bytes, int value bytes
+ *   byte[lines] tokens on each line (NOT_COMPILED: tokenize the line's text)
+ *   byte[lines] comment of each line: NO_COMMENT, or 1 + the blanks before its '('
+ *   byte[tokens] kind of each token: the word letter (RAW_TOKEN for e.g. '%')
+ *                and how its value and place in the line are stored
+ *   byte[] extras of the tokens that need them (blanks before, length, digits)
+ *   byte[] values: the digits of each number, as a varint with the sign
+ * A number written plainly ("X-12.5", not "X+12.50" or "X.5") only takes
+ * its digits: its length follows from them, and a word after a blank (or the
+ * first word of the line) takes no extra bytes, so the toolpath is about half
+ * the size of the G-code (more with packed words like "G1X0Y0", their blanks
+ * are stored).  The G-code text itself is not in the toolpath: a
+ * conversion reads the lines from the G-code file, and loads the tokens of each
+ * line from the columns into the converter's tokenizer (see
+ * GCodeLineConverter.processCompiledLine), so the output is the same as
+ * converting the text.  The values are the same doubles parsing the text gives
+ * (GCodeNumberParser.toDouble), a number that doesn't fit is parsed from the
+ * text if the conversion needs it.  A toolpath is only used if the CRC-32 of
+ * each segment matches the G-code file as it is now (reading the file for that
+ * is much faster than tokenizing it), the file time is not trusted.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class CompiledToolpath implements Closeable
+{
+    public static final String SUFFIX = ".rrtp";
+    private static final int HEADER_SIZE = 64; // bytes, the blocks start after it
+    private static final int MAGIC = 0x52525450; // "RRTP"
+    private static final int FORMAT_VERSION = 3;
+    private static final int BLOCK_LINES = 16 * 1024;
+    private static final int BLOCK_HEADER_SIZE = 16; // bytes
+    private static final int SEGMENT_HEADER_SIZE = 24; // bytes, followed by the block offsets
+    private static final int NOT_COMPILED = 0xFF;
+    private static final int MAX_LINE_TOKENS = 0xFE; // lines with more tokens are not compiled
+    private static final int NO_COMMENT = 0;
+    private static final int MAX_EXTRA = 0xFF; // lines with more blanks before a token (or longer tokens) are not compiled
+
+    // token kind: the letter (A = 0 ... Z = 25, RAW_TOKEN) in the low bits, then how the token is stored
+    private static final int RAW_TOKEN = 26;
+    private static final int LETTER_MASK = 0x1F;
+    private static final int STORAGE_SHIFT = 5;
+    private static final int MAX_PLAIN_FRACTION_DIGITS = 5; // storage 0-5: a plain number with that many fraction digits
+    private static final int PLAIN_WITH_EXTRAS = 6; // a plain number, extras: fraction digits, blanks before it
+    private static final int TEXT_ONLY = 7; // not a plain number (or a raw token), extras: blanks before it, length
+
+    private static final long[] POWERS_OF_TEN = // (for the number of digits of a mantissa)
+    {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L, 10000000000L, 100000000000L,
+        1000000000000L, 10000000000000L, 100000000000000L, 1000000000000000L
+    };
+    private static final long CHECKSUM_WINDOW_SIZE = 64L * 1024 * 1024; // bytes of the G-code file mapped at a time
+
+    private final Path toolpathFile;
+    private final FileChannel channel;
+    private final long[] boundaries; // segment i has the lines in the G-code bytes [boundaries[i], boundaries[i + 1])
+    private final long[][] blockOffsets; // of the blocks of each segment, in line order
+    private final long lineCount;
+    private final long tokenCount;
+
+    private CompiledToolpath(Path toolpathFile, FileChannel channel, long[] boundaries, long[][] blockOffsets, long lineCount, long tokenCount)
+    {
+        this.toolpathFile = toolpathFile;
+        this.channel = channel;
+        this.boundaries = boundaries;
+        this.blockOffsets = blockOffsets;
+        this.lineCount = lineCount;
+        this.tokenCount = tokenCount;
+    } // constructor
+
+    // the compiled toolpath of a G-code file is kept next to it
+    public static Path sidecarFor(Path inputFile)
+    {
+        return inputFile.toAbsolutePath().resolveSibling(inputFile.getFileName() + SUFFIX);
+    }
+
+    // the compiled toolpath next to inputFile, null if there is none or inputFile was changed since it was compiled
+    public static CompiledToolpath openFor(Path inputFile)
+    {
+        return open(sidecarFor(inputFile), inputFile);
+    }
+
+    // null if toolpathFile doesn't exist, isn't a compiled toolpath of this version, or isn't the one of inputFile as it is now
+    public static CompiledToolpath open(Path toolpathFile, Path inputFile)
+    {
+        try
+        {
+            FileChannel channel = FileChannel.open(toolpathFile, StandardOpenOption.READ);
+            try
+            {
+                ByteBuffer header = read(channel, 0, HEADER_SIZE);
+                if (header == null || header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION)
+                {
+                    return null;
+                }
+                long sourceSize = header.getLong();
+                long lineCount = header.getLong();
+                long tokenCount = header.getLong();
+                long tableOffset = header.getLong();
+                int segmentCount = header.getInt();
+                long fileSize = channel.size();
+                if (sourceSize != Files.size(inputFile) || segmentCount <= 0 || tableOffset < HEADER_SIZE || tableOffset > fileSize
+                        || fileSize - tableOffset > Integer.MAX_VALUE)
+                {
+                    return null; // compiled from another version of the file
+                }
+
+                ByteBuffer table = read(channel, tableOffset, (int) (fileSize - tableOffset));
+                long[] boundaries = new long[segmentCount + 1];
+                long[][] blockOffsets = new long[segmentCount][];
+                FileChannel in = FileChannel.open(inputFile, StandardOpenOption.READ);
+                try
+                {
+                    for (int i = 0; i < segmentCount; i++)
+                    {
+                        if (table.remaining() < SEGMENT_HEADER_SIZE)
+                        {
+                            return null;
+                        }
+                        long start = table.getLong();
+                        long end = table.getLong();
+                        int checksum = table.getInt();
+                        int blocks = table.getInt();
+                        if (start != boundaries[i] || end < start || end > sourceSize || blocks < 0 || table.remaining() < 8L * blocks)
+                        {
+                            return null;
+                        }
+                        blockOffsets[i] = new long[blocks];
+                        table.asLongBuffer().get(blockOffsets[i]);
+                        table.position(table.position() + 8 * blocks);
+                        boundaries[i + 1] = end;
+
+                        if (checksum(in, start, end) != checksum)
+                        {
+                            return null; // compiled from another version of the file
+                        }
+                    } // for each segment
+                }
+                finally
+                {
+                    in.close();
+                }
+                if (boundaries[segmentCount] != sourceSize)
+                {
+                    return null;
+                }
+
+                CompiledToolpath toolpath = new CompiledToolpath(toolpathFile, channel, boundaries, blockOffsets, lineCount, tokenCount);
+                channel = null;
+                return toolpath;
+            }
+            finally
+            {
+                if (channel != null)
+                {
+                    channel.close();
+                }
+            }
+        }
+        catch (NoSuchFileException e)
+        {
+            return null; // not compiled
+        }
+        catch (IOException e)
+        {
+            return null; // not readable, compile it again
+        }
+    } // open
+
+    // size bytes of the channel at position, null if the channel ends before that
+    private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0)
+        {
+        }
+        if (buffer.hasRemaining())
+        {
+            return null;
+        }
+        buffer.flip();
+        return buffer;
+    } // read
+
+    // CRC-32 of the G-code bytes [start, end)
+    private static int checksum(FileChannel in, long start, long end) throws IOException
+    {
+        CRC32 checksum = new CRC32();
+        long position = start;
+        while (position < end)
+        {
+            long length = Math.min(end - position, CHECKSUM_WINDOW_SIZE);
+            checksum.update(in.map(FileChannel.MapMode.READ_ONLY, position, length));
+            position += length;
+        }
+        return (int) checksum.getValue();
+    } // checksum
+
+    public int getSegmentCount()
+    {
+        return blockOffsets.length;
+    }
+
+    // the start of each segment in the G-code file, then the file size (the chunks of ParallelGCodeFileConverter)
+    public long[] getSegmentBoundaries()
+    {
+        return boundaries.clone();
+    }
+
+    // reads the tokens of the lines of one segment, in order
+    public SegmentReader openSegment(int segment)
+    {
+        return new SegmentReader(blockOffsets[segment]);
+    }
+
+    // bytes of the G-code file the toolpath was compiled from
+    public long getSourceSize()
+    {
+        return boundaries[boundaries.length - 1];
+    }
+
+    public long getLineCount()
+    {
+        return lineCount;
+    }
+
+    public long getTokenCount()
+    {
+        return tokenCount;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    private IOException damaged()
+    {
+        return new IOException("Compiled toolpath " + toolpathFile + " is damaged");
+    }
+
+    private static long blockSize(int lines, int tokens, int extras, int values)
+    {
+        return BLOCK_HEADER_SIZE + 2L * lines + tokens + (long) extras + values;
+    }
+
+    // the tokens of the lines of one segment, a block at a time (each reader can be used on a thread of its own)
+    public class SegmentReader
+    {
+        private final long[] blocks;
+        private int nextBlock;
+
+        // the block being read, where each of its columns starts, and the next line, token, extra and value byte to load
+        private ByteBuffer block;
+        private int blockLines;
+        private int commentsAt;
+        private int kindsAt;
+        private int extrasAt;
+        private int valuesAt;
+        private int lineIndex;
+        private int tokenIndex;
+        private int extraIndex;
+        private int valueIndex;
+
+        private SegmentReader(long[] blocks)
+        {
+            this.blocks = blocks;
+        }
+
+        // the tokens of the next line of the segment (read from the G-code file) into the tokenizer, returns the number of tokens
+        public int loadTokens(GCodeLineTokenizer tokenizer, CharSequence line) throws IOException
+        {
+            if (lineIndex == blockLines)
+            {
+                readNextBlock();
+            }
+
+            int tokens = block.get(BLOCK_HEADER_SIZE + lineIndex) & 0xFF;
+            int comment = block.get(commentsAt + lineIndex) & 0xFF;
+            lineIndex++;
+            if (tokens == NOT_COMPILED)
+            {
+                return tokenizer.tokenize(line);
+            }
+            if (kindsAt + tokenIndex + tokens > extrasAt)
+            {
+                throw damaged();
+            }
+
+            tokenizer.beginLoad(line);
+            int lineLength = line.length();
+            int tokenEnd = 0;
+            for (int i = 0; i < tokens; i++)
+            {
+                int kind = block.get(kindsAt + tokenIndex) & 0xFF;
+                tokenIndex++;
+                int letterIndex = kind & LETTER_MASK;
+                int storage = kind >>> STORAGE_SHIFT;
+                char letter = (letterIndex == RAW_TOKEN) ? 0 : (char) ('A' + letterIndex);
+
+                int tokenStart;
+                double value = Double.NaN;
+                if (storage == TEXT_ONLY)
+                {
+                    tokenStart = tokenEnd + nextExtra();
+                    tokenEnd = tokenStart + nextExtra();
+                }
+                else
+                {
+                    int fractionDigits = storage;
+                    int blanks = (i == 0) ? 0 : 1;
+                    if (storage == PLAIN_WITH_EXTRAS)
+                    {
+                        fractionDigits = nextExtra();
+                        blanks = nextExtra();
+                        if (fractionDigits > GCodeNumberParser.MAX_FAST_DIGITS)
+                        {
+                            throw damaged();
+                        }
+                    }
+                    long signedMantissa = nextValue();
+                    boolean negative = (signedMantissa & 1) != 0;
+                    long mantissa = signedMantissa >>> 1;
+                    value = GCodeNumberParser.toDouble(mantissa, fractionDigits, negative);
+
+                    // the plain text of the number: the letter, '-', the integer digits, then '.' and the fraction digits
+                    int digits = fractionDigits + 1;
+                    while (digits < POWERS_OF_TEN.length && mantissa >= POWERS_OF_TEN[digits])
+                    {
+                        digits++;
+                    }
+                    int length = (negative ? 2 : 1) + digits + ((fractionDigits > 0) ? 1 : 0);
+
+                    tokenStart = tokenEnd + blanks;
+                    tokenEnd = tokenStart + length;
+                }
+
+                if (tokenEnd > lineLength || tokenEnd <= tokenStart || letterIndex > RAW_TOKEN || (letter == 0 && storage != TEXT_ONLY))
+                {
+                    throw damaged();
+                }
+                tokenizer.addLoadedToken(letter, tokenStart, tokenEnd, value);
+            } // for each token on the line
+
+            int commentStart = -1;
+            if (comment != NO_COMMENT)
+            {
+                commentStart = tokenEnd + comment - 1;
+                if (commentStart >= lineLength)
+                {
+                    throw damaged();
+                }
+            }
+            tokenizer.endLoad(commentStart);
+            return tokens;
+
+        } // loadTokens
+
+        private int nextExtra() throws IOException
+        {
+            if (extrasAt + extraIndex >= valuesAt)
+            {
+                throw damaged();
+            }
+            return block.get(extrasAt + extraIndex++) & 0xFF;
+        }
+
+        // the digits of the next number, shifted left with the sign in bit 0 -- 7 bits a byte, low bits first
+        private long nextValue() throws IOException
+        {
+            long digits = 0;
+            int shift = 0;
+            while (true)
+            {
+                if (valuesAt + valueIndex >= block.limit() || shift > 56)
+                {
+                    throw damaged();
+                }
+                int b = block.get(valuesAt + valueIndex++);
+                digits |= (long) (b & 0x7F) << shift;
+                if (b >= 0)
+                {
+                    return digits;
+                }
+                shift += 7;
+            }
+        } // nextValue
+
+        private void readNextBlock() throws IOException
+        {
+            if (nextBlock == blocks.length)
+            {
+                throw damaged(); // more lines than were compiled
+            }
+            long blockOffset = blocks[nextBlock++];
+            ByteBuffer header = read(channel, blockOffset, BLOCK_HEADER_SIZE);
+            if (header == null)
+            {
+                throw damaged();
+            }
+            int lines = header.getInt();
+            int tokens = header.getInt();
+            int extras = header.getInt();
+            int values = header.getInt();
+            long blockSize = blockSize(lines, tokens, extras, values);
+            if (lines <= 0 || tokens < 0 || extras < 0 || values < 0 || blockOffset + blockSize > channel.size())
+            {
+                throw damaged();
+            }
+
+            block = channel.map(FileChannel.MapMode.READ_ONLY, blockOffset, blockSize);
+            blockLines = lines;
+            commentsAt = BLOCK_HEADER_SIZE + lines;
+            kindsAt = commentsAt + lines;
+            extrasAt = kindsAt + tokens;
+            valuesAt = extrasAt + extras;
+            lineIndex = 0;
+            tokenIndex = 0;
+            extraIndex = 0;
+            valueIndex = 0;
+
+        } // readNextBlock
+
+    } // SegmentReader class
+
+    // records the toolpath of a G-code file while it is converted, and saves it next to the file --
+    // with a SegmentRecorder for each part of the file converted on its own, in file order
+    public static class Builder implements Closeable
+    {
+        private final Path toolpathFile;
+        private final FileChannel out;
+        private Path tempFile; // the toolpath is written here and moved into place when saved (null once saved)
+        private long end = HEADER_SIZE; // where the next block is written
+        private final List<SegmentRecorder> segments = new ArrayList<SegmentRecorder>();
+
+        public Builder(Path inputFile) throws IOException
+        {
+            toolpathFile = sidecarFor(inputFile);
+            tempFile = GCodeConversionOutput.createTempFileFor(toolpathFile);
+            FileChannel channel = null;
+            try
+            {
+                channel = FileChannel.open(tempFile, StandardOpenOption.WRITE);
+            }
+            finally
+            {
+                if (channel == null)
+                {
+                    Files.deleteIfExists(tempFile);
+                }
+            }
+            out = channel;
+        } // constructor
+
+        // records the lines converted from sourceStart on (the segments are added in file order)
+        public synchronized SegmentRecorder newSegment(long sourceStart)
+        {
+            SegmentRecorder segment = new SegmentRecorder(this, sourceStart);
+            segments.add(segment);
+            return segment;
+        } // newSegment
+
+        // writes the bytes after the ones written so far (from any thread), returns their offset in the toolpath
+        long write(ByteBuffer buffer) throws IOException
+        {
+            long offset;
+            synchronized (this)
+            {
+                offset = end;
+                end += buffer.remaining();
+            }
+            long position = offset;
+            while (buffer.hasRemaining())
+            {
+                position += out.write(buffer, position);
+            }
+            return offset;
+        } // write
+
+        // all the lines were converted: write the segment table and the header, and move the toolpath into place
+        public synchronized void save() throws IOException
+        {
+            long sourceSize = 0;
+            long lineCount = 0;
+            long tokenCount = 0;
+            int tableSize = 0;
+            for (SegmentRecorder segment : segments)
+            {
+                segment.finish();
+                if (segment.sourceStart != sourceSize)
+                {
+                    throw new IOException("Not all the lines of the G-code file were recorded in " + toolpathFile);
+                }
+                sourceSize = segment.sourceEnd;
+                lineCount += segment.lineCount;
+                tokenCount += segment.tokenCount;
+                tableSize += SEGMENT_HEADER_SIZE + 8 * segment.blockOffsets.size();
+            }
+
+            ByteBuffer table = ByteBuffer.allocate(tableSize);
+            for (SegmentRecorder segment : segments)
+            {
+                table.putLong(segment.sourceStart).putLong(segment.sourceEnd).putInt((int) segment.checksum.getValue()).putInt(segment.blockOffsets.size());
+                for (long blockOffset : segment.blockOffsets)
+                {
+                    table.putLong(blockOffset);
+                }
+            }
+            table.flip();
+            long tableOffset = write(table);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(sourceSize).putLong(lineCount).putLong(tokenCount).putLong(tableOffset).putInt(segments.size());
+            header.clear();
+            while (header.hasRemaining())
+            {
+                out.write(header, header.position());
+            }
+            out.close();
+
+            GCodeConversionOutput.commitTempFile(tempFile, toolpathFile, false);
+            tempFile = null;
+
+        } // save
+
+        // deletes the toolpath if it wasn't saved
+        @Override
+        public synchronized void close() throws IOException
+        {
+            out.close();
+            if (tempFile != null)
+            {
+                Files.deleteIfExists(tempFile);
+                tempFile = null;
+            }
+        } // close
+
+    } // Builder class
+
+    // records the tokens of the lines of one part of the G-code file, as they are converted in order
+    public static class SegmentRecorder
+    {
+        private final Builder builder;
+        private final long sourceStart;
+        private long sourceEnd;
+        private final CRC32 checksum = new CRC32(); // of the G-code bytes of the lines, checked when the toolpath is opened
+        private final List<Long> blockOffsets = new ArrayList<Long>();
+        private long lineCount;
+        private long tokenCount;
+        private BlockBuilder block = new BlockBuilder(); // null once finished
+
+        private SegmentRecorder(Builder builder, long sourceStart)
+        {
+            this.builder = builder;
+            this.sourceStart = sourceStart;
+            this.sourceEnd = sourceStart;
+        }
+
+        // the line was converted with the tokens in tokenizer
+        public void addLine(GCodeLine line, GCodeLineTokenizer tokenizer) throws IOException
+        {
+            if (block.addLine(line, tokenizer))
+            {
+                tokenCount += tokenizer.getTokenCount();
+            }
+            else
+            {
+                block.addNotCompiledLine();
+            }
+            lineCount++;
+            sourceEnd += line.length() + line.getTerminatorLength();
+            line.updateChecksum(checksum);
+
+            if (block.lines == BLOCK_LINES)
+            {
+                blockOffsets.add(block.write(builder));
+            }
+        } // addLine
+
+        // all the lines of the segment were added (the builder finishes the segments that weren't when it saves)
+        public void finish() throws IOException
+        {
+            if (block == null)
+            {
+                return;
+            }
+            if (block.lines > 0)
+            {
+                blockOffsets.add(block.write(builder));
+            }
+            block = null; // (let the columns go)
+        } // finish
+
+    } // SegmentRecorder class
+
+    // the columns of one block while it is recorded
+    private static class BlockBuilder
+    {
+        int lines;
+        int tokens;
+        int extras;
+        int values;
+        final byte[] lineTokens = new byte[BLOCK_LINES];
+        final byte[] comments = new byte[BLOCK_LINES];
+        byte[] kinds = new byte[4 * BLOCK_LINES];
+        byte[] extraColumn = new byte[BLOCK_LINES];
+        byte[] valueColumn = new byte[8 * BLOCK_LINES];
+
+        // the plain number found by plainDigits
+        private int fractionDigits;
+        private boolean negative;
+
+        // false if the line can't be compiled (nothing is added then)
+        boolean addLine(CharSequence line, GCodeLineTokenizer tokenizer)
+        {
+            int tokenCount = tokenizer.getTokenCount();
+            if (tokenCount > MAX_LINE_TOKENS)
+            {
+                return false;
+            }
+            if (tokens + tokenCount > kinds.length)
+            {
+                kinds = Arrays.copyOf(kinds, Math.max(tokens + tokenCount, kinds.length * 2));
+            }
+            int lineStartTokens = tokens;
+            int lineStartExtras = extras;
+            int lineStartValues = values;
+
+            int tokenEnd = 0;
+            for (int i = 0; i < tokenCount; i++)
+            {
+                char letter = tokenizer.getLetter(i);
+                int tokenStart = tokenizer.getTokenStart(i);
+                int blanks = tokenStart - tokenEnd;
+                tokenEnd = tokenizer.getTokenEnd(i);
+                int letterIndex = (letter == 0) ? RAW_TOKEN : letter - 'A';
+
+                long mantissa = (letter == 0) ? -1 : plainDigits(line, tokenStart + 1, tokenEnd);
+                if (mantissa >= 0)
+                {
+                    if (fractionDigits <= MAX_PLAIN_FRACTION_DIGITS && blanks == ((i == 0) ? 0 : 1))
+                    {
+                        kinds[tokens++] = (byte) (letterIndex | (fractionDigits << STORAGE_SHIFT));
+                    }
+                    else if (blanks <= MAX_EXTRA)
+                    {
+                        kinds[tokens++] = (byte) (letterIndex | (PLAIN_WITH_EXTRAS << STORAGE_SHIFT));
+                        putExtra(fractionDigits);
+                        putExtra(blanks);
+                    }
+                    else
+                    {
+                        break;
+                    }
+                    putValue((mantissa << 1) | (negative ? 1 : 0));
+                } // plain number
+                else if (blanks <= MAX_EXTRA && tokenEnd - tokenStart <= MAX_EXTRA)
+                {
+                    kinds[tokens++] = (byte) (letterIndex | (TEXT_ONLY << STORAGE_SHIFT));
+                    putExtra(blanks);
+                    putExtra(tokenEnd - tokenStart);
+                }
+                else
+                {
+                    break;
+                }
+            } // for each token
+
+            int comment = NO_COMMENT;
+            if (tokenizer.hasComment())
+            {
+                comment = tokenizer.getCommentStart() - tokenEnd + 1;
+            }
+            if (tokens - lineStartTokens < tokenCount || comment > MAX_EXTRA)
+            {
+                // a token or the comment too far from the one before it
+                tokens = lineStartTokens;
+                extras = lineStartExtras;
+                values = lineStartValues;
+                return false;
+            }
+
+            lineTokens[lines] = (byte) tokenCount;
+            comments[lines] = (byte) comment;
+            lines++;
+            return true;
+
+        } // addLine
+
+        // the digits of the number in line[start, end) if it is written plainly -- an optional '-', the integer digits
+        // (no leading zeros), then '.' and at least one fraction digit if any -- -1 if not (or too many digits to be exact)
+        private long plainDigits(CharSequence line, int start, int end)
+        {
+            int i = start;
+            negative = (i < end && line.charAt(i) == '-');
+            if (negative)
+            {
+                i++;
+            }
+
+            long mantissa = 0;
+            int integerStart = i;
+            while (i < end && line.charAt(i) >= '0' && line.charAt(i) <= '9')
+            {
+                mantissa = mantissa * 10 + (line.charAt(i) - '0');
+                i++;
+            }
+            int integerDigits = i - integerStart;
+            if (integerDigits == 0 || (integerDigits > 1 && line.charAt(integerStart) == '0'))
+            {
+                return -1;
+            }
+
+            fractionDigits = 0;
+            if (i < end && line.charAt(i) == '.')
+            {
+                i++;
+                while (i < end && line.charAt(i) >= '0' && line.charAt(i) <= '9')
+                {
+                    mantissa = mantissa * 10 + (line.charAt(i) - '0');
+                    fractionDigits++;
+                    i++;
+                }
+                if (fractionDigits == 0)
+                {
+                    return -1;
+                }
+            }
+
+            if (i != end || integerDigits + fractionDigits > GCodeNumberParser.MAX_FAST_DIGITS)
+            {
+                return -1;
+            }
+            return mantissa;
+
+        } // plainDigits
+
+        void addNotCompiledLine()
+        {
+            lineTokens[lines] = (byte) NOT_COMPILED;
+            comments[lines] = (byte) NO_COMMENT;
+            lines++;
+        }
+
+        private void putExtra(int b)
+        {
+            if (extras == extraColumn.length)
+            {
+                extraColumn = Arrays.copyOf(extraColumn, extras * 2);
+            }
+            extraColumn[extras++] = (byte) b;
+        }
+
+        // 7 bits a byte, low bits first, the high bit set on all but the last byte
+        private void putValue(long digits)
+        {
+            if (values + 8 > valueColumn.length)
+            {
+                valueColumn = Arrays.copyOf(valueColumn, valueColumn.length * 2);
+            }
+            while ((digits & ~0x7FL) != 0)
+            {
+                valueColumn[values++] = (byte) ((digits & 0x7F) | 0x80);
+                digits >>>= 7;
+            }
+            valueColumn[values++] = (byte) digits;
+        } // putValue
+
+        // returns the offset of the block in the toolpath
+        long write(Builder builder) throws IOException
+        {
+            ByteBuffer buffer = ByteBuffer.allocate((int) blockSize(lines, tokens, extras, values));
+            buffer.putInt(lines).putInt(tokens).putInt(extras).putInt(values);
+            buffer.put(lineTokens, 0, lines);
+            buffer.put(comments, 0, lines);
+            buffer.put(kinds, 0, tokens);
+            buffer.put(extraColumn, 0, extras);
+            buffer.put(valueColumn, 0, values);
+            buffer.flip();
+            long offset = builder.write(buffer);
+            lines = 0;
+            tokens = 0;
+            extras = 0;
+            values = 0;
+            return offset;
+        } // write
+    } // BlockBuilder class
+
+} // CompiledToolpath class
@@ -0,0 +1,473 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A directory of earlier conversions, so converting the same file again with
+ * the same settings only copies the earlier output (FileChannel.transferTo)
+ * and returns its statistics and messages.
+ *
+ * An entry's key is the SHA-256 of everything that makes the output what it
+ * is: the settings that change it (Z-zero offset, mode, units, F digits and
+ * rounding, version string), how the output file is compressed, and the bytes
+ * of the input file.  The output keeps the time stamp of the conversion that
+ * made it.  Only file to file conversions are cached.
+ *
+ * An entry is two files, <key>.ngc (the output) and <key>.properties (the
+ * statistics and messages), each written to a temporary file first and moved
+ * into place, the .properties last -- so any number of threads and programs
+ * (e.g. the batch workers, or several machines sharing a directory) can use the
+ * same cache: an entry is never seen half written, and one removed while it is
+ * read is a miss.  A hit sets the entry's time, and when the cache is bigger
+ * than its maximum size the entries used longest ago are removed (LRU).
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class ConversionCache
+{
+    public static final long DEFAULT_MAX_SIZE = 1024L * 1024 * 1024; // bytes
+    static final int MAX_MESSAGES = 1000; // kept in an entry, the rest are counted
+    private static final String OUTPUT_SUFFIX = ".ngc";
+    private static final String ENTRY_SUFFIX = ".properties"; // (written last, an entry is there if this is)
+    private static final String TEMP_PREFIX = ".tmp-";
+    private static final long STALE_TEMP_FILE_MS = 60L * 60 * 1000; // left by a program that was killed
+    private static final String KEY_FORMAT = "RapidRotary conversion cache 1"; // change to start a new set of keys
+
+    private final Path directory;
+    private volatile long maxSize;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    // an entry found in the cache: its output is already copied
+    static class Hit
+    {
+        final Properties statistics; // see GCodeConversionResult.store
+        final List<String> messages = new ArrayList<String>();
+
+        Hit(Properties statistics)
+        {
+            this.statistics = statistics;
+        }
+    } // Hit class
+
+    // passes the messages of a conversion on, and keeps them for its cache entry
+    static class MessageRecorder implements GCodeConversionListener
+    {
+        private final GCodeConversionListener target;
+        final List<String> messages = new ArrayList<String>();
+        long messagesNotKept;
+
+        MessageRecorder(GCodeConversionListener target)
+        {
+            this.target = target;
+        }
+
+        public void message(String message)
+        {
+            if (messages.size() < MAX_MESSAGES)
+            {
+                messages.add(message);
+            }
+            else
+            {
+                messagesNotKept++;
+            }
+            target.message(message);
+        } // message
+
+        public void progress(int percent)
+        {
+            target.progress(percent);
+        }
+    } // MessageRecorder class
+
+    // the directory is created if needed
+    public ConversionCache(Path directory, long maxSize) throws IOException
+    {
+        if (directory == null)
+        {
+            throw new IllegalArgumentException("Cache directory must be set");
+        }
+        Files.createDirectories(directory);
+        this.directory = directory;
+        setMaxSize(maxSize);
+    } // constructor
+
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    public long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    // bytes of all the entries, the ones used longest ago are removed above this
+    public void setMaxSize(long maxSize)
+    {
+        if (maxSize < 0)
+        {
+            throw new IllegalArgumentException("Cache size can't be negative: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    } // setMaxSize
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    // entries added
+    public long getStores()
+    {
+        return stores.get();
+    }
+
+    // entries removed to stay under the maximum size
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+
+    // everything besides the input that makes the output what it is (also used by IncrementalGCodeFileConverter)
+    static String settingsKey(GCodeConversionOutput output, GCodeConversionSettings settings)
+    {
+        return GCodeConversionEngine.VERSION + "\n"
+                + settings.getAppVersionString() + "\n"
+                + Double.doubleToLongBits(settings.getZZeroOffset()) + "\n"
+                + settings.getConversionMode().name() + "\n"
+                + settings.getDistanceUnits().name() + "\n"
+                + settings.getFOutputPrecision() + "\n"
+                + settings.getFRoundingMode().name() + "\n"
+                + output.getFormatKey() + "\n";
+    } // settingsKey
+
+    // the key of converting the input file into the output file with these settings (reads the whole input file)
+    String keyFor(Path inputFile, GCodeConversionOutput output, GCodeConversionSettings settings) throws IOException
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IOException(e); // (every Java has SHA-256)
+        }
+
+        digest.update((KEY_FORMAT + "\n" + settingsKey(output, settings)).getBytes(StandardCharsets.UTF_8));
+
+        FileChannel channel = FileChannel.open(inputFile, StandardOpenOption.READ);
+        try
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(ChannelGCodeLineReader.DEFAULT_BUFFER_SIZE);
+            while (channel.read(buffer) >= 0)
+            {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest())
+        {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    } // keyFor
+
+    // on a hit the entry's output is copied into outputFile (which must exist), null on a miss
+    Hit get(String key, Path outputFile)
+    {
+        Path entryFile = directory.resolve(key + ENTRY_SUFFIX);
+        Path cachedOutput = directory.resolve(key + OUTPUT_SUFFIX);
+        try
+        {
+            Properties entry = new Properties();
+            InputStream in = Files.newInputStream(entryFile);
+            try
+            {
+                entry.load(in);
+            }
+            finally
+            {
+                in.close();
+            }
+
+            long outputSize = Long.parseLong(entry.getProperty("outputSize"));
+            if (copy(cachedOutput, outputFile) != outputSize)
+            {
+                misses.incrementAndGet(); // (not the output of this entry, it is replaced when this is converted)
+                return null;
+            }
+
+            Hit hit = new Hit(entry);
+            new GCodeConversionResult(entry, 0); // (throws if any of the statistics are missing or damaged)
+            int messageCount = Integer.parseInt(entry.getProperty("messages", "0"));
+            for (int i = 0; i < messageCount; i++)
+            {
+                hit.messages.add(entry.getProperty("message." + i, ""));
+            }
+
+            // used now (for the LRU order)
+            try
+            {
+                Files.setLastModifiedTime(entryFile, FileTime.fromMillis(System.currentTimeMillis()));
+            }
+            catch (IOException ignore)
+            {
+            }
+            hits.incrementAndGet();
+            return hit;
+        }
+        catch (NoSuchFileException e)
+        {
+            misses.incrementAndGet(); // (not there, or removed while it was read)
+            return null;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            misses.incrementAndGet(); // (a damaged entry is replaced when this is converted)
+            return null;
+        }
+    } // get
+
+    // add the finished conversion of outputFile as the entry of key (not if it is bigger than the whole cache)
+    void put(String key, Path outputFile, GCodeConversionResult result, MessageRecorder recorder) throws IOException
+    {
+        if (Files.size(outputFile) > maxSize)
+        {
+            return; // (it would only push out all the other entries, and then itself)
+        }
+
+        Properties entry = new Properties();
+        result.store(entry);
+        List<String> messages = new ArrayList<String>(recorder.messages);
+        if (recorder.messagesNotKept > 0)
+        {
+            messages.add("(" + recorder.messagesNotKept + " more messages of the conversion not kept in the cache)");
+        }
+        entry.setProperty("messages", Integer.toString(messages.size()));
+        for (int i = 0; i < messages.size(); i++)
+        {
+            entry.setProperty("message." + i, messages.get(i));
+        }
+
+        // the output first, so the entry is never there without it
+        Path tempOutput = Files.createTempFile(directory, TEMP_PREFIX, OUTPUT_SUFFIX);
+        Path tempEntry = null;
+        try
+        {
+            long outputSize = copy(outputFile, tempOutput);
+            entry.setProperty("outputSize", Long.toString(outputSize));
+            moveIntoPlace(tempOutput, directory.resolve(key + OUTPUT_SUFFIX));
+            tempOutput = null;
+
+            tempEntry = Files.createTempFile(directory, TEMP_PREFIX, ENTRY_SUFFIX);
+            OutputStream out = Files.newOutputStream(tempEntry);
+            try
+            {
+                entry.store(out, "RapidRotary conversion cache entry");
+            }
+            finally
+            {
+                out.close();
+            }
+            moveIntoPlace(tempEntry, directory.resolve(key + ENTRY_SUFFIX));
+            tempEntry = null;
+        }
+        finally
+        {
+            if (tempOutput != null)
+            {
+                Files.deleteIfExists(tempOutput);
+            }
+            if (tempEntry != null)
+            {
+                Files.deleteIfExists(tempEntry);
+            }
+        }
+        stores.incrementAndGet();
+
+        evictIfTooBig();
+    } // put
+
+    // an entry, for the LRU order
+    private static class EntryInfo
+    {
+        final Path entryFile;
+        final Path outputFile;
+        final long size;
+        final long lastUsed;
+
+        EntryInfo(Path entryFile, Path outputFile, long size, long lastUsed)
+        {
+            this.entryFile = entryFile;
+            this.outputFile = outputFile;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    } // EntryInfo class
+
+    // remove the entries used longest ago until the cache is no bigger than the maximum size
+    private synchronized void evictIfTooBig() throws IOException
+    {
+        List<EntryInfo> entries = new ArrayList<EntryInfo>();
+        long totalSize = 0;
+        long now = System.currentTimeMillis();
+        DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+        try
+        {
+            for (Path file : files)
+            {
+                String name = file.getFileName().toString();
+                try
+                {
+                    if (name.startsWith(TEMP_PREFIX))
+                    {
+                        if (now - Files.getLastModifiedTime(file).toMillis() > STALE_TEMP_FILE_MS)
+                        {
+                            Files.deleteIfExists(file);
+                        }
+                    }
+                    else if (name.endsWith(ENTRY_SUFFIX))
+                    {
+                        Path outputFile = directory.resolve(name.substring(0, name.length() - ENTRY_SUFFIX.length()) + OUTPUT_SUFFIX);
+                        long size = Files.size(file) + (Files.exists(outputFile) ? Files.size(outputFile) : 0);
+                        entries.add(new EntryInfo(file, outputFile, size, Files.getLastModifiedTime(file).toMillis()));
+                        totalSize += size;
+                    }
+                }
+                catch (NoSuchFileException e)
+                {
+                    // (removed by another program meanwhile)
+                }
+            } // for each file
+        }
+        finally
+        {
+            files.close();
+        }
+
+        if (totalSize <= maxSize)
+        {
+            return;
+        }
+        Collections.sort(entries, new Comparator<EntryInfo>()
+        {
+            public int compare(EntryInfo a, EntryInfo b)
+            {
+                return Long.compare(a.lastUsed, b.lastUsed);
+            }
+        });
+        for (EntryInfo entry : entries)
+        {
+            if (totalSize <= maxSize)
+            {
+                break;
+            }
+            Files.deleteIfExists(entry.entryFile); // (first, then it is a miss)
+            Files.deleteIfExists(entry.outputFile);
+            totalSize -= entry.size;
+            evictions.incrementAndGet();
+        } // for each entry, oldest first
+
+    } // evictIfTooBig
+
+    // copy a whole file, returns its size
+    private static long copy(Path from, Path to) throws IOException
+    {
+        FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+        try
+        {
+            FileChannel out = FileChannel.open(to, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            try
+            {
+                long size = in.size();
+                long position = 0;
+                while (position < size)
+                {
+                    long bytesCopied = in.transferTo(position, size - position, out);
+                    if (bytesCopied <= 0)
+                    {
+                        break; // (made shorter meanwhile)
+                    }
+                    position += bytesCopied;
+                }
+                return position;
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    } // copy
+
+    private static void moveIntoPlace(Path tempFile, Path file) throws IOException
+    {
+        try
+        {
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    } // moveIntoPlace
+
+} // ConversionCache class
@@ -0,0 +1,755 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long running conversion server for post-processor hooks: the JVM start up
+ * and the JIT warm up are paid once, and each conversion then runs at full
+ * speed.  It listens on a loopback TCP port (not reachable from other hosts).
+ *
+ *   java -cp RapidRotary.jar RapidRotary.ConversionDaemon --port 47193 --workers 4 --idle-timeout 30
+ *
+ * Each request is one line: the token (see below) and then the same arguments
+ * as RapidRotary_CLI -- settings, input file and optional output file, words
+ * with spaces in double quotes.  The reply is one line of JSON with the status,
+ * warnings or error and the statistics of the conversion.  A connection can
+ * send any number of requests, e.g. with nc:
+ *
+ *   printf '%s -z 0.25 -m each "/jobs/part 1.ngc"\n' "$(cat ~/.rapidrotary/daemon-47193.token)" | nc 127.0.0.1 47193
+ *
+ * "ping" (after the token) replies with the daemon's counts, and "shutdown"
+ * stops it once the conversions running finish.
+ *
+ * Any local user can connect to a loopback port, and a request reads and
+ * writes files as the user running the daemon, so every request must start
+ * with a random token that the daemon writes, readable by its user only, to
+ * the --token-file when it starts (and deletes when it stops).
+ *
+ * Each connection is served on its own worker thread with its own conversion
+ * engine and settings, so requests don't share any state.  At most --workers
+ * connections are served at once, more wait for a free worker.  After
+ * --idle-timeout minutes with no connections the daemon stops by itself.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class ConversionDaemon
+{
+    public static final int DEFAULT_PORT = 47193;
+    public static final int DEFAULT_IDLE_TIMEOUT_MINUTES = 30;
+
+    private static final int ACCEPT_TIMEOUT_MS = 1000; // how often the accept loop checks for idle / shutdown
+    private static final int READ_TIMEOUT_MS = 5 * 60 * 1000; // a client that sends nothing for this long is dropped
+    private static final int MAX_REQUEST_LENGTH = 64 * 1024; // characters in one request line
+    private static final int WARMUP_LINES = 20000;
+    private static final int WARMUP_RUNS = 10;
+
+    private static final String USAGE =
+            "Usage: java -cp RapidRotary.jar RapidRotary.ConversionDaemon [options]\n"
+            + "Converts G-code files sent as requests on a loopback TCP port, with a warm JVM.\n"
+            + "\n"
+            + "  -p, --port <port>           port to listen on (default " + DEFAULT_PORT + ")\n"
+            + "  -w, --workers <n>           requests converted at once (default: the number of cores)\n"
+            + "  -i, --idle-timeout <min>    stop after this many minutes without requests, 0 = never (default "
+            + DEFAULT_IDLE_TIMEOUT_MINUTES + ")\n"
+            + "  -t, --token-file <file>     where to write the request token (default ~/.rapidrotary/daemon-<port>.token)\n"
+            + "      --no-warmup             don't convert a generated program a few times at start up to warm the JIT up\n"
+            + "  -q, --quiet                 don't log each request on stderr\n"
+            + "  -h, --help                  show this help\n"
+            + "\n"
+            + "Request (one line): <token> [settings] <input file> [<output file>]\n"
+            + BatchConverter.SETTINGS_USAGE
+            + "Other requests: <token> ping, <token> shutdown\n";
+
+    private final PrintStream out;
+    private final PrintStream err;
+
+    // settings from the arguments
+    private int port = DEFAULT_PORT;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private int idleTimeoutMinutes = DEFAULT_IDLE_TIMEOUT_MINUTES;
+    private Path tokenFile = null; // null = the default for the port
+    private boolean warmup = true;
+    private boolean quiet = false;
+
+    // while running
+    private String token;
+    private volatile boolean shutdownRequested = false;
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private volatile long lastActivityTime; // System.nanoTime() of the last connection or request
+    private final AtomicLong conversions = new AtomicLong();
+    private final AtomicLong conversionsFailed = new AtomicLong();
+
+    public ConversionDaemon(PrintStream out, PrintStream err)
+    {
+        this.out = out;
+        this.err = err;
+    } // constructor
+
+    public static void main(String[] args)
+    {
+        System.exit(new ConversionDaemon(System.out, System.err).run(args));
+    }
+
+    // serve requests until shut down or idle, returns the exit status
+    public int run(String[] args)
+    {
+        try
+        {
+            if (!parseArguments(args))
+            {
+                out.print(USAGE);
+                return BatchConverter.EXIT_OK; // help
+            }
+        }
+        catch (BatchConverter.UsageException e)
+        {
+            err.println("ERROR: " + e.getMessage());
+            err.println("(use --help for the options)");
+            return BatchConverter.EXIT_USAGE;
+        }
+
+        if (tokenFile == null)
+        {
+            tokenFile = Paths.get(System.getProperty("user.home"), ".rapidrotary", "daemon-" + port + ".token");
+        }
+
+        ServerSocket serverSocket = null;
+        ExecutorService workerPool = null;
+        try
+        {
+            serverSocket = new ServerSocket();
+            serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            serverSocket.setSoTimeout(ACCEPT_TIMEOUT_MS);
+
+            token = newToken();
+            writeTokenFile();
+
+            if (warmup)
+            {
+                warmUp();
+            }
+
+            // the connections wait in the queue when all the workers are busy
+            workerPool = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+            out.println("RapidRotary " + GCodeConversionEngine.VERSION + " conversion daemon listening on "
+                    + serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort()
+                    + " (" + workers + " workers, token in " + tokenFile + ")");
+            out.flush();
+
+            lastActivityTime = System.nanoTime();
+            long idleTimeoutNanos = TimeUnit.MINUTES.toNanos(idleTimeoutMinutes);
+            while (!shutdownRequested)
+            {
+                final Socket socket;
+                try
+                {
+                    socket = serverSocket.accept();
+                }
+                catch (SocketTimeoutException e)
+                {
+                    if (idleTimeoutMinutes > 0 && activeConnections.get() == 0 && System.nanoTime() - lastActivityTime > idleTimeoutNanos)
+                    {
+                        log("idle for " + idleTimeoutMinutes + " minutes, stopping");
+                        break;
+                    }
+                    continue;
+                }
+
+                activeConnections.incrementAndGet();
+                lastActivityTime = System.nanoTime();
+                workerPool.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            serveConnection(socket);
+                        }
+                        finally
+                        {
+                            lastActivityTime = System.nanoTime();
+                            activeConnections.decrementAndGet();
+                        }
+                    }
+                });
+            } // while not shut down
+
+            // let the requests already accepted finish
+            workerPool.shutdown();
+            workerPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            return BatchConverter.EXIT_OK;
+        }
+        catch (IOException e)
+        {
+            err.println("ERROR: " + e.getMessage());
+            return BatchConverter.EXIT_FILES_FAILED;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return BatchConverter.EXIT_FILES_FAILED;
+        }
+        finally
+        {
+            if (workerPool != null)
+            {
+                workerPool.shutdownNow();
+            }
+            if (serverSocket != null)
+            {
+                try
+                {
+                    serverSocket.close();
+                }
+                catch (IOException ignore)
+                {
+                }
+            }
+            if (token != null)
+            {
+                try
+                {
+                    Files.deleteIfExists(tokenFile);
+                }
+                catch (IOException e)
+                {
+                    err.println("Error deleting the token file: " + e.getMessage());
+                }
+            }
+        } // finally
+
+    } // run
+
+    // returns false if only the help was asked for
+    private boolean parseArguments(String[] args) throws BatchConverter.UsageException
+    {
+        for (int i = 0; i < args.length; i++)
+        {
+            String arg = args[i];
+            switch (arg)
+            {
+                case "-h":
+                case "--help":
+                    return false;
+                case "-p":
+                case "--port":
+                    port = BatchConverter.parseInt(arg, BatchConverter.optionValue(args, ++i, arg), 0, 65535);
+                    break;
+                case "-w":
+                case "--workers":
+                    workers = BatchConverter.parseInt(arg, BatchConverter.optionValue(args, ++i, arg), 1, Integer.MAX_VALUE);
+                    break;
+                case "-i":
+                case "--idle-timeout":
+                    idleTimeoutMinutes = BatchConverter.parseInt(arg, BatchConverter.optionValue(args, ++i, arg), 0, Integer.MAX_VALUE);
+                    break;
+                case "-t":
+                case "--token-file":
+                    tokenFile = Paths.get(BatchConverter.optionValue(args, ++i, arg));
+                    break;
+                case "--no-warmup":
+                    warmup = false;
+                    break;
+                case "-q":
+                case "--quiet":
+                    quiet = true;
+                    break;
+                default:
+                    throw new BatchConverter.UsageException("unknown option " + arg);
+            } // switch on option
+        } // for each argument
+        return true;
+
+    } // parseArguments
+
+    // --- token ---
+
+    private static String newToken()
+    {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes)
+        {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    } // newToken
+
+    // the token file is created readable by this user only (where the file system has POSIX permissions)
+    private void writeTokenFile() throws IOException
+    {
+        Path directory = tokenFile.toAbsolutePath().getParent();
+        if (directory != null)
+        {
+            Files.createDirectories(directory);
+        }
+        Files.deleteIfExists(tokenFile);
+        try
+        {
+            Files.createFile(tokenFile, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        catch (UnsupportedOperationException e)
+        {
+            Files.createFile(tokenFile); // (e.g. Windows, the user's profile directory is private anyway)
+        }
+        Files.write(tokenFile, (token + "\n").getBytes(StandardCharsets.US_ASCII));
+    } // writeTokenFile
+
+    // --- requests ---
+
+    private void serveConnection(Socket socket)
+    {
+        try
+        {
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Writer replies = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            try
+            {
+                String request;
+                while ((request = readRequest(in)) != null)
+                {
+                    if (request.trim().isEmpty())
+                    {
+                        continue;
+                    }
+                    lastActivityTime = System.nanoTime();
+                    replies.write(serveRequest(request));
+                    replies.write('\n');
+                    replies.flush();
+                    if (shutdownRequested)
+                    {
+                        break;
+                    }
+                } // while requests
+            }
+            finally
+            {
+                socket.close();
+            }
+        }
+        catch (SocketTimeoutException e)
+        {
+            log("client " + socket.getRemoteSocketAddress() + " sent nothing for " + (READ_TIMEOUT_MS / 1000) + " s, dropped");
+        }
+        catch (IOException e)
+        {
+            log("connection error: " + e.getMessage());
+        }
+
+    } // serveConnection
+
+    // the next line, null at the end of the input (a line too long to be a request is an error)
+    private static String readRequest(BufferedReader in) throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0)
+        {
+            if (c == '\n')
+            {
+                return sb.toString();
+            }
+            if (c != '\r')
+            {
+                if (sb.length() == MAX_REQUEST_LENGTH)
+                {
+                    throw new IOException("request longer than " + MAX_REQUEST_LENGTH + " characters");
+                }
+                sb.append((char) c);
+            }
+        }
+        return (sb.length() > 0) ? sb.toString() : null;
+    } // readRequest
+
+    // one request line, returns the JSON reply
+    String serveRequest(String request)
+    {
+        List<String> words;
+        try
+        {
+            words = splitWords(request);
+        }
+        catch (BatchConverter.UsageException e)
+        {
+            return errorReply(e.getMessage());
+        }
+
+        if (words.isEmpty() || !words.get(0).equals(token))
+        {
+            log("request without the token refused");
+            return errorReply("missing or wrong token");
+        }
+        words.remove(0);
+
+        if (words.size() == 1 && words.get(0).equals("ping"))
+        {
+            JsonWriter json = new JsonWriter(false);
+            json.beginObject();
+            json.field("status", "ok");
+            json.field("version", GCodeConversionEngine.VERSION);
+            json.field("workers", workers);
+            json.field("activeConnections", activeConnections.get());
+            json.field("conversions", conversions.get());
+            json.field("failed", conversionsFailed.get());
+            json.endObject();
+            return json.toString();
+        }
+        if (words.size() == 1 && words.get(0).equals("shutdown"))
+        {
+            log("shutdown requested");
+            shutdownRequested = true;
+            JsonWriter json = new JsonWriter(false);
+            json.beginObject();
+            json.field("status", "ok");
+            json.endObject();
+            return json.toString();
+        }
+
+        return convert(words.toArray(new String[words.size()]));
+
+    } // serveRequest
+
+    // a conversion request: [settings] input [output]
+    private String convert(String[] args)
+    {
+        long startTime = System.nanoTime();
+        conversions.incrementAndGet();
+        GCodeConversionSettings settings = new GCodeConversionSettings(); // each request has its own settings and engine
+        Path inputFile = null;
+        Path outputFile = null;
+        try
+        {
+            boolean zZeroOffsetSet = false;
+            for (int i = 0; i < args.length; i++)
+            {
+                String arg = args[i];
+                if (!arg.startsWith("-") || arg.equals("-"))
+                {
+                    if (inputFile == null)
+                    {
+                        inputFile = Paths.get(arg);
+                    }
+                    else if (outputFile == null)
+                    {
+                        outputFile = Paths.get(arg);
+                    }
+                    else
+                    {
+                        throw new BatchConverter.UsageException("only one input and one output file can be given: " + arg);
+                    }
+                    continue;
+                }
+                int last = BatchConverter.parseSettingsOption(args, i, settings);
+                if (last < 0)
+                {
+                    throw new BatchConverter.UsageException("unknown option " + arg);
+                }
+                zZeroOffsetSet |= BatchConverter.isZZeroOffsetOption(arg);
+                i = last;
+            } // for each argument
+
+            if (!zZeroOffsetSet)
+            {
+                throw new BatchConverter.UsageException(BatchConverter.MISSING_Z_ZERO_OFFSET);
+            }
+            if (inputFile == null)
+            {
+                throw new BatchConverter.UsageException("no input file given");
+            }
+            if (!Files.isRegularFile(inputFile))
+            {
+                throw new BatchConverter.UsageException("input file not found: " + inputFile);
+            }
+        }
+        catch (BatchConverter.UsageException e)
+        {
+            conversionsFailed.incrementAndGet();
+            return errorReply(e.getMessage());
+        }
+
+        if (outputFile == null)
+        {
+            outputFile = inputFile.resolveSibling(GCodeConversionOutput.defaultFileName(inputFile.getFileName().toString()));
+        }
+
+        // the workers already use the cores, big files only get the cores left over
+        settings.setParallelism(Math.max(1, Runtime.getRuntime().availableProcessors() / workers), settings.getMinChunkSize());
+        settings.setPipelined(false);
+
+        GCodeConversionEngine engine = new GCodeConversionEngine(settings);
+        String error = null;
+        long inputBytes = 0;
+        try
+        {
+            inputBytes = Files.size(inputFile);
+            engine.convert(GCodeConversionInput.fromPath(inputFile), GCodeConversionOutput.toPath(outputFile));
+        }
+        catch (Throwable e)
+        {
+            error = (e.getMessage() != null) ? e.getMessage() : e.toString();
+
+            // delete an older output file so it isn't mistaken for this one! (the engine never leaves a partial one)
+            try
+            {
+                Files.deleteIfExists(outputFile);
+            }
+            catch (IOException x)
+            {
+                error += " (Error deleting output file after error: " + x.getMessage() + ")";
+            }
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+        GCodeConversionResult result = engine.getResult();
+
+        List<String> warnings = new ArrayList<String>();
+        if (result != null && error == null)
+        {
+            if (!result.isEndOfProgramFound())
+            {
+                warnings.add(GCodeConversionEngine.NO_END_OF_PROGRAM_WARNING.trim());
+            }
+            String hint = result.getConversionModeHint(settings.getConversionMode());
+            if (hint != null)
+            {
+                warnings.add(hint);
+            }
+        }
+
+        if (error != null)
+        {
+            conversionsFailed.incrementAndGet();
+        }
+        String status = (error != null) ? "error" : warnings.isEmpty() ? "ok" : "warning";
+        log(status + " " + inputFile + " (" + (elapsedNanos / 1000000) + " ms)");
+
+        JsonWriter json = new JsonWriter(false);
+        json.beginObject();
+        json.field("status", status);
+        json.field("input", inputFile.toString());
+        json.field("output", (error == null) ? outputFile.toString() : null);
+        if (error != null)
+        {
+            json.field("error", error);
+        }
+        json.name("warnings");
+        json.beginArray();
+        for (String warning : warnings)
+        {
+            json.value(warning);
+        }
+        json.endArray();
+        if (result != null)
+        {
+            BatchConverter.writeResult(json, result);
+        }
+        BatchConverter.writeThroughput(json, inputBytes, (result != null) ? result.getLinesProcessed() : 0, elapsedNanos);
+        json.endObject();
+        return json.toString();
+
+    } // convert
+
+    private static String errorReply(String error)
+    {
+        JsonWriter json = new JsonWriter(false);
+        json.beginObject();
+        json.field("status", "error");
+        json.field("error", error);
+        json.endObject();
+        return json.toString();
+    } // errorReply
+
+    // words separated by spaces or tabs, "..." for words with spaces (\" and \\ inside the quotes)
+    static List<String> splitWords(String line) throws BatchConverter.UsageException
+    {
+        List<String> words = new ArrayList<String>();
+        StringBuilder word = new StringBuilder();
+        boolean inWord = false;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++)
+        {
+            char c = line.charAt(i);
+            if (quoted)
+            {
+                if (c == '"')
+                {
+                    quoted = false;
+                }
+                else if (c == '\\' && i + 1 < line.length() && (line.charAt(i + 1) == '"' || line.charAt(i + 1) == '\\'))
+                {
+                    word.append(line.charAt(++i));
+                }
+                else
+                {
+                    word.append(c);
+                }
+            }
+            else if (c == ' ' || c == '\t')
+            {
+                if (inWord)
+                {
+                    words.add(word.toString());
+                    word.setLength(0);
+                    inWord = false;
+                }
+            }
+            else if (c == '"')
+            {
+                quoted = true;
+                inWord = true;
+            }
+            else
+            {
+                word.append(c);
+                inWord = true;
+            }
+        } // for each char
+
+        if (quoted)
+        {
+            throw new BatchConverter.UsageException("missing closing quote");
+        }
+        if (inWord)
+        {
+            words.add(word.toString());
+        }
+        return words;
+
+    } // splitWords
+
+    // --- warm up ---
+
+    // convert a generated program (every kind of move, in both modes) a few times so the JIT compiles the conversion code
+    private void warmUp()
+    {
+        long startTime = System.nanoTime();
+        byte[] program = warmUpProgram();
+        OutputStream discard = new OutputStream()
+        {
+            @Override
+            public void write(int b)
+            {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len)
+            {
+            }
+        };
+
+        for (int run = 0; run < WARMUP_RUNS; run++)
+        {
+            GCodeConversionSettings settings = new GCodeConversionSettings();
+            settings.setZZeroOffset(0.25);
+            settings.setConversionMode((run % 2 == 0) ? ConversionMode.WRAP_ALL : ConversionMode.WRAP_EACH_A_MOVE);
+            try
+            {
+                new GCodeConversionEngine(settings).convert(GCodeConversionInput.fromStream(new ByteArrayInputStream(program)),
+                        GCodeConversionOutput.toStream(discard));
+            }
+            catch (Exception e)
+            {
+                log("warm up conversion failed: " + e.getMessage()); // (not fatal, only slower at first)
+                return;
+            }
+        } // for each run
+        log("warmed up in " + ((System.nanoTime() - startTime) / 1000000) + " ms");
+
+    } // warmUp
+
+    private static byte[] warmUpProgram()
+    {
+        StringBuilder sb = new StringBuilder(WARMUP_LINES * 32);
+        sb.append("%\nG17 G20 G90 G94\nG0 X0 Y0 Z1 A0\nG1 Z0 F40\n");
+        for (int i = 0; i < WARMUP_LINES; i++)
+        {
+            // back and forth along X while rotating, with a half circle each way
+            int x = (i / 8) % 400;
+            int a = (i / 8) % 360;
+            switch (i % 8)
+            {
+                case 0:
+                    sb.append("G0 X").append(x * 0.01).append(" Y0 A").append(a).append('\n');
+                    break;
+                case 1:
+                    sb.append("G1 X").append(x * 0.01).append(" Y0 Z-0.05 A").append(a).append(" F60\n");
+                    break;
+                case 2:
+                    sb.append("G2 X").append(x * 0.01 + 0.1).append(" Y0 I0.05 J0\n");
+                    break;
+                case 3:
+                    sb.append("G3 X").append(x * 0.01).append(" Y0 I-0.05 J0\n");
+                    break;
+                case 4:
+                    sb.append("G1 X").append(x * 0.01).append(" A").append(a + 1).append(" F50\n");
+                    break;
+                case 5:
+                    sb.append("Y0.05 A").append(a).append('\n'); // (G1 is modal)
+                    break;
+                case 6:
+                    sb.append("G1 Y0 F45 (comment)\n");
+                    break;
+                default:
+                    sb.append("X").append(x * 0.01).append(" A").append(a + 0.5).append('\n');
+                    break;
+            } // switch on line kind
+        } // for each line
+        sb.append("M30\n%\n");
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    } // warmUpProgram
+
+    private void log(String message)
+    {
+        if (!quiet)
+        {
+            synchronized (err)
+            {
+                err.println(message);
+            }
+        }
+    } // log
+
+} // ConversionDaemon class
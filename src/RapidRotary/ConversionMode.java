@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+/**
+ * How the G94 (units per minute) moves are converted to G93 (inverse time):
+ * the whole file, or each rotary move wrapped in G93 ... G94 on its own.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public enum ConversionMode
+{
+    WRAP_ALL, WRAP_EACH_A_MOVE
+} // ConversionMode enum
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes to a compressing OutputStream (e.g. GZIPOutputStream) on its own
+ * thread, so deflating the output happens while the next lines are converted.
+ *
+ * The same chunk hand over as InflatingChannel, the other way round: the
+ * writing thread fills chunks and the deflater thread writes them to the
+ * stream and hands them back.  Closing the channel writes what is left,
+ * waits for the deflater thread and closes the stream (which finishes the
+ * compressed file); an error of the deflater thread is thrown by the next
+ * write, or by close.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+class DeflatingChannel implements WritableByteChannel
+{
+    static final int CHUNK_SIZE = GCodeFileWriter.DEFAULT_BUFFER_SIZE / 4; // bytes
+    static final int CHUNKS = 8; // must be a power of 2
+
+    private final OutputStream out;
+    private final SpscRingBuffer<ByteBuffer> filledChunks = new SpscRingBuffer<ByteBuffer>(CHUNKS);
+    private final SpscRingBuffer<ByteBuffer> emptyChunks = new SpscRingBuffer<ByteBuffer>(CHUNKS);
+    private final Thread deflaterThread;
+    private volatile IOException error; // of the deflater thread, set before emptyChunks is closed
+
+    private ByteBuffer current; // being filled, null if none
+    private boolean open = true;
+
+    // everything written to the channel goes to out (and is deflated) on the deflater thread
+    DeflatingChannel(OutputStream out)
+    {
+        this.out = out;
+        for (int i = 0; i < CHUNKS; i++)
+        {
+            emptyChunks.offer(ByteBuffer.allocate(CHUNK_SIZE));
+        }
+
+        deflaterThread = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                deflate();
+            }
+        }, "RapidRotary deflater");
+        deflaterThread.setDaemon(true);
+        deflaterThread.start();
+    } // constructor
+
+    // deflater thread: write the filled chunks until the channel is closed (or an error)
+    private void deflate()
+    {
+        try
+        {
+            ByteBuffer chunk;
+            while ((chunk = filledChunks.take()) != null)
+            {
+                out.write(chunk.array(), 0, chunk.limit());
+                chunk.clear();
+                emptyChunks.offer(chunk); // (always room, there are only CHUNKS chunks)
+            }
+            out.close(); // finishes the compressed stream
+        }
+        catch (IOException e)
+        {
+            error = e;
+        }
+        catch (InterruptedException e)
+        {
+            error = new InterruptedIOException("Compressed output not finished");
+        }
+        finally
+        {
+            // (after an error) stop the writing thread at its next write
+            filledChunks.close();
+            emptyChunks.close();
+        }
+    } // deflate
+
+    public int write(ByteBuffer src) throws IOException
+    {
+        if (!open)
+        {
+            throw new ClosedChannelException();
+        }
+
+        int bytesWritten = src.remaining();
+        while (src.hasRemaining())
+        {
+            if (current == null)
+            {
+                current = takeEmptyChunk();
+            }
+
+            int bytesCopied = Math.min(src.remaining(), current.remaining());
+            int limit = src.limit();
+            src.limit(src.position() + bytesCopied);
+            current.put(src);
+            src.limit(limit);
+
+            if (!current.hasRemaining())
+            {
+                putFilledChunk();
+            }
+        } // while bytes to copy
+        return bytesWritten;
+    } // write
+
+    private ByteBuffer takeEmptyChunk() throws IOException
+    {
+        ByteBuffer chunk;
+        try
+        {
+            chunk = emptyChunks.take();
+        }
+        catch (InterruptedException e)
+        {
+            throw new InterruptedIOException("Compressed output not finished");
+        }
+        if (chunk == null || error != null)
+        {
+            throw deflaterError();
+        }
+        return chunk;
+    } // takeEmptyChunk
+
+    private void putFilledChunk() throws IOException
+    {
+        current.flip();
+        boolean added;
+        try
+        {
+            added = filledChunks.put(current);
+        }
+        catch (InterruptedException e)
+        {
+            throw new InterruptedIOException("Compressed output not finished");
+        }
+        current = null;
+        if (!added)
+        {
+            throw deflaterError();
+        }
+    } // putFilledChunk
+
+    private IOException deflaterError()
+    {
+        IOException e = error;
+        return new IOException("Error compressing output: " + ((e != null) ? e.getMessage() : "stopped"), e);
+    }
+
+    public boolean isOpen()
+    {
+        return open;
+    }
+
+    // finish the compressed stream (this waits for the deflater thread)
+    public void close() throws IOException
+    {
+        if (!open)
+        {
+            return;
+        }
+        open = false;
+
+        try
+        {
+            if (current != null && current.position() > 0 && error == null)
+            {
+                putFilledChunk();
+            }
+        }
+        finally
+        {
+            filledChunks.close(); // the deflater thread writes what is queued, then closes the stream
+            boolean interrupted = false;
+            while (deflaterThread.isAlive())
+            {
+                try
+                {
+                    deflaterThread.join();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true; // (keep waiting, the stream is still in use)
+                }
+            }
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (error != null)
+        {
+            try
+            {
+                out.close(); // (not finished, only the file is closed)
+            }
+            catch (IOException ignore)
+            {
+            }
+            throw deflaterError();
+        }
+    } // close
+
+} // DeflatingChannel class
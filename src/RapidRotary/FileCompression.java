@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.util.Locale;
+
+/**
+ * How a G-code file is compressed, from its file name: GZIP for .gz (e.g.
+ * part.ngc.gz), ZIP for .zip (the first file in the archive), otherwise NONE.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public enum FileCompression
+{
+    NONE(""), GZIP(".gz"), ZIP(".zip");
+
+    private final String suffix;
+
+    private FileCompression(String suffix)
+    {
+        this.suffix = suffix;
+    }
+
+    // the file name extension, including the dot ("" for NONE)
+    public String getSuffix()
+    {
+        return suffix;
+    }
+
+    public static FileCompression forFileName(String fileName)
+    {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        if (name.endsWith(GZIP.suffix))
+        {
+            return GZIP;
+        }
+        if (name.endsWith(ZIP.suffix))
+        {
+            return ZIP;
+        }
+        return NONE;
+    } // forFileName
+
+    // the file name without the .gz (part.ngc.gz -> part.ngc), a .zip or uncompressed name is unchanged
+    public static String stripGzipSuffix(String fileName)
+    {
+        return (forFileName(fileName) == GZIP) ? fileName.substring(0, fileName.length() - GZIP.suffix.length()) : fileName;
+    }
+
+} // FileCompression enum
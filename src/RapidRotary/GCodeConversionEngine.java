@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Converts G-code from G94 (units per minute) to G93 (inverse time) -- the
+ * whole conversion without any GUI, so it can run headless (e.g. on a server
+ * or from a CAM post-processing job) as well as behind the Swing worker.
+ *
+ * Typical use:
+ *   GCodeConversionEngine engine = new GCodeConversionEngine(settings);
+ *   engine.setListener(listener); // messages and progress (optional)
+ *   GCodeConversionResult result = engine.convert(GCodeConversionInput.fromPath(in), GCodeConversionOutput.toPath(out));
+ *
+ * File to file conversions use the memory mapped input and, depending on the
+ * settings and the file size, convert in parallel chunks or in a read /
+ * convert / write pipeline.  Streams and channels are converted line by line.
+ * An output file is written to a temporary file and only moved into place
+ * once the conversion succeeded, so it is never left partly written.  With a
+ * ConversionCache in the settings, a file converted before with the same
+ * settings is copied from the cache instead, and an incremental conversion
+ * only converts the parts of the input that changed since the output file was
+ * last converted.  A file can also be compiled into a binary toolpath next
+ * to it (see CompiledToolpath), recorded while it is converted, which later
+ * conversions read instead of the text.
+ * An engine can be reused for more conversions (one at a time).
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class GCodeConversionEngine
+{
+    public static final String VERSION = "v1.2.0";
+
+    public static final String NO_END_OF_PROGRAM_WARNING = "WARNING: no end of program found (%, M2, or M30). A G94 command was not inserted at the end of the output file. ";
+
+    // how often (in lines) the input position is checked to update the progress, must be a power of 2
+    private static final int PROGRESS_CHECK_LINES = 4096;
+
+    // used when no listener is set
+    private static final GCodeConversionListener NO_LISTENER = new GCodeConversionListener()
+    {
+        public void message(String message)
+        {
+        }
+
+        public void progress(int percent)
+        {
+        }
+    };
+
+    private final GCodeConversionSettings settings;
+    private GCodeConversionListener listener = NO_LISTENER;
+
+    private GCodeLineConverter converter; // the state of the current (or last) conversion
+    private GCodeConversionResult result; // of the last conversion
+
+    public GCodeConversionEngine(GCodeConversionSettings settings)
+    {
+        if (settings == null)
+        {
+            throw new IllegalArgumentException("Settings must be set");
+        }
+        this.settings = settings;
+    } // constructor
+
+    public GCodeConversionSettings getSettings()
+    {
+        return settings;
+    }
+
+    // messages and progress of the conversions go here (null = none)
+    public void setListener(GCodeConversionListener listener)
+    {
+        this.listener = (listener != null) ? listener : NO_LISTENER;
+    }
+
+    // convert the input into the output, if there is an error the exception has the line number (getResult() has the statistics up to it)
+    public GCodeConversionResult convert(GCodeConversionInput input, GCodeConversionOutput output) throws Exception
+    {
+        long startTime = System.nanoTime();
+        result = null;
+
+        // new converter -- all the G-code state and statistics start from scratch
+        converter = new GCodeLineConverter(settings.getZZeroOffset(), settings.getConversionMode(), settings.getDistanceUnits(),
+                settings.getFOutputPrecision(), settings.getFRoundingMode(), settings.getAppVersionString());
+        GCodeConversionListener conversionListener = listener; // (with a cache, the messages are also kept for its entry)
+
+        Path tempFile = null; // an output file is written here, and moved into place when done
+        ConversionCache.Hit cacheHit = null; // the output was copied from the cache
+        IncrementalGCodeFileConverter incrementalConverter = null; // saves what the next conversion can reuse, once the output is in place
+        CompiledToolpath toolpath = null; // the input compiled before, converted instead of its text
+        CompiledToolpath.Builder toolpathBuilder = null; // records the toolpath of the input while it is converted
+        try
+        {
+            Path inputPath = input.getPath();
+            Path outputPath = output.getPath();
+            long inputSize = input.getSize();
+            GCodeConversionOutput target = output;
+            if (outputPath != null)
+            {
+                output.createParentDirectories();
+                tempFile = GCodeConversionOutput.createTempFileFor(outputPath);
+                target = output.toTempFile(tempFile);
+            }
+
+            // an earlier conversion of the same file with the same settings?
+            ConversionCache cache = (inputPath != null && tempFile != null) ? settings.getCache() : null;
+            String cacheKey = null;
+            ConversionCache.MessageRecorder recorder = null;
+            if (cache != null)
+            {
+                cacheKey = cache.keyFor(inputPath, output, settings);
+                cacheHit = cache.get(cacheKey, tempFile);
+                if (cacheHit == null)
+                {
+                    recorder = new ConversionCache.MessageRecorder(listener);
+                    conversionListener = recorder;
+                }
+            } // cache
+            converter.setListener(conversionListener);
+
+            // the parallel and pipelined conversions map the input file and write the output file as it is
+            boolean plainFiles = inputPath != null && !input.isCompressed() && tempFile != null && !target.isCompressed();
+            boolean compileInput = plainFiles && cacheHit == null && settings.isCompiledToolpath() && !settings.isIncremental();
+            boolean parallel = plainFiles && settings.getParallelism() > 1 && inputSize >= 2 * settings.getMinChunkSize();
+            if (compileInput)
+            {
+                toolpath = CompiledToolpath.openFor(inputPath);
+                if (toolpath != null && parallel && toolpath.getSegmentCount() < 2)
+                {
+                    // compiled in one piece -- convert the text in parallel chunks instead, and record the toolpath by chunk
+                    toolpath.close();
+                    toolpath = null;
+                }
+                if (toolpath == null)
+                {
+                    try
+                    {
+                        toolpathBuilder = new CompiledToolpath.Builder(inputPath);
+                    }
+                    catch (IOException e)
+                    {
+                        listener.message("Error saving the compiled toolpath: " + e.getMessage());
+                    }
+                }
+            } // compiled toolpath
+
+            if (cacheHit != null)
+            {
+                // the earlier conversion's output is already in the temporary file, and its messages are the same
+                for (String message : cacheHit.messages)
+                {
+                    listener.message(message);
+                }
+                listener.message("- Output copied from the conversion cache (" + cacheKey.substring(0, 12) + ")");
+            }
+            else if (plainFiles && settings.isIncremental())
+            {
+                // convert only the chunks of the file that changed since the output file was converted, copy the rest from it
+                incrementalConverter = new IncrementalGCodeFileConverter(outputPath, ConversionCache.settingsKey(output, settings));
+                incrementalConverter.convert(inputPath, tempFile, converter, conversionListener);
+            }
+            else if (parallel)
+            {
+                // large file -- convert chunks of it at the same time (same output as one line at a time),
+                // the chunks of the compiled toolpath if there is one
+                ParallelGCodeFileConverter parallelConverter = new ParallelGCodeFileConverter(settings.getParallelism(), settings.getMinChunkSize());
+                parallelConverter.convert(inputPath.toString(), tempFile, converter, conversionListener, toolpath, toolpathBuilder);
+            }
+            else if (toolpath != null)
+            {
+                // compiled before -- the tokens of each line are read from the toolpath, not parsed from the text again
+                convertCompiled(inputPath, toolpath, tempFile);
+            }
+            else
+            {
+                if (toolpathBuilder != null)
+                {
+                    converter.setToolpathRecorder(toolpathBuilder.newSegment(0));
+                }
+                if (plainFiles && settings.isPipelined())
+                {
+                    PipelinedGCodeFileConverter pipelinedConverter = new PipelinedGCodeFileConverter(PipelinedGCodeFileConverter.DEFAULT_QUEUE_BATCHES);
+                    pipelinedConverter.convert(inputPath.toString(), tempFile, converter, conversionListener);
+                }
+                else
+                {
+                    convertSequentially(input, target, inputSize);
+                }
+            }
+            if (toolpath != null)
+            {
+                conversionListener.message("- Converted from the compiled toolpath " + CompiledToolpath.sidecarFor(inputPath).getFileName());
+            }
+
+            if (tempFile != null)
+            {
+                GCodeConversionOutput.commitTempFile(tempFile, outputPath, settings.isSyncOutput());
+                tempFile = null;
+            }
+            if (incrementalConverter != null)
+            {
+                try
+                {
+                    incrementalConverter.saveManifest();
+                }
+                catch (IOException e)
+                {
+                    listener.message("Error saving the incremental conversion file: " + e.getMessage());
+                }
+            }
+            if (toolpathBuilder != null)
+            {
+                try
+                {
+                    toolpathBuilder.save();
+                }
+                catch (IOException e)
+                {
+                    listener.message("Error saving the compiled toolpath: " + e.getMessage());
+                }
+            }
+            listener.progress(100);
+
+            if (cacheHit == null)
+            {
+                // the line count comes for free from the conversion pass
+                conversionListener.message("Total lines in input file: " + converter.getLinesProcessed());
+                if (!converter.endOfProgramFound)
+                {
+                    conversionListener.message(NO_END_OF_PROGRAM_WARNING);
+                }
+            }
+
+            if (recorder != null)
+            {
+                try
+                {
+                    cache.put(cacheKey, outputPath, new GCodeConversionResult(converter, 0), recorder);
+                }
+                catch (IOException e)
+                {
+                    listener.message("Error adding the output to the conversion cache: " + e.getMessage());
+                }
+            } // new cache entry
+        }
+        finally
+        {
+            if (toolpath != null)
+            {
+                toolpath.close();
+            }
+            if (toolpathBuilder != null)
+            {
+                try
+                {
+                    toolpathBuilder.close(); // (deletes it if it wasn't saved)
+                }
+                catch (IOException e)
+                {
+                    listener.message("Error deleting the compiled toolpath: " + e.getMessage());
+                }
+            }
+            if (tempFile != null)
+            {
+                // not finished -- the output file is left as it was
+                try
+                {
+                    Files.deleteIfExists(tempFile);
+                }
+                catch (IOException e)
+                {
+                    listener.message("Error deleting temporary output file " + tempFile + ": " + e.getMessage());
+                }
+            }
+            long elapsedNanos = System.nanoTime() - startTime;
+            result = (cacheHit != null) ? new GCodeConversionResult(cacheHit.statistics, elapsedNanos) : new GCodeConversionResult(converter, elapsedNanos);
+        }
+        return result;
+
+    } // convert
+
+    // read and process each line of the input: (lines are read straight from the memory mapped file, or a buffer)
+    private void convertSequentially(GCodeConversionInput input, GCodeConversionOutput output, long inputSize) throws IOException, GCodeException
+    {
+        GCodeLineReader inReader = input.openReader();
+        try
+        {
+            // unchanged lines are copied from a mapped input file in runs, only changed lines are rebuilt
+            MappedGCodeFileReader mappedReader = (inReader instanceof MappedGCodeFileReader) ? (MappedGCodeFileReader) inReader : null;
+            GCodeFileWriter outputFileWriter = new GCodeFileWriter(output.openChannel(), mappedReader);
+            converter.setOutput(outputFileWriter);
+
+            // the flush policy, for output that is read while it is converted
+            int flushEveryLines = settings.getFlushEveryLines();
+            long flushIntervalNanos = settings.getFlushIntervalMillis() * 1000000L;
+            ChannelGCodeLineReader waitingReader = (settings.isFlushBeforeInputWait() && inReader instanceof ChannelGCodeLineReader)
+                    ? (ChannelGCodeLineReader) inReader : null;
+            boolean flushing = flushEveryLines > 0 || flushIntervalNanos > 0 || waitingReader != null;
+            int linesSinceFlush = 0;
+            long lastFlushTime = System.nanoTime();
+
+            try
+            {
+                GCodeLine nextLine = new GCodeLine();
+                int lastProgress = 0;
+                while (inReader.readLine(nextLine))
+                {
+                    // process line and write it to the output: (if there is an error it will throw an exception)
+                    converter.processInputLine(nextLine);
+
+                    if (flushing)
+                    {
+                        linesSinceFlush++;
+                        if ((flushEveryLines > 0 && linesSinceFlush >= flushEveryLines)
+                                || (flushIntervalNanos > 0 && System.nanoTime() - lastFlushTime >= flushIntervalNanos)
+                                || (waitingReader != null && !waitingReader.hasBufferedLine()))
+                        {
+                            outputFileWriter.flush();
+                            linesSinceFlush = 0;
+                            lastFlushTime = (flushIntervalNanos > 0) ? System.nanoTime() : 0;
+                        }
+                    } // flush policy
+
+                    // set progress -- the position of the input (checked every few thousand lines, it is close enough)
+                    if ((converter.getLinesProcessed() & (PROGRESS_CHECK_LINES - 1)) == 0 && inputSize > 0)
+                    {
+                        int progress = (int) ((inReader.getPosition() * 100) / inputSize);
+                        if (progress != lastProgress)
+                        {
+                            listener.progress(Math.min(progress, 100));
+                            lastProgress = progress;
+                        }
+                    } // progress check
+
+                } // while each line from the input
+            }
+            catch (Exception e)
+            {
+                outputFileWriter.discard(); // (the lines not flushed yet are not written, nothing if the error was in the first buffer)
+                throw e;
+            }
+            outputFileWriter.close(); // (first, it may still copy from the input file)
+        }
+        finally
+        {
+            inReader.close();
+        }
+
+    } // convertSequentially
+
+    // convert the lines of the input file with the tokens read from its compiled toolpath, the same as convertSequentially
+    private void convertCompiled(Path inputPath, CompiledToolpath toolpath, Path outputFile) throws IOException, GCodeException
+    {
+        MappedGCodeFileReader inReader = new MappedGCodeFileReader(inputPath.toString());
+        try
+        {
+            GCodeFileWriter outputFileWriter = new GCodeFileWriter(outputFile, inReader);
+            converter.setOutput(outputFileWriter);
+            try
+            {
+                GCodeLine nextLine = new GCodeLine();
+                long sourceSize = toolpath.getSourceSize();
+                long[] segmentBoundaries = toolpath.getSegmentBoundaries();
+                int segment = 0;
+                CompiledToolpath.SegmentReader tokens = toolpath.openSegment(segment);
+                int lastProgress = 0;
+                while (inReader.readLine(nextLine))
+                {
+                    while (nextLine.getFileOffset() >= segmentBoundaries[segment + 1])
+                    {
+                        // (compiled in chunks by a parallel conversion)
+                        segment++;
+                        tokens = toolpath.openSegment(segment);
+                    }
+                    converter.processCompiledLine(nextLine, tokens);
+
+                    if ((converter.getLinesProcessed() & (PROGRESS_CHECK_LINES - 1)) == 0 && sourceSize > 0)
+                    {
+                        int progress = (int) ((inReader.getPosition() * 100) / sourceSize);
+                        if (progress != lastProgress)
+                        {
+                            listener.progress(Math.min(progress, 100));
+                            lastProgress = progress;
+                        }
+                    } // progress check
+                } // while each line of the input
+            }
+            catch (Exception e)
+            {
+                outputFileWriter.discard();
+                throw e;
+            }
+            outputFileWriter.close(); // (first, it may still copy from the input file)
+        }
+        finally
+        {
+            inReader.close();
+        }
+
+    } // convertCompiled
+
+    // statistics of the last conversion (null if none yet, or it failed before starting)
+    public GCodeConversionResult getResult()
+    {
+        return result;
+    }
+
+} // GCodeConversionEngine class
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Where the G-code to convert comes from: a file (memory mapped, and it can be
+ * converted in parallel), or any InputStream or channel.
+ *
+ * A .gz file, or a .zip file (its first file), is decompressed as it is read,
+ * on a thread of its own (see InflatingChannel) -- the file can't be mapped, so
+ * it is always converted one line at a time.
+ *
+ * Streams and channels are read from their current position and are not
+ * closed, they belong to the caller.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class GCodeConversionInput
+{
+    private final Path path; // null if not a file
+    private final ReadableByteChannel channel; // null for a file
+    private final FileCompression compression; // of the file (NONE for a stream or channel)
+
+    private GCodeConversionInput(Path path, ReadableByteChannel channel)
+    {
+        this.path = path;
+        this.channel = channel;
+        this.compression = (path != null) ? FileCompression.forFileName(path.getFileName().toString()) : FileCompression.NONE;
+    } // constructor
+
+    public static GCodeConversionInput fromPath(Path path)
+    {
+        if (path == null)
+        {
+            throw new IllegalArgumentException("Input path must be set");
+        }
+        return new GCodeConversionInput(path, null);
+    } // fromPath
+
+    public static GCodeConversionInput fromStream(InputStream in)
+    {
+        if (in == null)
+        {
+            throw new IllegalArgumentException("Input stream must be set");
+        }
+        return new GCodeConversionInput(null, Channels.newChannel(in));
+    } // fromStream
+
+    public static GCodeConversionInput fromChannel(ReadableByteChannel channel)
+    {
+        if (channel == null)
+        {
+            throw new IllegalArgumentException("Input channel must be set");
+        }
+        return new GCodeConversionInput(null, channel);
+    } // fromChannel
+
+    // the input file, null if the input is a stream or channel
+    public Path getPath()
+    {
+        return path;
+    }
+
+    // the extension that says what kind of G-code file this is, lower case, after any .gz (part.ngc.gz -> ngc)
+    public static String gcodeExtension(String fileName)
+    {
+        String name = FileCompression.stripGzipSuffix(fileName);
+        int dot = name.lastIndexOf('.');
+        return (dot >= 0) ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+    } // gcodeExtension
+
+    // true if the file is decompressed as it is read (it can't be mapped)
+    boolean isCompressed()
+    {
+        return compression != FileCompression.NONE;
+    }
+
+    // number of bytes to convert (decompressed), -1 if not known (e.g. a stream)
+    long getSize() throws IOException
+    {
+        if (path != null && compression == FileCompression.GZIP)
+        {
+            return gzipDecompressedSize(path);
+        }
+        if (path != null && compression == FileCompression.ZIP)
+        {
+            ZipFile zipFile = new ZipFile(path.toFile());
+            try
+            {
+                return firstFileEntry(zipFile).getSize();
+            }
+            finally
+            {
+                zipFile.close();
+            }
+        }
+        if (path != null)
+        {
+            return Files.size(path);
+        }
+        if (channel instanceof FileChannel)
+        {
+            FileChannel fileChannel = (FileChannel) channel;
+            try
+            {
+                return fileChannel.size() - fileChannel.position();
+            }
+            catch (IOException e)
+            {
+                return -1; // not a file (e.g. standard input from a pipe)
+            }
+        }
+        return -1;
+    } // getSize
+
+    GCodeLineReader openReader() throws IOException
+    {
+        if (path != null && compression == FileCompression.GZIP)
+        {
+            InputStream in = Files.newInputStream(path);
+            try
+            {
+                return new ChannelGCodeLineReader(new InflatingChannel(new GZIPInputStream(in, InflatingChannel.CHUNK_SIZE)));
+            }
+            catch (IOException e)
+            {
+                in.close(); // (not a gzip file)
+                throw e;
+            }
+        }
+        if (path != null && compression == FileCompression.ZIP)
+        {
+            final ZipFile zipFile = new ZipFile(path.toFile());
+            try
+            {
+                InputStream in = new FilterInputStream(zipFile.getInputStream(firstFileEntry(zipFile)))
+                {
+                    @Override
+                    public void close() throws IOException
+                    {
+                        zipFile.close(); // (closes the entry stream too)
+                    }
+                };
+                return new ChannelGCodeLineReader(new InflatingChannel(in));
+            }
+            catch (IOException e)
+            {
+                zipFile.close();
+                throw e;
+            }
+        }
+        if (path != null)
+        {
+            return new MappedGCodeFileReader(path.toString());
+        }
+        return new ChannelGCodeLineReader(channel);
+    } // openReader
+
+    // the size a gzip file says it decompresses to (the last 4 bytes: the size mod 2^32 of its last part), -1 if not known
+    private static long gzipDecompressedSize(Path gzipFile) throws IOException
+    {
+        FileChannel file = FileChannel.open(gzipFile, StandardOpenOption.READ);
+        try
+        {
+            long fileSize = file.size();
+            if (fileSize < 18) // header + trailer
+            {
+                return -1;
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (trailer.hasRemaining() && file.read(trailer, fileSize - 4 + trailer.position()) > 0)
+            {
+            }
+            return trailer.hasRemaining() ? -1 : trailer.getInt(0) & 0xFFFFFFFFL; // (only a guess for more than 4 GB)
+        }
+        finally
+        {
+            file.close();
+        }
+    } // gzipDecompressedSize
+
+    // the G-code in a zip file: its first entry that is a file
+    private static ZipEntry firstFileEntry(ZipFile zipFile) throws IOException
+    {
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements())
+        {
+            ZipEntry entry = entries.nextElement();
+            if (!entry.isDirectory())
+            {
+                return entry;
+            }
+        }
+        throw new IOException("No file in zip archive " + zipFile.getName());
+    } // firstFileEntry
+
+    @Override
+    public String toString()
+    {
+        return (path != null) ? path.toString() : "(input stream)";
+    }
+
+} // GCodeConversionInput class
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+/**
+ * Receives the messages (e.g. "- G94 ... FOUND!") and progress of a file
+ * conversion, so the conversion code doesn't depend on where they are shown.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public interface GCodeConversionListener
+{
+    // a message for the message area
+    void message(String message);
+
+    // percent (0-100) of the input file converted so far
+    void progress(int percent);
+
+} // GCodeConversionListener interface
@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Where the converted G-code goes: a file (created, or overwritten if it
+ * exists, along with any missing directories), or any OutputStream or channel.
+ *
+ * A file is never seen partly written: the engine writes a temporary file
+ * next to it and moves that into place in one step (ATOMIC_MOVE) only when the
+ * conversion is done, so an error, or the program being killed, leaves the
+ * output file as it was (and at most a hidden .part temporary file).
+ *
+ * A file named .gz (e.g. part_G93.ngc.gz) is written gzip compressed, and a
+ * .zip file as a zip archive with one file (part_G93.zip has part_G93.ngc),
+ * compressed on a thread of its own (see DeflatingChannel).
+ *
+ * Streams and channels are not closed, they belong to the caller.  A stream
+ * is flushed after each (already buffered) write, so whoever reads the output
+ * gets it as soon as the conversion writes it.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class GCodeConversionOutput
+{
+    public static final String DEFAULT_FILE_NAME_SUFFIX = "_G93";
+    public static final String TEMP_FILE_SUFFIX = ".part"; // of the file being written (not a G-code extension)
+    private static final int COMPRESSION_LEVEL = Deflater.BEST_SPEED; // G-code still compresses well, several times faster than the default
+
+    private final Path path; // null if not a file
+    private final WritableByteChannel channel; // null for a file
+    private final OutputStream stream; // to flush (null if not a stream)
+    private final FileCompression compression; // of the file (NONE for a stream or channel)
+    private final String zipEntryName; // the file in the zip archive (null if not ZIP)
+
+    private GCodeConversionOutput(Path path, WritableByteChannel channel, OutputStream stream, FileCompression compression, String zipEntryName)
+    {
+        this.path = path;
+        this.channel = channel;
+        this.stream = stream;
+        this.compression = compression;
+        this.zipEntryName = zipEntryName;
+    } // constructor
+
+    public static GCodeConversionOutput toPath(Path path)
+    {
+        if (path == null)
+        {
+            throw new IllegalArgumentException("Output path must be set");
+        }
+        String fileName = path.getFileName().toString();
+        FileCompression compression = FileCompression.forFileName(fileName);
+        String zipEntryName = null;
+        if (compression == FileCompression.ZIP)
+        {
+            zipEntryName = fileName.substring(0, fileName.length() - FileCompression.ZIP.getSuffix().length());
+            if (zipEntryName.indexOf('.') < 0)
+            {
+                zipEntryName += ".ngc";
+            }
+        }
+        return new GCodeConversionOutput(path, null, null, compression, zipEntryName);
+    } // toPath
+
+    public static GCodeConversionOutput toStream(OutputStream out)
+    {
+        if (out == null)
+        {
+            throw new IllegalArgumentException("Output stream must be set");
+        }
+        return new GCodeConversionOutput(null, Channels.newChannel(out), out, FileCompression.NONE, null);
+    } // toStream
+
+    public static GCodeConversionOutput toChannel(WritableByteChannel channel)
+    {
+        if (channel == null)
+        {
+            throw new IllegalArgumentException("Output channel must be set");
+        }
+        return new GCodeConversionOutput(null, channel, null, FileCompression.NONE, null);
+    } // toChannel
+
+    // the default output file name: _G93 added before the extension (e.g. part.ngc -> part_G93.ngc, part.ngc.gz -> part_G93.ngc.gz)
+    public static String defaultFileName(String inputFileName)
+    {
+        int i = extensionStart(inputFileName);
+        return inputFileName.substring(0, i) + DEFAULT_FILE_NAME_SUFFIX + inputFileName.substring(i);
+    } // defaultFileName
+
+    // true if the file name looks like a default output file name (e.g. part_G93.ngc)
+    public static boolean isDefaultFileName(String fileName)
+    {
+        return fileName.substring(0, extensionStart(fileName)).endsWith(DEFAULT_FILE_NAME_SUFFIX);
+    } // isDefaultFileName
+
+    // index of the extension's dot, before any .gz (the length if there is no extension)
+    private static int extensionStart(String fileName)
+    {
+        String name = FileCompression.stripGzipSuffix(fileName);
+        return name.contains(".") ? name.lastIndexOf('.') : name.length();
+    } // extensionStart
+
+    // the output file, null if the output is a stream or channel
+    public Path getPath()
+    {
+        return path;
+    }
+
+    // true if the file is compressed as it is written
+    boolean isCompressed()
+    {
+        return compression != FileCompression.NONE;
+    }
+
+    // what, besides the converted G-code, makes the bytes of the output file (see ConversionCache)
+    String getFormatKey()
+    {
+        return (zipEntryName != null) ? compression.name() + ":" + zipEntryName : compression.name();
+    }
+
+    // the same output, written to the temporary file instead (compressed the same way as the output file)
+    GCodeConversionOutput toTempFile(Path tempFile)
+    {
+        return new GCodeConversionOutput(tempFile, null, null, compression, zipEntryName);
+    }
+
+    // true if the file name looks like a temporary output file (e.g. .part.ngc-123.part)
+    public static boolean isTempFileName(String fileName)
+    {
+        return fileName.startsWith(".") && fileName.endsWith(TEMP_FILE_SUFFIX);
+    }
+
+    // a new empty temporary file next to the output file, to write the output into
+    // (created like any new file, not owner only as Files.createTempFile does, and with the permissions of the output file it replaces)
+    static Path createTempFileFor(Path outputFile) throws IOException
+    {
+        Path parent = outputFile.toAbsolutePath().getParent();
+        Path tempFile;
+        while (true)
+        {
+            tempFile = parent.resolve("." + outputFile.getFileName() + "-" + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + TEMP_FILE_SUFFIX);
+            try
+            {
+                Files.createFile(tempFile);
+                break;
+            }
+            catch (FileAlreadyExistsException e)
+            {
+                // another name
+            }
+        } // until a new file
+
+        try
+        {
+            if (Files.exists(outputFile))
+            {
+                Files.setPosixFilePermissions(tempFile, Files.getPosixFilePermissions(outputFile));
+            }
+        }
+        catch (UnsupportedOperationException | IOException ignore)
+        {
+            // (e.g. Windows)
+        }
+        return tempFile;
+    } // createTempFileFor
+
+    // replace the output file with the finished temporary file in one step (if the file system can), sync = on the disk first
+    static void commitTempFile(Path tempFile, Path outputFile, boolean sync) throws IOException
+    {
+        if (sync)
+        {
+            FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE);
+            try
+            {
+                channel.force(true);
+            }
+            finally
+            {
+                channel.close();
+            }
+        } // sync
+
+        try
+        {
+            Files.move(tempFile, outputFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(tempFile, outputFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        if (sync)
+        {
+            // and the directory entry of the moved file (not possible everywhere, e.g. Windows)
+            try
+            {
+                FileChannel directory = FileChannel.open(outputFile.toAbsolutePath().getParent(), StandardOpenOption.READ);
+                try
+                {
+                    directory.force(true);
+                }
+                finally
+                {
+                    directory.close();
+                }
+            }
+            catch (IOException ignore)
+            {
+            }
+        } // sync
+
+    } // commitTempFile
+
+    // the file's missing parent directories are created
+    void createParentDirectories() throws IOException
+    {
+        Path parent = (path != null) ? path.toAbsolutePath().getParent() : null;
+        if (parent != null)
+        {
+            Files.createDirectories(parent);
+        }
+    } // createParentDirectories
+
+    // the channel to write the output to, closing it closes the file (a caller's stream or channel is only flushed)
+    WritableByteChannel openChannel() throws IOException
+    {
+        if (path != null)
+        {
+            createParentDirectories();
+            if (compression != FileCompression.NONE)
+            {
+                OutputStream out = Files.newOutputStream(path);
+                try
+                {
+                    if (compression == FileCompression.GZIP)
+                    {
+                        return new DeflatingChannel(new GZIPOutputStream(out, DeflatingChannel.CHUNK_SIZE)
+                        {
+                            {
+                                def.setLevel(COMPRESSION_LEVEL);
+                            }
+                        });
+                    }
+                    ZipOutputStream zipOut = new ZipOutputStream(out);
+                    zipOut.setLevel(COMPRESSION_LEVEL);
+                    zipOut.putNextEntry(new ZipEntry(zipEntryName));
+                    return new DeflatingChannel(zipOut);
+                }
+                catch (IOException e)
+                {
+                    out.close();
+                    throw e;
+                }
+            }
+            return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        return new WritableByteChannel()
+        {
+            public int write(ByteBuffer src) throws IOException
+            {
+                int bytesWritten = channel.write(src);
+                if (stream != null)
+                {
+                    stream.flush();
+                }
+                return bytesWritten;
+            }
+
+            public boolean isOpen()
+            {
+                return channel.isOpen();
+            }
+
+            public void close() throws IOException
+            {
+                if (stream != null)
+                {
+                    stream.flush();
+                }
+            }
+        };
+    } // openChannel
+
+    @Override
+    public String toString()
+    {
+        return (path != null) ? path.toString() : "(output stream)";
+    }
+
+} // GCodeConversionOutput class
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.util.Properties;
+
+/**
+ * Statistics of a conversion (see GCodeConversionEngine) -- also of one that
+ * stopped with an error, up to the line with the error.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class GCodeConversionResult
+{
+    private final int linesProcessed;
+    private final boolean endOfProgramFound;
+    private final long totalG00lines;
+    private final long totalG01lines;
+    private final long totalG02lines;
+    private final long totalG03lines;
+    private final int numberLinesWithRotaryMoves;
+    private final boolean rotaryMinMaxFound;
+    private final double rotaryMin;
+    private final double rotaryMax;
+    private final double totalToolPathDistance;
+    private final double totalDegreesRotated;
+    private final long elapsedNanos;
+    private final boolean fromCache; // the output was copied from a ConversionCache entry
+
+    GCodeConversionResult(GCodeLineConverter converter, long elapsedNanos)
+    {
+        this.linesProcessed = converter.linesProcessed;
+        this.endOfProgramFound = converter.endOfProgramFound;
+        this.totalG00lines = converter.totalG00lines;
+        this.totalG01lines = converter.totalG01lines;
+        this.totalG02lines = converter.totalG02lines;
+        this.totalG03lines = converter.totalG03lines;
+        this.numberLinesWithRotaryMoves = converter.numberLinesWithRotaryMoves;
+        this.rotaryMinMaxFound = converter.rotaryMinMaxFound;
+        this.rotaryMin = converter.rotaryMin;
+        this.rotaryMax = converter.rotaryMax;
+        this.totalToolPathDistance = converter.totalToolPathDistance;
+        this.totalDegreesRotated = converter.totalDegreesRotated;
+        this.elapsedNanos = elapsedNanos;
+        this.fromCache = false;
+    } // constructor
+
+    // the statistics kept in a cache entry (see store)
+    GCodeConversionResult(Properties stored, long elapsedNanos)
+    {
+        this.linesProcessed = Integer.parseInt(stored.getProperty("linesProcessed"));
+        this.endOfProgramFound = Boolean.parseBoolean(stored.getProperty("endOfProgramFound"));
+        this.totalG00lines = Long.parseLong(stored.getProperty("totalG00lines"));
+        this.totalG01lines = Long.parseLong(stored.getProperty("totalG01lines"));
+        this.totalG02lines = Long.parseLong(stored.getProperty("totalG02lines"));
+        this.totalG03lines = Long.parseLong(stored.getProperty("totalG03lines"));
+        this.numberLinesWithRotaryMoves = Integer.parseInt(stored.getProperty("numberLinesWithRotaryMoves"));
+        this.rotaryMinMaxFound = Boolean.parseBoolean(stored.getProperty("rotaryMinMaxFound"));
+        this.rotaryMin = Double.parseDouble(stored.getProperty("rotaryMin"));
+        this.rotaryMax = Double.parseDouble(stored.getProperty("rotaryMax"));
+        this.totalToolPathDistance = Double.parseDouble(stored.getProperty("totalToolPathDistance"));
+        this.totalDegreesRotated = Double.parseDouble(stored.getProperty("totalDegreesRotated"));
+        this.elapsedNanos = elapsedNanos;
+        this.fromCache = true;
+    } // constructor
+
+    // the statistics as properties, to read back with the constructor (the doubles exactly)
+    void store(Properties properties)
+    {
+        properties.setProperty("linesProcessed", Integer.toString(linesProcessed));
+        properties.setProperty("endOfProgramFound", Boolean.toString(endOfProgramFound));
+        properties.setProperty("totalG00lines", Long.toString(totalG00lines));
+        properties.setProperty("totalG01lines", Long.toString(totalG01lines));
+        properties.setProperty("totalG02lines", Long.toString(totalG02lines));
+        properties.setProperty("totalG03lines", Long.toString(totalG03lines));
+        properties.setProperty("numberLinesWithRotaryMoves", Integer.toString(numberLinesWithRotaryMoves));
+        properties.setProperty("rotaryMinMaxFound", Boolean.toString(rotaryMinMaxFound));
+        properties.setProperty("rotaryMin", Double.toString(rotaryMin));
+        properties.setProperty("rotaryMax", Double.toString(rotaryMax));
+        properties.setProperty("totalToolPathDistance", Double.toString(totalToolPathDistance));
+        properties.setProperty("totalDegreesRotated", Double.toString(totalDegreesRotated));
+    } // store
+
+    public int getLinesProcessed()
+    {
+        return linesProcessed;
+    }
+
+    // false if no %, M2, or M30 was found (no G94 was added at the end of the output)
+    public boolean isEndOfProgramFound()
+    {
+        return endOfProgramFound;
+    }
+
+    public long getTotalG00lines()
+    {
+        return totalG00lines;
+    }
+
+    public long getTotalG01lines()
+    {
+        return totalG01lines;
+    }
+
+    public long getTotalG02lines()
+    {
+        return totalG02lines;
+    }
+
+    public long getTotalG03lines()
+    {
+        return totalG03lines;
+    }
+
+    public long getTotalG0123lines()
+    {
+        return totalG00lines + totalG01lines + totalG02lines + totalG03lines;
+    }
+
+    // lines with a rotary (A-axis) move, if A is specified but not changed it doesn't count
+    public int getNumberLinesWithRotaryMoves()
+    {
+        return numberLinesWithRotaryMoves;
+    }
+
+    // false if there were no rotary moves (then the min and max are 0)
+    public boolean isRotaryMinMaxFound()
+    {
+        return rotaryMinMaxFound;
+    }
+
+    public double getRotaryMin()
+    {
+        return rotaryMin;
+    }
+
+    public double getRotaryMax()
+    {
+        return rotaryMax;
+    }
+
+    // including the rotary moves
+    public double getTotalToolPathDistance()
+    {
+        return totalToolPathDistance;
+    }
+
+    public double getTotalDegreesRotated()
+    {
+        return totalDegreesRotated;
+    }
+
+    public long getElapsedNanos()
+    {
+        return elapsedNanos;
+    }
+
+    // true if the output was copied from the conversion cache instead of converted (see ConversionCache)
+    public boolean isFromCache()
+    {
+        return fromCache;
+    }
+
+    // fraction (0-1) of the G00-G03 lines that have a rotary move
+    public double getFractionLinesWithRotaryMoves()
+    {
+        long totalG0123lines = getTotalG0123lines();
+        return (totalG0123lines > 0) ? numberLinesWithRotaryMoves * 1.0 / totalG0123lines : 0;
+    } // getFractionLinesWithRotaryMoves
+
+    // a hint if the other conversion mode may be more efficient for this file (null if not)
+    public String getConversionModeHint(ConversionMode conversionMode)
+    {
+        if (getTotalG0123lines() <= 50) // if a decent sized file chunk has been processed (this helps filter out error cases)
+        {
+            return null;
+        }
+
+        double fractionLinesWithAM = getFractionLinesWithRotaryMoves();
+        if (conversionMode == ConversionMode.WRAP_ALL && fractionLinesWithAM < 0.15)
+        {
+            return "Only a small percentage of the lines in the input file had rotary moves.  It may be more efficient to use the 'Wrap each rotary move in G93' option instead of converting the entire file.";
+        }
+        if (conversionMode == ConversionMode.WRAP_EACH_A_MOVE && fractionLinesWithAM > 0.25)
+        {
+            return "A sizeable percentage of the lines in the input file had rotary moves.  It may be more efficient to select the 'Use G93 mode for the entire file' option instead of wrapping each rotary move.";
+        }
+        return null;
+    } // getConversionModeHint
+
+} // GCodeConversionResult class
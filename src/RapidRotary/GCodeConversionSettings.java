@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.math.RoundingMode;
+
+/**
+ * Settings of a conversion (see GCodeConversionEngine).  The defaults are the
+ * same as the defaults in the GUI.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class GCodeConversionSettings
+{
+    private double zZeroOffset = 0.0; // distance of the Z zero from the A axis
+    private ConversionMode conversionMode = ConversionMode.WRAP_ALL;
+    private DistanceUnits distanceUnits = DistanceUnits.INCHES;
+    private int fOutputPrecision = 5; // number of digits after the decimal to write for the F values (SEG v1.1)
+    private RoundingMode fRoundingMode = RoundingMode.HALF_UP; // HALF_UP is the same as String.format, or HALF_EVEN
+    private String appVersionString = GCodeConversionEngine.VERSION; // written in the header of the output
+
+    // files at least 2 chunks long are converted in chunks on this many threads (1 = always one thread)
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private long minChunkSize = ParallelGCodeFileConverter.DEFAULT_MIN_CHUNK_SIZE;
+    // other files are read, converted and written on three threads at once
+    private boolean pipelined = (parallelism > 1);
+
+    private boolean incremental = false; // convert only the parts of a file that changed since its output was last converted
+    private boolean compiledToolpath = false; // keep a compiled toolpath (.rrtp) next to each input file, and convert from it
+
+    private boolean syncOutput = false; // force the output file to the disk before it is moved into place
+
+    private ConversionCache cache = null; // earlier conversions of the same files (null = always convert)
+
+    // when the output written so far is flushed by the line by line conversion (e.g. a stream filter), by default only when the buffer is full
+    private int flushEveryLines = 0; // 0 = not by line count
+    private long flushIntervalMillis = 0; // 0 = not by time
+    private boolean flushBeforeInputWait = false;
+
+    public double getZZeroOffset()
+    {
+        return zZeroOffset;
+    }
+
+    public void setZZeroOffset(double zZeroOffset)
+    {
+        this.zZeroOffset = zZeroOffset;
+    }
+
+    public ConversionMode getConversionMode()
+    {
+        return conversionMode;
+    }
+
+    public void setConversionMode(ConversionMode conversionMode)
+    {
+        if (conversionMode == null)
+        {
+            throw new IllegalArgumentException("Conversion mode must be set");
+        }
+        this.conversionMode = conversionMode;
+    } // setConversionMode
+
+    public DistanceUnits getDistanceUnits()
+    {
+        return distanceUnits;
+    }
+
+    public void setDistanceUnits(DistanceUnits distanceUnits)
+    {
+        if (distanceUnits == null)
+        {
+            throw new IllegalArgumentException("Distance units must be set");
+        }
+        this.distanceUnits = distanceUnits;
+    } // setDistanceUnits
+
+    public int getFOutputPrecision()
+    {
+        return fOutputPrecision;
+    }
+
+    // 0 to GCodeNumberFormatter.MAX_DIGITS
+    public void setFOutputPrecision(int fOutputPrecision)
+    {
+        if (fOutputPrecision < 0 || fOutputPrecision > GCodeNumberFormatter.MAX_DIGITS)
+        {
+            throw new IllegalArgumentException("Number of F value decimal digits must be 0 to " + GCodeNumberFormatter.MAX_DIGITS + ": " + fOutputPrecision);
+        }
+        this.fOutputPrecision = fOutputPrecision;
+    } // setFOutputPrecision
+
+    public RoundingMode getFRoundingMode()
+    {
+        return fRoundingMode;
+    }
+
+    // HALF_UP or HALF_EVEN
+    public void setFRoundingMode(RoundingMode fRoundingMode)
+    {
+        if (fRoundingMode != RoundingMode.HALF_UP && fRoundingMode != RoundingMode.HALF_EVEN)
+        {
+            throw new IllegalArgumentException("Rounding mode must be HALF_UP or HALF_EVEN: " + fRoundingMode);
+        }
+        this.fRoundingMode = fRoundingMode;
+    } // setFRoundingMode
+
+    public String getAppVersionString()
+    {
+        return appVersionString;
+    }
+
+    public void setAppVersionString(String appVersionString)
+    {
+        this.appVersionString = appVersionString;
+    }
+
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    // convert files at least 2 chunks long in chunks on this many threads (1 = always one thread)
+    public void setParallelism(int threads, long minChunkSize)
+    {
+        this.parallelism = Math.max(1, threads);
+        this.minChunkSize = Math.max(1, minChunkSize);
+    } // setParallelism
+
+    public long getMinChunkSize()
+    {
+        return minChunkSize;
+    }
+
+    public boolean isPipelined()
+    {
+        return pipelined;
+    }
+
+    // read, convert and write files that aren't converted in chunks on separate threads
+    public void setPipelined(boolean pipelined)
+    {
+        this.pipelined = pipelined;
+    }
+
+    public boolean isIncremental()
+    {
+        return incremental;
+    }
+
+    // file to file conversions reuse the output of the last conversion to the same output file for the parts of the input that
+    // didn't change (see IncrementalGCodeFileConverter), instead of converting in chunks or pipelined
+    public void setIncremental(boolean incremental)
+    {
+        this.incremental = incremental;
+    }
+
+    public boolean isCompiledToolpath()
+    {
+        return compiledToolpath;
+    }
+
+    // file to file conversions compile the input into a CompiledToolpath next to it, and later conversions of the same input
+    // (e.g. with another Z-zero offset) read the tokens from it instead of parsing the text again (not incremental conversions)
+    public void setCompiledToolpath(boolean compiledToolpath)
+    {
+        this.compiledToolpath = compiledToolpath;
+    }
+
+    public boolean isSyncOutput()
+    {
+        return syncOutput;
+    }
+
+    // force an output file to the disk before it is moved into place (slower, but it survives a power failure)
+    public void setSyncOutput(boolean syncOutput)
+    {
+        this.syncOutput = syncOutput;
+    }
+
+    public ConversionCache getCache()
+    {
+        return cache;
+    }
+
+    // file to file conversions copy the output of an earlier conversion with the same input and settings from here (null = none)
+    public void setCache(ConversionCache cache)
+    {
+        this.cache = cache;
+    }
+
+    public int getFlushEveryLines()
+    {
+        return flushEveryLines;
+    }
+
+    public long getFlushIntervalMillis()
+    {
+        return flushIntervalMillis;
+    }
+
+    public boolean isFlushBeforeInputWait()
+    {
+        return flushBeforeInputWait;
+    }
+
+    // flush the output after every so many lines and/or once so many milliseconds have passed since the last flush (0 = not
+    // used), and before waiting for more input from a stream -- for output that is read while it is converted (e.g. drip
+    // feeding).  Only the line by line conversion flushes, files converted in chunks or pipelined are written when done.
+    public void setFlushPolicy(int everyLines, long intervalMillis, boolean beforeInputWait)
+    {
+        if (everyLines < 0 || intervalMillis < 0)
+        {
+            throw new IllegalArgumentException("Flush lines and interval can't be negative: " + everyLines + ", " + intervalMillis);
+        }
+        this.flushEveryLines = everyLines;
+        this.flushIntervalMillis = intervalMillis;
+        this.flushBeforeInputWait = beforeInputWait;
+    } // setFlushPolicy
+
+} // GCodeConversionSettings class
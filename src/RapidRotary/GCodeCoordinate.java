@@ -16,10 +16,15 @@
  */
 package RapidRotary;
 
-import java.awt.Point;
-import java.util.ArrayList;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
+ * Axis (X, Y, Z, A) and arc offset (I, J, K) values of a point, each with a
+ * flag if it has been set.  The values are kept in one array with a bit mask of
+ * the set values, so a coordinate can be cleared and refilled for every line
+ * instead of creating a new one.
  *
  * @author sgano
  */
@@ -27,127 +32,112 @@ public class GCodeCoordinate
 {
     private static double MIN_Z_RADIUS = 0.25; // units (this could be .25in or .25mm [this case is very fast] - in the future may want to take into account metric to help safegaurd this better)
     
-    private double X, Y, Z, A;
-    private boolean Xset, Yset, Zset, Aset;
+    // index of each value in the values array (and bit in setMask)
+    private static final int X = 0, Y = 1, Z = 2, A = 3, I = 4, J = 5, K = 6; // SEG v1.2 added K
+    private static final char[] LETTERS = {'X', 'Y', 'Z', 'A', 'I', 'J', 'K'};
+    private static final int POSITION_MASK = (1 << X) | (1 << Y) | (1 << Z) | (1 << A); // only the axes carry over from move to move
     
-    // values for arc offsets
-    private double I, J;
-    private boolean Iset, Jset; 
-    
-    // SEG v1.2 added K
-    private double K;
-    private boolean Kset;
+    private final double[] values = new double[LETTERS.length];
+    private int setMask; // bit i is set if values[i] has been set
 
     // constructor
     public GCodeCoordinate() 
     {
-        iniValues();
+        clear();
         
     } // GCodeCoordinate - constructor
+
+    // all values back to 0 and not set
+    public void clear()
+    {
+        for (int i = 0; i < values.length; i++)
+        {
+            values[i] = 0;
+        }
+        setMask = 0;
+    } //clear
     
-    // constructor -- with the current line's elements (should already be sure this is a movement line
-    public GCodeCoordinate(ArrayList<String> lineParts)
+    // replace all values with the values on the current line (should already be sure this is a movement line)
+    public void setFromLineWords(GCodeWordTable lineWords)
     {
-        // setup inital values, and flag all components as missing
-        iniValues();
-        
-        // loop through all the parts:
-        for(int i = 0; i< lineParts.size(); i++)
+        clear();
+        for (int i = 0; i < LETTERS.length; i++)
         {
-            if(lineParts.get(i).startsWith("X"))
-            {
-                String value = lineParts.get(i).substring(1); // get the value after the Letter
-                setX( new Double(value).doubleValue() ); // set the value
-            } // if X
-            else if(lineParts.get(i).startsWith("Y"))
-            {
-                String value = lineParts.get(i).substring(1); // get the value after the Letter
-                setY( new Double(value).doubleValue() ); // set the value
-            } // if Y
-            else if(lineParts.get(i).startsWith("Z"))
-            {
-                String value = lineParts.get(i).substring(1); // get the value after the Letter
-                setZ( new Double(value).doubleValue() ); // set the value
-            } // if Z
-            else if(lineParts.get(i).startsWith("A"))
-            {
-                String value = lineParts.get(i).substring(1); // get the value after the Letter
-                setA( new Double(value).doubleValue() ); // set the value
-            } // if A
-            else if(lineParts.get(i).startsWith("I"))
-            {
-                String value = lineParts.get(i).substring(1); // get the value after the Letter
-                setI( new Double(value).doubleValue() ); // set the value
-            } // if I
-            else if(lineParts.get(i).startsWith("J"))
-            {
-                String value = lineParts.get(i).substring(1); // get the value after the Letter
-                setJ( new Double(value).doubleValue() ); // set the value
-            } // if J
-            else if(lineParts.get(i).startsWith("K"))
+            if (lineWords.has(LETTERS[i]))
             {
-                String value = lineParts.get(i).substring(1); // get the value after the Letter
-                setK( new Double(value).doubleValue() ); // set the value
-            } // if K
-            
-        } // for each element
-        
-    } // GCodeCoordinate constrctor with lineParts
-    
+                set(i, lineWords.get(LETTERS[i]));
+            }
+        }
+    } //setFromLineWords
 
-    private void iniValues()
-    {
-        // default all zeros
-        X = 0; Y= 0; Z = 0; A = 0;
-        
-        // default - no values set
-        Xset = false;
-        Yset = false;
-        Zset = false;
-        Aset = false;
-        
-        // arc offset 
-        I = 0; J = 0;
-        Iset = false;
-        Jset = false;
-    } //iniValues
-    
-    
     // if any unset values of this object exist, copy the values from the passed in object [if they are set within that object]
     // only works on X,Y,Z,A
     public void copyUnsetValuesfromPrevousPoint(GCodeCoordinate previousCoord)
     {
-        // X
-        if(this.isXset() == false && previousCoord.isXset() == true)
+        int missing = ~setMask & previousCoord.setMask & POSITION_MASK;
+        for (int i = X; i <= A; i++)
         {
-            this.setX( previousCoord.getX() );
+            if ((missing & (1 << i)) != 0)
+            {
+                values[i] = previousCoord.values[i];
+            }
         }
+        setMask |= missing;
         
-        // Y
-        if(this.isYset() == false && previousCoord.isYset() == true)
+    } //copyUnsetValuesfromPrevousPoint
+
+    // same values as other
+    public void copyFrom(GCodeCoordinate other)
+    {
+        System.arraycopy(other.values, 0, values, 0, values.length);
+        setMask = other.setMask;
+    } //copyFrom
+
+    // the values and which are set, e.g. to save the state of a conversion (readFrom reads it back)
+    public void writeTo(DataOutput out) throws IOException
+    {
+        out.writeByte(setMask);
+        for (int i = 0; i < values.length; i++)
         {
-            this.setY( previousCoord.getY() );
+            out.writeDouble(values[i]);
         }
-        
-        // Z
-        if(this.isZset() == false && previousCoord.isZset() == true)
+    } //writeTo
+
+    public void readFrom(DataInput in) throws IOException
+    {
+        setMask = in.readUnsignedByte();
+        for (int i = 0; i < values.length; i++)
         {
-            this.setZ( previousCoord.getZ() );
+            values[i] = in.readDouble();
         }
-        
-        // A
-        if(this.isAset() == false && previousCoord.isAset() == true)
+    } //readFrom
+
+    // keep only the end point (X, Y, Z, A) -- the arc offsets only apply to the line they are on
+    public void clearArcOffsets()
+    {
+        for (int i = I; i <= K; i++)
         {
-            this.setA( previousCoord.getA() );
+            values[i] = 0;
         }
-        
-    } //copyUnsetValuesfromPrevousPoint
+        setMask &= POSITION_MASK;
+    } //clearArcOffsets
+
+    private void set(int index, double value)
+    {
+        values[index] = value;
+        setMask |= (1 << index);
+    }
+
+    private boolean isSet(int index)
+    {
+        return (setMask & (1 << index)) != 0;
+    }
     
     // calculate the linear distance traveled, convert the A axis to a distance based on Z value
     // !!!! Assumes Z is zeroed on center of rotation - so Z is the radial distance
     // if "throwErrorIfDataNotSet" is true, then throw an error if "previousCoord".. 
     // line number passed in just for adding the information to the error message
-    public double straightDistanceFromCoordinateConvertA2Dist(GCodeCoordinate previousCoord, double zZeroOffset, RapidRotary_GUI.DistanceUnits distUnits, boolean throwErrorIfDataNotSet, int lineNumber) throws GCodeException
+    public double straightDistanceFromCoordinateConvertA2Dist(GCodeCoordinate previousCoord, double zZeroOffset, DistanceUnits distUnits, boolean throwErrorIfDataNotSet, int lineNumber) throws GCodeException
     {
         double squareSumDist = 0; // this is the squared sum of all distances taveled
 
@@ -158,7 +148,7 @@ public class GCodeCoordinate
         } 
         else if( this.isXset() != previousCoord.isXset()  && throwErrorIfDataNotSet) // one is set and one is not
         {
-            throw new GCodeException("G01 movement without an inital X starting point. (line: " + (lineNumber) + ")");
+            throw new GCodeException("G01 movement without an inital X starting point. (line: " + (lineNumber) + ")", lineNumber, 0);
         }// X
 
         // Y
@@ -168,7 +158,7 @@ public class GCodeCoordinate
         } 
         else if( this.isYset() != previousCoord.isYset()  && throwErrorIfDataNotSet) // one is set and one is not
         {
-            throw new GCodeException("G01 movement without an inital Y starting point. (line: " + (lineNumber) + ")");
+            throw new GCodeException("G01 movement without an inital Y starting point. (line: " + (lineNumber) + ")", lineNumber, 0);
         }// Y
         
         // Z
@@ -178,7 +168,7 @@ public class GCodeCoordinate
         } 
         else if( this.isZset() != previousCoord.isZset()  && throwErrorIfDataNotSet) // one is set and one is not
         {
-            throw new GCodeException("G01 movement without an inital Z starting point. (line: " + (lineNumber) + ")");
+            throw new GCodeException("G01 movement without an inital Z starting point. (line: " + (lineNumber) + ")", lineNumber, 0);
         }// Z
         
         // A -- converted to a distance -- using largest Z for the move (since that produces the slowest move to be safe),
@@ -190,7 +180,7 @@ public class GCodeCoordinate
             // requires at least one Z value to be set:
             if (this.isZset() == false && previousCoord.isZset() == false)
             {
-                throw new GCodeException("A-axis movement requires a prior Z-axis movement (for distance calculation) . (line: " + (lineNumber) + ")");
+                throw new GCodeException("A-axis movement requires a prior Z-axis movement (for distance calculation) . (line: " + (lineNumber) + ")", lineNumber, 0);
             }
             
             // use maxiumum absoulte value of Z, between start and end points
@@ -199,7 +189,7 @@ public class GCodeCoordinate
                         
             //apply units callibration for tolerance
             double toleranceScale = 1.0; // default and value for inches
-            if(distUnits == RapidRotary_GUI.DistanceUnits.MM)
+            if(distUnits == DistanceUnits.MM)
             {
                 toleranceScale = 25.4; // mm per inch
             }
@@ -224,7 +214,7 @@ public class GCodeCoordinate
         } // A arc-length calculation
         else if( this.isAset() != previousCoord.isAset()  && throwErrorIfDataNotSet) // one is set and one is not
         {
-            throw new GCodeException("G01 movement without an inital A-axis starting point. (line: " + (lineNumber) + ")");
+            throw new GCodeException("G01 movement without an inital A-axis starting point. (line: " + (lineNumber) + ")", lineNumber, 0);
         }// A
         
         return Math.sqrt(squareSumDist); // distance traveled.
@@ -237,18 +227,18 @@ public class GCodeCoordinate
     //       G17 = XY plane (default)
     //       G18 = ZX
     //       G19 = YZ
-    public double arcDistanceFromPreviousCoordinate(GCodeCoordinate previousCoord, boolean clockWiseDirection, RapidRotary_GUI.DistanceUnits distUnits, int lineNumber, int currentPlaneSelected) throws GCodeException
+    public double arcDistanceFromPreviousCoordinate(GCodeCoordinate previousCoord, boolean clockWiseDirection, DistanceUnits distUnits, int lineNumber, int currentPlaneSelected) throws GCodeException
     {
         if(currentPlaneSelected == 17) // XY
         {
             // (error) requires previous X,Y to both be set - otherwise errror 
             if (!previousCoord.isXset() || !previousCoord.isYset())
             {
-                throw new GCodeException("G02/G03 movement requires both X and Y to have been previously set (G17). (line: " + (lineNumber) + ")");
+                throw new GCodeException("G02/G03 movement requires both X and Y to have been previously set (G17). (line: " + (lineNumber) + ")", lineNumber, 0);
             } // (error if Z set on this line or if I, J are not ... or if K is specified on the line) -- just check X,Y,I,J
             else if (!this.isXset() || !this.isYset() || !this.isIset() || !this.isJset())
             {
-                throw new GCodeException("G02/G03 movement requires X, Y, I, J arguments (G17).  One or more are missing.  (line: " + (lineNumber) + ")");
+                throw new GCodeException("G02/G03 movement requires X, Y, I, J arguments (G17).  One or more are missing.  (line: " + (lineNumber) + ")", lineNumber, 0);
             }
         } // G17 error checks
         else if(currentPlaneSelected == 18) // ZX
@@ -256,11 +246,11 @@ public class GCodeCoordinate
             // (error) requires previous X,Z to both be set - otherwise errror 
             if (!previousCoord.isXset() || !previousCoord.isZset())
             {
-                throw new GCodeException("G02/G03 movement requires both Z and X to have been previously set (G18). (line: " + (lineNumber) + ")");
+                throw new GCodeException("G02/G03 movement requires both Z and X to have been previously set (G18). (line: " + (lineNumber) + ")", lineNumber, 0);
             } // (error if Y set on this line or if I, K are not ... or if J is specified on the line) -- just check X,Z,I,K
             else if (!this.isXset() || !this.isZset() || !this.isIset() || !this.isKset())
             {
-                throw new GCodeException("G02/G03 movement requires X, Z, I, K arguments (G18).  One or more are missing.  (line: " + (lineNumber) + ")");
+                throw new GCodeException("G02/G03 movement requires X, Z, I, K arguments (G18).  One or more are missing.  (line: " + (lineNumber) + ")", lineNumber, 0);
             }
         } // G18 error checks
         else if(currentPlaneSelected == 19) // YZ
@@ -268,11 +258,11 @@ public class GCodeCoordinate
             // (error) requires previous Y,Z to both be set - otherwise errror 
             if (!previousCoord.isYset() || !previousCoord.isZset())
             {
-                throw new GCodeException("G02/G03 movement requires both Y and Z to have been previously set (G19). (line: " + (lineNumber) + ")");
+                throw new GCodeException("G02/G03 movement requires both Y and Z to have been previously set (G19). (line: " + (lineNumber) + ")", lineNumber, 0);
             } // (error if X set on this line or if J, K are not ... or if I is specified on the line) -- just check Y,Z,J,K
             else if (!this.isYset() || !this.isZset() || !this.isJset() || !this.isKset())
             {
-                throw new GCodeException("G02/G03 movement requires Y, Z, J, K arguments (G19).  One or more are missing.  (line: " + (lineNumber) + ")");
+                throw new GCodeException("G02/G03 movement requires Y, Z, J, K arguments (G19).  One or more are missing.  (line: " + (lineNumber) + ")", lineNumber, 0);
             }
         } // G19 error checks
         
@@ -335,14 +325,14 @@ public class GCodeCoordinate
 
         //apply units callibration for tolerance
         double toleranceScale = 1.0; // default and value for inches
-        if (distUnits == RapidRotary_GUI.DistanceUnits.MM)
+        if (distUnits == DistanceUnits.MM)
         {
             toleranceScale = 25.4; // mm per inch
         }
 
         if (rError > (0.001 * toleranceScale))
         {
-            throw new GCodeException("G02/G03 movement is not circular.  (line: " + (lineNumber) + ")");
+            throw new GCodeException("G02/G03 movement is not circular.  (line: " + (lineNumber) + ")", lineNumber, 0);
         } // circle check
 
         // -------------------------------------------
@@ -397,7 +387,7 @@ public class GCodeCoordinate
     } // arcDistanceFromPreviousCoordinate
 
     // SEG v1.2
-    private static double arcLength(double prevX, double prevY, double currX, double currY, double currI, double currJ, boolean clockWiseDirection, RapidRotary_GUI.DistanceUnits distUnits, int lineNumber) throws GCodeException
+    private static double arcLength(double prevX, double prevY, double currX, double currY, double currI, double currJ, boolean clockWiseDirection, DistanceUnits distUnits, int lineNumber) throws GCodeException
     {
         // -- okay at this point we are certain all the data needed is defined. ---
         // PUT THIS (AND ABOVE CHECKS) IN A FUNCTION! or method in GCodeCoordinate... with CW or CCW flag (and line number)
@@ -419,14 +409,14 @@ public class GCodeCoordinate
 
         //apply units callibration for tolerance
         double toleranceScale = 1.0; // default and value for inches
-        if (distUnits == RapidRotary_GUI.DistanceUnits.MM)
+        if (distUnits == DistanceUnits.MM)
         {
             toleranceScale = 25.4; // mm per inch
         }
 
         if (rError > (0.001 * toleranceScale))
         {
-            throw new GCodeException("G02/G03 movement is not circular.  (line: " + (lineNumber) + ")");
+            throw new GCodeException("G02/G03 movement is not circular.  (line: " + (lineNumber) + ")", lineNumber, 0);
         } // circle check
 
         // -------------------------------------------
@@ -494,119 +484,110 @@ public class GCodeCoordinate
     
     public double getX() 
     {
-        return X;
+        return values[X];
     }
 
     public void setX(double X) 
     {
-        this.X = X;
-        this.Xset = true;
+        set(GCodeCoordinate.X, X);
     }
 
     public double getY() 
     {
-        return Y;
+        return values[Y];
     }
     
     public void setY(double Y) 
     {
-        this.Y = Y;
-        this.Yset = true;
+        set(GCodeCoordinate.Y, Y);
     }
 
     public double getZ() 
     {
-        return Z;
+        return values[Z];
     }
     
     public void setZ(double Z) 
     {
-        this.Z = Z;
-        this.Zset = true;
+        set(GCodeCoordinate.Z, Z);
     }
 
     public double getA() 
     {
-        return A;
+        return values[A];
     }
     
     public void setA(double A) 
     {
-        this.A = A;
-        this.Aset = true;
+        set(GCodeCoordinate.A, A);
     }
 
-   
-
     public boolean isXset() 
     {
-        return Xset;
+        return isSet(X);
     }
 
     public boolean isYset() 
     {
-        return Yset;
+        return isSet(Y);
     }
 
     public boolean isZset() 
     {
-        return Zset;
+        return isSet(Z);
     }
 
     public boolean isAset() 
     {
-        return Aset;
+        return isSet(A);
     }
     
     // arc coordinates
 
     public void setI(double I) 
     {
-        this.I = I;
-        this.Iset = true;
+        set(GCodeCoordinate.I, I);
     }
     
     public double getI() 
     {
-        return I;
+        return values[I];
     }
 
     public void setJ(double J) 
     {
-        this.J = J;
-        this.Jset = true;
+        set(GCodeCoordinate.J, J);
     }
     
     public double getJ() 
     {
-        return J;
+        return values[J];
     }
 
     public boolean isIset() 
     {
-        return Iset;
+        return isSet(I);
     }
 
     public boolean isJset() 
     {
-        return Jset;
+        return isSet(J);
     }
     
     // SEG v1.2 -----
     public void setK(double K) 
     {
-        this.K = K;
-        this.Kset = true;
+        set(GCodeCoordinate.K, K);
     }
     
     public double getK() 
     {
-        return K;
+        return values[K];
     }
  
     public boolean isKset() 
     {
-        return Kset;
+        return isSet(K);
     }
     
     
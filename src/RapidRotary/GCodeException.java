@@ -22,6 +22,10 @@ package RapidRotary;
  */
 public class GCodeException extends Exception
 {
+      // where in the input file the problem was found (0 if not known)
+      private int lineNumber;
+      private int column;
+
       //Parameterless Constructor
       public GCodeException() {}
 
@@ -43,4 +47,51 @@ public class GCodeException extends Exception
           super(message, th);
       }
       
+      // constructor with the location of the problem (line and column are 1 based)
+      public GCodeException(String message, int lineNumber, int column)
+      {
+          super(message);
+          this.lineNumber = lineNumber;
+          this.column = column;
+      }
+
+      public int getLineNumber()
+      {
+          return lineNumber;
+      }
+
+      public int getColumn()
+      {
+          return column;
+      }
+
+      // "line 12, column 5" (or just the line), null if the location is not known
+      public String getLocation()
+      {
+          if (lineNumber <= 0)
+          {
+              return null;
+          }
+          return (column > 0) ? "line " + lineNumber + ", column " + column : "line " + lineNumber;
+      }
+
+      // the file name with the location of the error in it, compiler style ("part.ngc:12:5"), if it is known
+      public static String locate(String fileName, Throwable e)
+      {
+          if (!(e instanceof GCodeException))
+          {
+              return fileName;
+          }
+          return locate(fileName, ((GCodeException) e).lineNumber, ((GCodeException) e).column);
+      }
+
+      public static String locate(String fileName, int lineNumber, int column)
+      {
+          if (lineNumber <= 0)
+          {
+              return fileName;
+          }
+          return fileName + ":" + lineNumber + ((column > 0) ? ":" + column : "");
+      }
+      
 } // GCodeException class
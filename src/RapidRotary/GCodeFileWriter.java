@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the converted G-code file.
+ *
+ * Lines that don't need to be rewritten are not copied one at a time: they are
+ * collected into runs of input file bytes, and each run is copied in one go -
+ * with FileChannel.transferTo for long runs (no copy through the Java heap) or
+ * a direct buffer copy out of the mapped input for short ones.  Only the lines
+ * that were rebuilt are encoded into the output buffer, one char at a time as
+ * they are assembled.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class GCodeFileWriter implements Closeable
+{
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024; // bytes
+    private static final int TRANSFER_THRESHOLD = 64 * 1024; // runs at least this long are sent with transferTo
+
+    private final WritableByteChannel outChannel;
+    private final MappedGCodeFileReader source; // input file the unchanged lines are copied from (null if not available)
+    private final ByteBuffer buffer;
+
+    // pending run of unchanged input bytes [runStart, runEnd), runStart < 0 if there is none
+    private long runStart = -1;
+    private long runEnd = -1;
+
+    private long bytesCopiedUnchanged = 0;
+
+    // line currently being rebuilt (null if none)
+    private GCodeLine rebuiltLine;
+    private boolean crlf; // the line breaks of the rebuilt line are \r\n
+    private boolean cr; // or a lone \r
+
+    public GCodeFileWriter(Path outputFile, MappedGCodeFileReader source) throws IOException
+    {
+        this(FileChannel.open(outputFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), source);
+    } // constructor
+
+    // write to any channel (e.g. the writer stage of a pipeline), the channel is closed with the writer
+    public GCodeFileWriter(WritableByteChannel outChannel, MappedGCodeFileReader source)
+    {
+        this.outChannel = outChannel;
+        this.source = source;
+        this.buffer = ByteBuffer.allocateDirect(DEFAULT_BUFFER_SIZE);
+    } // constructor
+
+    // the line (including its line break) is written exactly as it was read
+    public void writeUnchangedLine(GCodeLine line) throws IOException
+    {
+        if (source == null)
+        {
+            // no input file to copy from, copy the line's bytes
+            flushRun();
+            if (buffer.remaining() < line.length())
+            {
+                flushBuffer();
+            }
+            if (buffer.remaining() >= line.length())
+            {
+                line.copyTo(buffer);
+            }
+            else
+            {
+                for (int i = 0; i < line.length(); i++)
+                {
+                    putByte((byte) line.charAt(i));
+                }
+            }
+            putTerminator(line);
+            return;
+        }
+
+        long lineStart = line.getFileOffset();
+        long lineEnd = lineStart + line.length() + line.getTerminatorLength();
+
+        if (runStart >= 0 && runEnd == lineStart)
+        {
+            runEnd = lineEnd; // extend the run
+        }
+        else
+        {
+            flushRun();
+            runStart = lineStart;
+            runEnd = lineEnd;
+        }
+
+    } // writeUnchangedLine
+
+    // start writing the rebuilt version of line (see GCodeLineAssembler), finish with endRebuiltLine()
+    public void beginRebuiltLine(GCodeLine line) throws IOException
+    {
+        flushRun();
+        rebuiltLine = line;
+        crlf = (line.getTerminatorLength() == 2);
+        cr = line.isCrTerminated();
+    } // beginRebuiltLine
+
+    // one char of the rebuilt line -- line breaks inside the text (from lines that were added) use the input's \r\n, \n or \r style
+    public void put(char c) throws IOException
+    {
+        if (c == '\n' && cr)
+        {
+            putByte((byte) '\r');
+            return;
+        }
+        if (c == '\n' && crlf)
+        {
+            putByte((byte) '\r');
+        }
+        putByte((byte) c);
+    } // put
+
+    public void put(CharSequence text, int start, int end) throws IOException
+    {
+        for (int i = start; i < end; i++)
+        {
+            put(text.charAt(i));
+        }
+    } // put
+
+    // the rebuilt line ends with the same line break the input line had
+    public void endRebuiltLine() throws IOException
+    {
+        putTerminator(rebuiltLine);
+        rebuiltLine = null;
+    } // endRebuiltLine
+
+    private void putTerminator(GCodeLine line) throws IOException
+    {
+        if (line.isCrTerminated())
+        {
+            putByte((byte) '\r');
+            return;
+        }
+        if (line.getTerminatorLength() == 2)
+        {
+            putByte((byte) '\r');
+        }
+        if (line.getTerminatorLength() > 0)
+        {
+            putByte((byte) '\n');
+        }
+    } // putTerminator
+
+    private void putByte(byte b) throws IOException
+    {
+        if (!buffer.hasRemaining())
+        {
+            flushBuffer();
+        }
+        buffer.put(b);
+    } // putByte
+
+    // copy the pending run of unchanged input bytes to the output
+    private void flushRun() throws IOException
+    {
+        if (runStart < 0)
+        {
+            return;
+        }
+
+        long length = runEnd - runStart;
+        bytesCopiedUnchanged += length;
+
+        if (length >= TRANSFER_THRESHOLD)
+        {
+            // long run: straight from the input file to the output file
+            flushBuffer();
+            long position = runStart;
+            while (position < runEnd)
+            {
+                position += source.transferTo(position, runEnd - position, outChannel);
+            }
+        } // long run
+        else
+        {
+            if (buffer.remaining() < length)
+            {
+                flushBuffer();
+            }
+            source.copyTo(runStart, runEnd, buffer);
+        } // short run
+
+        runStart = -1;
+        runEnd = -1;
+
+    } // flushRun
+
+    private void flushBuffer() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            outChannel.write(buffer);
+        }
+        buffer.clear();
+    } // flushBuffer
+
+    // write everything so far to the output channel (e.g. so a program reading the output gets the lines converted so far)
+    public void flush() throws IOException
+    {
+        flushRun();
+        flushBuffer();
+    } // flush
+
+    // total bytes that were copied from the input without being rebuilt
+    public long getBytesCopiedUnchanged()
+    {
+        return bytesCopiedUnchanged;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            flushRun();
+            flushBuffer();
+        }
+        finally
+        {
+            outChannel.close();
+        }
+    } // close
+
+    // the conversion failed: close the output channel without writing what is still buffered
+    // (e.g. so a response that hasn't started yet can still be sent as an error)
+    public void discard() throws IOException
+    {
+        runStart = -1;
+        runEnd = -1;
+        buffer.clear();
+        outChannel.close();
+    } // discard
+
+} // GCodeFileWriter class
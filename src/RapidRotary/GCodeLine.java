@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * One line of G-code viewed directly in the byte buffer it was read into
+ * (e.g. a memory mapped window of the input file), without the line terminator.
+ *
+ * G-code is ASCII, each byte is one char (ISO-8859-1), so any other bytes
+ * (e.g. UTF-8 in comments) are copied through unchanged.  The view is reused,
+ * it is only valid until the next line is read.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class GCodeLine implements CharSequence
+{
+    private ByteBuffer buffer;
+    private int start;
+    private int length;
+    private long fileOffset; // offset of the first byte of the line in the input
+    private int terminatorLength; // 0 (last line without a line break), 1 (\n or a lone \r) or 2 (\r\n)
+
+    // point this view at a new line
+    public void set(ByteBuffer buffer, int start, int length, long fileOffset, int terminatorLength)
+    {
+        this.buffer = buffer;
+        this.start = start;
+        this.length = length;
+        this.fileOffset = fileOffset;
+        this.terminatorLength = terminatorLength;
+    } // set
+
+    @Override
+    public int length()
+    {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+        return (char) (buffer.get(start + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to)
+    {
+        return toString(from, to);
+    }
+
+    @Override
+    public String toString()
+    {
+        return toString(0, length);
+    }
+
+    // creates a String of part of the line -- only use when the text is really needed
+    public String toString(int from, int to)
+    {
+        byte[] bytes = new byte[to - from];
+        copyTo(from, to, bytes, 0);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    } // toString
+
+    // copy part of the line's bytes into dest
+    public void copyTo(int from, int to, byte[] dest, int destOffset)
+    {
+        for (int i = from; i < to; i++)
+        {
+            dest[destOffset++] = buffer.get(start + i);
+        }
+    } // copyTo
+
+    // copy the whole line's bytes (without the line break) into dest, which must have room for them
+    public void copyTo(ByteBuffer dest)
+    {
+        if (buffer.hasArray())
+        {
+            dest.put(buffer.array(), buffer.arrayOffset() + start, length); // bulk copy
+        }
+        else
+        {
+            for (int i = 0; i < length; i++)
+            {
+                dest.put(buffer.get(start + i));
+            }
+        }
+    } // copyTo
+
+    // add the line's bytes and its line break, as they are in the input, to the checksum
+    public void updateChecksum(CRC32 checksum)
+    {
+        if (buffer.hasArray())
+        {
+            checksum.update(buffer.array(), buffer.arrayOffset() + start, length + terminatorLength);
+            return;
+        }
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.limit(start + length + terminatorLength);
+        bytes.position(start);
+        checksum.update(bytes);
+    } // updateChecksum
+
+    public long getFileOffset()
+    {
+        return fileOffset;
+    }
+
+    public int getTerminatorLength()
+    {
+        return terminatorLength;
+    }
+
+    // true if the line ends with a lone \r (old Mac line break), the readers leave it in the buffer after the line
+    public boolean isCrTerminated()
+    {
+        return terminatorLength == 1 && buffer.get(start + length) == '\r';
+    }
+
+} // GCodeLine class
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.io.IOException;
+
+/**
+ * Assembles a rebuilt G-code line straight into the output writer's buffer.
+ *
+ * The parts of the line (words copied from the input line, replacement text,
+ * the F word, the comment) are appended in order with a single space between
+ * them, and any literal text (e.g. the G93/G94 wrapping lines) can be added
+ * around them.  Nothing is concatenated into intermediate Strings, the same
+ * assembler is reused for every line.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class GCodeLineAssembler
+{
+    private final GCodeFileWriter writer;
+
+    private int partCount; // parts appended to the current line so far
+    private char lastPartChar; // last char of the last part appended
+
+    public GCodeLineAssembler(GCodeFileWriter writer)
+    {
+        this.writer = writer;
+    }
+
+    // start the rebuilt version of line
+    public void begin(GCodeLine line) throws IOException
+    {
+        writer.beginRebuiltLine(line);
+        partCount = 0;
+        lastPartChar = 0;
+    } // begin
+
+    // text[start, end) as the next part of the line, a space is added before it if it is not the first part
+    public void appendPart(CharSequence text, int start, int end) throws IOException
+    {
+        if (start == end)
+        {
+            return; // nothing there, don't add an unneeded space
+        }
+        if (partCount > 0)
+        {
+            writer.put(' ');
+        }
+        writer.put(text, start, end);
+        partCount++;
+        lastPartChar = text.charAt(end - 1);
+    } // appendPart
+
+    public void appendPart(CharSequence text) throws IOException
+    {
+        appendPart(text, 0, text.length());
+    }
+
+    // the comment goes after the parts, with a space in between if one is needed
+    public void appendComment(CharSequence text, int start, int end) throws IOException
+    {
+        if (start == end)
+        {
+            return;
+        }
+        if (partCount > 0 && lastPartChar != ' ')
+        {
+            writer.put(' ');
+        }
+        writer.put(text, start, end);
+    } // appendComment
+
+    // literal text that is not one of the parts of the line (no spaces added)
+    public void appendLiteral(CharSequence text) throws IOException
+    {
+        writer.put(text, 0, text.length());
+    }
+
+    public void appendLiteral(char c) throws IOException
+    {
+        writer.put(c);
+    }
+
+    // finish the line, with the same line break as the input line
+    public void end() throws IOException
+    {
+        writer.endRebuiltLine();
+    }
+
+} // GCodeLineAssembler class
@@ -0,0 +1,966 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+/**
+ * Converts a G-code file line by line: all the state carried from one line to
+ * the next (modal G codes, feed rate, last position, start/end of program) and
+ * the statistics of the conversion.
+ *
+ * A converter can also be used to only scan lines (scanOnly), which tracks the
+ * same state without any distance calculations or output.  This is how the
+ * parallel conversion finds the state at the start of each chunk of the file,
+ * before each chunk is converted on its own with a copy of that state.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class GCodeLineConverter
+{
+    private static final String MONTH_NAMES = "JanFebMarAprMayJunJulAugSepOctNovDec"; // for the time stamp in the header
+
+    // conversion settings
+    private final double zZeroOffset;
+    private final ConversionMode conversionMode;
+    private final DistanceUnits distUnits;
+    private final int fOutputPrecision; // number of digits after the decimal to write for the F values (SEG v1.1)
+    private final RoundingMode fRoundingMode; // HALF_UP is the same as the String.format used before, or HALF_EVEN
+    private final String appVersionString;
+    private final GCodeNumberFormatter fFormatter; // writes the F values with fOutputPrecision digits
+    private String feedRateWord; // the G94 F word of currentFeedRate (null until needed)
+    private double feedRateWordValue;
+
+    private GCodeConversionListener listener; // messages go here (null = no messages)
+    private boolean scanOnly = false; // track the state only, no distances and no output
+    private CompiledToolpath.SegmentRecorder toolpathRecorder; // records the lines tokenized from the text (null = don't)
+
+    int linesProcessed = 0;
+    boolean endOfProgramFound = false;
+    boolean startProgramPercentSignFound = false;
+
+    // G-code parseing parameters
+    // the end point of the last move and of the current line's move -- two coordinates reused for every line, they swap roles after each move
+    GCodeCoordinate lastCoordinate = new GCodeCoordinate();
+    private GCodeCoordinate endCoordinate = new GCodeCoordinate();
+    double currentFeedRate = -1; // -1 means not set
+    int lastGCode = -1;
+    boolean G94Found = false;
+    boolean G17_18_19_Found = false; // SEG v1.2 changed from G17Found only (Plane Select)
+    boolean G90Found = false;
+    int currentPlaneSelected = 17; // SEG v1.2 added this to track current (should be either 17,18, or 19 only) G17=XY, G18=ZX, G19=YZ
+
+    // statistics
+    double totalToolPathDistance = 0;
+    double totalDegreesRotated = 0;
+    long totalG00lines = 0;
+    long totalG01lines = 0;
+    long totalG02lines = 0;
+    long totalG03lines = 0;
+
+    boolean rotaryMinMaxFound = false; // flag if the min max have been set yet
+    double rotaryMax = 0;
+    double rotaryMin = 0;
+    int numberLinesWithRotaryMoves = 0; // count number of lines that specifiy rotary (a-axis) moves [If A is specified but not changed it doesn't count]
+
+    // line tokenizing and re-assembly (reused for every line)
+    private final GCodeLineTokenizer tokenizer = new GCodeLineTokenizer();
+    private final GCodeWordTable wordTable = new GCodeWordTable();
+    private String[] replacedTokens = new String[16]; // text that replaces a token in the output line, null = unchanged, "" = removed
+    private boolean feedWordAppended; // true if an inverse time F word is added to the end of the current line
+    private double appendedFeedRate; // value of that F word
+
+    // output
+    private GCodeFileWriter outputFileWriter;
+    private GCodeLineAssembler lineAssembler;
+
+    public GCodeLineConverter(double zZeroOffset, ConversionMode conversionMode, DistanceUnits distUnits,
+            int fOutputPrecision, RoundingMode fRoundingMode, String appVersionString)
+    {
+        this.zZeroOffset = zZeroOffset;
+        this.conversionMode = conversionMode;
+        this.distUnits = distUnits;
+        this.fOutputPrecision = fOutputPrecision;
+        this.fRoundingMode = fRoundingMode;
+        this.appVersionString = appVersionString;
+        this.fFormatter = new GCodeNumberFormatter(fOutputPrecision, fRoundingMode);
+    } // constructor
+
+    // a new converter (at the start of a file) with the same settings
+    public GCodeLineConverter createWithSameSettings()
+    {
+        return new GCodeLineConverter(zZeroOffset, conversionMode, distUnits, fOutputPrecision, fRoundingMode, appVersionString);
+    }
+
+    // where the converted lines are written
+    public void setOutput(GCodeFileWriter writer)
+    {
+        outputFileWriter = writer;
+        lineAssembler = (writer != null) ? new GCodeLineAssembler(writer) : null;
+    }
+
+    public void setListener(GCodeConversionListener listener)
+    {
+        this.listener = listener;
+    }
+
+    public void setScanOnly(boolean scanOnly)
+    {
+        this.scanOnly = scanOnly;
+    }
+
+    // record the tokens of the lines processed from the text into a compiled toolpath (null = don't)
+    public void setToolpathRecorder(CompiledToolpath.SegmentRecorder recorder)
+    {
+        toolpathRecorder = recorder;
+    }
+
+    public int getLinesProcessed()
+    {
+        return linesProcessed;
+    }
+
+    // pick up where other left off: the state carried from line to line (not the statistics)
+    public void copyStateFrom(GCodeLineConverter other)
+    {
+        linesProcessed = other.linesProcessed;
+        endOfProgramFound = other.endOfProgramFound;
+        startProgramPercentSignFound = other.startProgramPercentSignFound;
+        lastCoordinate.copyFrom(other.lastCoordinate);
+        currentFeedRate = other.currentFeedRate;
+        lastGCode = other.lastGCode;
+        G94Found = other.G94Found;
+        G17_18_19_Found = other.G17_18_19_Found;
+        G90Found = other.G90Found;
+        currentPlaneSelected = other.currentPlaneSelected;
+    } // copyStateFrom
+
+    // the state copyStateFrom copies, except the line count, as bytes -- the next lines are converted the same by any
+    // converter (with the same settings) in this state, so the incremental conversion saves and compares these
+    public byte[] getStateBytes()
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try
+        {
+            out.writeBoolean(endOfProgramFound);
+            out.writeBoolean(startProgramPercentSignFound);
+            lastCoordinate.writeTo(out);
+            out.writeDouble(currentFeedRate);
+            out.writeInt(lastGCode);
+            out.writeBoolean(G94Found);
+            out.writeBoolean(G17_18_19_Found);
+            out.writeBoolean(G90Found);
+            out.writeInt(currentPlaneSelected);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e); // (not possible in memory)
+        }
+        return bytes.toByteArray();
+    } // getStateBytes
+
+    // pick up from state bytes (getStateBytes) at line linesProcessed
+    public void setState(byte[] state, int linesProcessed) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+        endOfProgramFound = in.readBoolean();
+        startProgramPercentSignFound = in.readBoolean();
+        lastCoordinate.readFrom(in);
+        currentFeedRate = in.readDouble();
+        lastGCode = in.readInt();
+        G94Found = in.readBoolean();
+        G17_18_19_Found = in.readBoolean();
+        G90Found = in.readBoolean();
+        currentPlaneSelected = in.readInt();
+        this.linesProcessed = linesProcessed;
+    } // setState
+
+    // the statistics as bytes, setStatistics puts them back (replacing this converter's)
+    public byte[] getStatisticsBytes()
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(80);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try
+        {
+            out.writeDouble(totalToolPathDistance);
+            out.writeDouble(totalDegreesRotated);
+            out.writeLong(totalG00lines);
+            out.writeLong(totalG01lines);
+            out.writeLong(totalG02lines);
+            out.writeLong(totalG03lines);
+            out.writeInt(numberLinesWithRotaryMoves);
+            out.writeBoolean(rotaryMinMaxFound);
+            out.writeDouble(rotaryMax);
+            out.writeDouble(rotaryMin);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e); // (not possible in memory)
+        }
+        return bytes.toByteArray();
+    } // getStatisticsBytes
+
+    public void setStatistics(byte[] statistics) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(statistics));
+        totalToolPathDistance = in.readDouble();
+        totalDegreesRotated = in.readDouble();
+        totalG00lines = in.readLong();
+        totalG01lines = in.readLong();
+        totalG02lines = in.readLong();
+        totalG03lines = in.readLong();
+        numberLinesWithRotaryMoves = in.readInt();
+        rotaryMinMaxFound = in.readBoolean();
+        rotaryMax = in.readDouble();
+        rotaryMin = in.readDouble();
+    } // setStatistics
+
+    // add the statistics of other (e.g. the next chunk of the file) to this converter's
+    public void addStatisticsFrom(GCodeLineConverter other)
+    {
+        totalToolPathDistance += other.totalToolPathDistance;
+        totalDegreesRotated += other.totalDegreesRotated;
+        totalG00lines += other.totalG00lines;
+        totalG01lines += other.totalG01lines;
+        totalG02lines += other.totalG02lines;
+        totalG03lines += other.totalG03lines;
+        numberLinesWithRotaryMoves += other.numberLinesWithRotaryMoves;
+
+        if (other.rotaryMinMaxFound)
+        {
+            if (rotaryMinMaxFound == false)
+            {
+                rotaryMax = other.rotaryMax;
+                rotaryMin = other.rotaryMin;
+                rotaryMinMaxFound = true;
+            }
+            else
+            {
+                rotaryMax = Math.max(rotaryMax, other.rotaryMax);
+                rotaryMin = Math.min(rotaryMin, other.rotaryMin);
+            }
+        } // rotary min/max
+
+    } // addStatisticsFrom
+
+    private void publish(String message)
+    {
+        if (listener != null)
+        {
+            listener.message(message);
+        }
+    } // publish
+
+    // process the line and write it out -- copied as it is if it does not need to change, otherwise rebuilt
+    // if there is an error this will throw a exception
+    public void processInputLine(GCodeLine lineIn) throws GCodeException, IOException
+    {
+        // break up the line into tokens/words, read directly from the line (comments are not tokenized)
+        processTokenizedLine(lineIn, tokenizer.tokenize(lineIn));
+
+        if (toolpathRecorder != null)
+        {
+            toolpathRecorder.addLine(lineIn, tokenizer); // (with the values parsed for it)
+        }
+    } //processInputLine
+
+    // the same for the next line of a compiled toolpath: its tokens (and their values) are read from the toolpath
+    public void processCompiledLine(GCodeLine lineIn, CompiledToolpath.SegmentReader toolpath) throws GCodeException, IOException
+    {
+        processTokenizedLine(lineIn, toolpath.loadTokens(tokenizer, lineIn));
+    } //processCompiledLine
+
+    private void processTokenizedLine(GCodeLine lineIn, int tokenCount) throws GCodeException, IOException
+    {
+        // clear any replacement text left from the previous line
+        if (replacedTokens.length < tokenCount)
+        {
+            replacedTokens = new String[Math.max(tokenCount, replacedTokens.length * 2)];
+        }
+        Arrays.fill(replacedTokens, 0, tokenCount, null);
+        feedWordAppended = false;
+
+        // one pass over the words of the line: fills the word table, handles the non-moving G codes of interest (like G94->G93)
+        processLineWords();
+
+        // feedrate change (if any)
+        if (wordTable.has('F'))
+        {
+            this.currentFeedRate = wordTable.get('F');
+        }
+
+        // process G00, G01, G02, G03 movements or implicity move lines (add G93 F values too)
+        boolean moveContainsRotaryChangeAndNotG00 = processMovingGCodesAndImplicitMoves();
+
+        // remove the F words from the line, since we can't use old feedrates in G93
+        // SEG v1.0.1 -- in wrap only A mode lines that are not wrapped in G93 keep their feed rates
+        if (conversionMode == ConversionMode.WRAP_ALL || moveContainsRotaryChangeAndNotG00)
+        {
+            for (int k = 0; k < wordTable.getFeedWordCount(); k++)
+            {
+                replacedTokens[wordTable.getFeedWordToken(k)] = "";
+            }
+        } // remove feed rates
+
+        // add G94 to the end of program // Every G code file must end in a M2 or M30 or be wrapped with the percent sign %.
+        boolean wasStartFoundOnLine = processStartStopOfProgramAddG94ToEnd();
+
+        if (scanOnly)
+        {
+            linesProcessed++;
+            return;
+        } // only the state is needed, nothing is written
+
+        // if nothing needs to change on the line (most comments, M-codes, rapids, ...) it is copied to the output as it is
+        if (feedWordAppended == false && wasStartFoundOnLine == false && moveContainsRotaryChangeAndNotG00 == false
+                && noTokensReplaced(tokenCount))
+        {
+            outputFileWriter.writeUnchangedLine(lineIn);
+            linesProcessed++;
+            return;
+        } // unchanged line
+
+        // SEG v1.0.1 -- if wrapping just A moves mode is selected, and the current line contains an A move (but not a G0 A move)
+        // add G93 to the front of the line and then afterwards add G94 and Feedrate, add extra line breaks around this wrapping for better readability
+        boolean wrapLineInG93 = (conversionMode == ConversionMode.WRAP_EACH_A_MOVE && moveContainsRotaryChangeAndNotG00);
+        //Do implicit moves still work between switching modes?
+
+        // **** re-combine all the parts of the line (straight into the output) ****
+        lineAssembler.begin(lineIn);
+        if (wrapLineInG93)
+        {
+            lineAssembler.appendLiteral("\nG93\n");
+        }
+
+        for (int i = 0; i < tokenCount; i++)
+        {
+            String replacement = replacedTokens[i];
+            if (replacement != null)
+            {
+                lineAssembler.appendPart(replacement); // "" (removed) adds nothing
+            }
+            else // copy the token straight from the input line
+            {
+                lineAssembler.appendPart(lineIn, tokenizer.getTokenStart(i), tokenizer.getTokenEnd(i));
+            }
+        } // for each token
+
+        // the inverse time F value (if any) goes after all the other parts of the line
+        if (feedWordAppended)
+        {
+            lineAssembler.appendPart(fFormatter.formatWord('F', appendedFeedRate));
+        } // if F value added
+
+        // add the comments (add an extra space if needed)
+        if (tokenizer.hasComment())
+        {
+            lineAssembler.appendComment(lineIn, tokenizer.getCommentStart(), lineIn.length());
+        }
+
+        // if the start was found on this line, then add header afterwards. as the % must be first before any comments in the file
+        if (wasStartFoundOnLine == true)
+        {
+            appendHeader();
+        } // if wasStartFoundOnLine == true
+
+        if (wrapLineInG93)
+        {
+            lineAssembler.appendLiteral("\nG94\n");
+            lineAssembler.appendLiteral(feedRateWord());
+            lineAssembler.appendLiteral('\n');
+        }
+
+        lineAssembler.end();
+        linesProcessed++;
+
+    } //processTokenizedLine
+
+    // the feed rate put back with G94, as it was given (fOutputPrecision is only for the inverse time F values)
+    private String feedRateWord()
+    {
+        if (feedRateWord == null || Double.doubleToLongBits(feedRateWordValue) != Double.doubleToLongBits(currentFeedRate))
+        {
+            feedRateWord = GCodeNumberFormatter.formatWordPlain('F', currentFeedRate);
+            feedRateWordValue = currentFeedRate;
+        }
+        return feedRateWord;
+    } // feedRateWord
+
+    // header added to the top of the file (after the start %)
+    private void appendHeader() throws IOException
+    {
+        // create time stamp string:
+        String timeStampString = timeStamp(LocalDateTime.now());
+
+        // conversion mode string
+        String conversionModeStr = "?";
+        if (conversionMode == ConversionMode.WRAP_ALL)
+        {
+            conversionModeStr = "Use G93 mode for entire file";
+        } else if (conversionMode == ConversionMode.WRAP_EACH_A_MOVE)
+        {
+            conversionModeStr = "Wrap each rotary move in G93";
+        }
+
+        // distance units string
+        String distUnitsStr = "?";
+        if (distUnits == DistanceUnits.INCHES)
+        {
+            distUnitsStr = "inches";
+        } else if (distUnits == DistanceUnits.MM)
+        {
+            distUnitsStr = "mm";
+        }
+
+        lineAssembler.appendLiteral("\n(-------------------------------------------------------------)");
+        lineAssembler.appendLiteral("\n(       Converted G-code from G94 to G93 Invserse Time        )");
+        lineAssembler.appendLiteral("\n(       Rapid Rotary " + appVersionString + ", shawn@ganotechnologies.com       )");
+        lineAssembler.appendLiteral("\n( WARNING: Review and test program for your machine and setup.)");
+        lineAssembler.appendLiteral("\n(          Use this program at your own risk                  )");
+        lineAssembler.appendLiteral("\n(                    " + timeStampString + "                     )");
+        lineAssembler.appendLiteral("\n(       Z-zero offset from A-axis: " + zZeroOffset + "                        )");
+        lineAssembler.appendLiteral("\n(       Conversion Mode: " + conversionModeStr + "         )");
+        lineAssembler.appendLiteral("\n(       Distance Units: " + distUnitsStr + "                                )");
+        lineAssembler.appendLiteral("\n(       F value output decimal digits : " + fOutputPrecision + "                     )"); // SEG v1.1
+        lineAssembler.appendLiteral("\n(-------------------------------------------------------------)");
+        publish("- Preamble added to output file");
+
+    } // appendHeader
+
+    // yyyy-MMM-dd HH:mm:ss with English month names -- built by hand, a SimpleDateFormat loads the locale data,
+    // which took longer than converting a small file
+    static String timeStamp(LocalDateTime time)
+    {
+        StringBuilder sb = new StringBuilder(20);
+        int month = time.getMonthValue();
+        sb.append(time.getYear()).append('-').append(MONTH_NAMES, 3 * (month - 1), 3 * month).append('-');
+        appendTwoDigits(sb, time.getDayOfMonth()).append(' ');
+        appendTwoDigits(sb, time.getHour()).append(':');
+        appendTwoDigits(sb, time.getMinute()).append(':');
+        appendTwoDigits(sb, time.getSecond());
+        return sb.toString();
+    } // timeStamp
+
+    private static StringBuilder appendTwoDigits(StringBuilder sb, int value)
+    {
+        return sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    private boolean noTokensReplaced(int tokenCount)
+    {
+        for (int i = 0; i < tokenCount; i++)
+        {
+            if (replacedTokens[i] != null)
+            {
+                return false;
+            }
+        }
+        return true;
+    } // noTokensReplaced
+
+    // single pass over all the words on the line, switching on the word letter:
+    //  - values of F, X, Y, Z, A, I, J, K are saved in the word table
+    //  - G codes that are not movements are handled right away (G94->G93, error checks, ...)
+    //  - movement (G0/1/2/3 or implicit) and start/end of program words are noted in the word table
+    private void processLineWords() throws GCodeException
+    {
+        int lineNumber = this.linesProcessed + 1;
+
+        wordTable.clear();
+
+        for (int i = 0; i < tokenizer.getTokenCount(); i++)
+        {
+            char letter = tokenizer.getLetter(i);
+            switch (letter)
+            {
+                case 'F':
+                    wordTable.set(letter, tokenizer.getValue(i, lineNumber));
+                    wordTable.noteFeedWord(i); // may need to be removed from the line later
+
+                    // for debug and verification:
+                    //publish("- New feedrate of " + this.currentFeedRate + " found at line " + (this.linesProcessed+1) );
+                    break;
+
+                case 'G':
+                    // convert to int (codes with a decimal point, like G38.2 or G64.1, are not of interest here)
+                    double gCodeValue = tokenizer.getValue(i, lineNumber);
+                    int gCode = (gCodeValue == (int) gCodeValue) ? (int) gCodeValue : -1;
+                    processGCodeWord(gCode, i);
+                    break;
+
+                case 'M':
+                    // M2 or M30 used to detect end
+                    double mCode = tokenizer.getValue(i, lineNumber);
+                    if (mCode == 2 || mCode == 30)
+                    {
+                        wordTable.noteProgramEnd(i);
+                    }
+                    break;
+
+                case 'X':
+                case 'Y':
+                case 'Z':
+                case 'A':
+                    wordTable.set(letter, tokenizer.getValue(i, lineNumber));
+                    wordTable.noteAxisWord(); // implicit move, unless a G0/1/2/3 came first
+                    break;
+
+                case 'I':
+                case 'J':
+                case 'K':
+                    wordTable.set(letter, tokenizer.getValue(i, lineNumber));
+                    break;
+
+                case 0:
+                    // raw token -- '%' used to wrap G-code
+                    if (tokenizer.getFirstChar(i) == '%')
+                    {
+                        wordTable.notePercentSign(i);
+                    }
+                    break;
+
+                default:
+                    // other words (N, S, T, ...) are just copied to the output
+                    break;
+            } // switch on the word letter
+
+        }  // for each word
+
+    } //processLineWords
+
+    private void processGCodeWord(int gCode, int token) throws GCodeException
+    {
+        // need to scan and give error if G93 ever found
+        // **Error if any G18 (ZX Plane for arcs) or G19 (YZ Plane - for arcs) ever found
+        // **--- Version 1.2 allows G18 and G19 now
+        // error if G94, G17, and G90 have all not been found before G01,G02, or G03 are called.
+        if (gCode >= 0 && gCode <= 3) // G0, G1, G2, G3 movement
+        {
+            wordTable.noteMovementGCode(gCode);
+        } // movement
+        else if (gCode == 94) // G94 (Feed Rate Mode: units per minute)
+        {
+            // Mark as found!
+            G94Found = true;
+
+            // change to G93! (if in wrap all mode - otherwise leave it alone)
+            if (conversionMode == ConversionMode.WRAP_ALL)
+            {
+                replacedTokens[token] = "G93 (Inverse Time Mode, Converted from G94)";
+            }
+
+            // publish find
+            publish("- G94 (Feed Rate Mode: units per minute)  FOUND! Line =  " + (this.linesProcessed + 1));
+        } // G94
+        else if (gCode == 93) // G94 (Inverse Feed Rate Mode: units per minute) - ERROR can't convert back!!
+        {
+            throw new GCodeException("G93 Found in input file.  Retaining inverse time mode within input file is not supported. (line " + (this.linesProcessed + 1) + ")",
+                    this.linesProcessed + 1, 0);
+        } // G93
+        else if (gCode == 17) // G17 (Plane Select: XY)
+        {
+            // Mark as found!
+            G17_18_19_Found = true; // SEG v1.2
+            currentPlaneSelected = 17; // set current plane
+
+            // publish find
+            publish("- G17 (Plane Select: XY)  FOUND! Line =  " + (this.linesProcessed + 1));
+        } // G17
+        else if (gCode == 18) // G18 (ZX Plane for arcs)
+        {
+            // Mark as found!
+            G17_18_19_Found = true; // SEG v1.2
+            currentPlaneSelected = 18; // set current plane
+
+            // publish find
+            publish("- G18 (Plane Select: ZX)  FOUND! Line =  " + (this.linesProcessed + 1));
+
+            //throw new GCodeException("G18 (ZX Plane for arcs) found in input file.  Only arcs in XY plane (G17) are supported. (line " + (this.linesProcessed + 1) + ")");
+        } // G18 
+        else if (gCode == 19) //G19 (YZ Plane - for arcs)
+        {
+            // Mark as found!
+            G17_18_19_Found = true; // SEG v1.2
+            currentPlaneSelected = 19; // set current plane
+
+            // publish find
+            publish("- G19 (Plane Select: YZ)  FOUND! Line =  " + (this.linesProcessed + 1));
+
+            //throw new GCodeException("G19 (YZ Plane for arcs) found in input file.  Only arcs in XY plane (G17) are supported. (line " + (this.linesProcessed + 1) + ")");
+        } // G19
+        else if (gCode == 90) // G90 (Set absolute distance mode)
+        {
+            // Mark as found!
+            G90Found = true;
+
+            // publish find
+            publish("- G90 (Set absolute distance mode)  FOUND! Line =  " + (this.linesProcessed + 1));
+        } // G90
+
+    } //processGCodeWord
+
+    // scan for G00, G01, G02, G03 codes and movements or implicity move lines and process them (add G93 F values too)
+    // returns a boolean if there was a rotary move that was not a G00
+    private boolean processMovingGCodesAndImplicitMoves() throws GCodeException
+    {
+        boolean moveContainsRotaryChangeAndNotG00 = false;
+
+        // check if this line is a move command
+        // determine if this is a move... look for parts that start with G0, G00, G01, G1, G02, G2, G02, X, Y, Z, A -- then it is a move or implicit move! 
+        // (the word table already knows - the first G0/1/2/3 or X/Y/Z/A word on the line decides)
+
+        // if not a move line - return
+        if (wordTable.isMovementLine() == false)
+        {
+            return false; // not a movement so return (moveContainsRotaryChangeAndNotG00 == false)
+        } // checking for movement
+
+        // check if move seems implicit but no last "G0/1/2/3" was set
+        if (wordTable.isImplicitMovement() == true && lastGCode < 0)
+        {
+            // error, if implicit move before a movement Gcode is specified
+            throw new GCodeException("Implicit move command given before listing an actual move command (G0/1/2/3). "
+                    + "(line: " + (this.linesProcessed + 1 + ")"),
+                    this.linesProcessed + 1, 0);
+        }
+
+        // --- since this is a move command figure out which one it is:
+        int currentMoveGCode = -1;
+        if (wordTable.isImplicitMovement() == true)
+        {
+            // implicit - use last command type
+            currentMoveGCode = this.lastGCode;
+        } else // it was specified in the current line (get form result)
+        {
+            currentMoveGCode = wordTable.getMovementGCode();
+        }
+
+        // save the last command for next time around
+        this.lastGCode = currentMoveGCode;
+
+        // since this is a move -- be sure G90,G17, G94 are all set and a feedrate has been set -- otherwise ERROR
+        // unless this is G0 then don't give an error yet
+        if (currentMoveGCode != 0)
+        {
+            if (this.currentFeedRate < 0 || G94Found == false || G17_18_19_Found == false || G90Found == false) // SEG v1.2 updated G17_18 name
+            {
+                // SEG v1.2 - added "not" before set on each item
+                throw new GCodeException("Movement G-code (G01,G02,G03) found before the following requirements were set: "
+                        + ((this.currentFeedRate < 0) ? "\nFeedrate not set" : "")
+                        + ((G17_18_19_Found == false) ? "\nG17, G18, or G19 (plane) not set" : "") // SEG v1.2 added G18 and G19
+                        + ((G90Found == false) ? "\nG90 not set" : "")
+                        + ((G94Found == false) ? "\nG94 not set" : "")
+                        + "\nline: " + (this.linesProcessed + 1),
+                        this.linesProcessed + 1, 0);
+
+            } // error for movement command
+        } // not G00 or G0 -- inside is the check for needed modes settings and feedrate set
+
+        // read in this line's coordinate parameters from this line: (X,Y,Z,A,I,J)
+        // this is the new coordinate and represents the end point for the next move
+        endCoordinate.setFromLineWords(wordTable);
+
+        // copy unset values on this line from previous point... unless that isn't set (then don't set it)...
+        // works on X, Y, Z, A  (not I or J)
+        endCoordinate.copyUnsetValuesfromPrevousPoint(lastCoordinate);
+
+        if (scanOnly)
+        {
+            // only the end point is needed to carry the state to the next line (no distances or F values)
+            swapCoordinates();
+            return false;
+        }
+
+        double distanceTraveled = -1; // value for the distance traveled for this line, -1 if not determinable (i.e. first move in this direction)
+        double degreesRotated = -1; // total degrees rotated this line
+        boolean appendFvalueToLine = false;
+
+        // If G00 (or implicit) -- save location and save Gcode  , no need to change anything on the line, then return 
+        //                          save distance moved too -- if not first move
+        //   Add new variable for total distance of rapid moves, vs straight, vs two cruve moves,,,
+        //  --- don't calculate distance for an axis if there wasn't a previous move recorded in that axis before this one... just subsequent moves
+        if (currentMoveGCode == 0) // linear move (fast)
+        {
+            totalG00lines++;
+
+            // -- no errors of there were no previous data or current data to move to - as G0 may be the first moves made in each axis
+            // calulate the distance traveled (if both start and endpoint exist for that axis) - ignore moves that don't
+            // includ rotart axis A rotations in distance converted using Z as the radius value (assumes Z-0 is on A axis)
+            distanceTraveled = endCoordinate.straightDistanceFromCoordinateConvertA2Dist(lastCoordinate, zZeroOffset, distUnits, false, this.linesProcessed + 1);
+
+            degreesRotated = endCoordinate.rotationAbsoluteDifferenceDegrees(lastCoordinate);
+
+            // used to debug / verify results
+            //publish("- line: " + (this.linesProcessed + 1) + ":  distance traveled =  "+ distanceTraveled +", degRot = " + degreesRotated );
+            // no need for F values for G0 commands
+            appendFvalueToLine = false;
+
+        } // G00
+        // if G01 (or implicit) [linear move] -- save location and gCode, determind distance, add F inverse time after all X,Y,Z,A parameters
+        // (error) requires some delta distance from previous point (at least one set before)-- so distance can be calculated for the move!
+        // (error) also requires that a move in any set endpoint, means the last point must have been set in that axis (meaning this can't represent the first move for an axis)
+        else if (currentMoveGCode == 1) // linear move (at set feed rate)
+        {
+            totalG01lines++;
+            // calulate the distance traveled 
+            // includd rotarty axis A rotations in distance converted using Z as the radius value (assumes Z-0 is on A axis)
+            // throw exception if any move doesn't have a previous value set -- (because distance can't be calculted)
+            distanceTraveled = endCoordinate.straightDistanceFromCoordinateConvertA2Dist(lastCoordinate, zZeroOffset, distUnits, true, this.linesProcessed + 1);
+
+            degreesRotated = endCoordinate.rotationAbsoluteDifferenceDegrees(lastCoordinate);
+
+            // used to debug / verify results
+            //publish("- line: " + (this.linesProcessed + 1) + ":  distance traveled =  "+ distanceTraveled +", degRot = " + degreesRotated );
+            // add F values for G01 commands
+            appendFvalueToLine = true;
+
+        } // G01
+        // if G02    [circular move clockwise] - in X-Y plane only (since G17 is active)
+        // (error if Z set on this line or if I, J, Y, X are not ... or if K is specified on the line)
+        // (error if A is set on this line!
+        else if (currentMoveGCode == 2) // arc path - clockwise
+        {
+            totalG02lines++;
+
+            // calculate arc-distance from last coordinate to the endCoordinate, clockwise (true)
+            // SEG v1.2 - added input for which plane is currently selected (G17,18,19)
+            distanceTraveled = endCoordinate.arcDistanceFromPreviousCoordinate(lastCoordinate, true, distUnits, this.linesProcessed + 1, currentPlaneSelected);
+
+            // used to debug / verify results
+            //publish("- G02 line: " + (this.linesProcessed + 1) + ":  distance traveled =  "+ distanceTraveled);
+            // no A-axis rotation supported in G02 (for this converter)
+            degreesRotated = 0;
+
+            // add F values for G02 commands
+            appendFvalueToLine = true;
+
+            // (error if A is set on this line!
+        } // G02
+        // if G03    [circular move counter-clockwise] - in X-Y plane only (since G17 is active)
+        // (error) requires previous X,Y to both be set - otherwise error
+        // (error if Z set on this line or if I, J are not ... or if K is specified on the line)
+        // (error if A is set on this line!
+        else if (currentMoveGCode == 3) // arc path -- counter-clockwise
+        {
+            totalG03lines++;
+            // (error if Z set on this line or if I, J are not ... or if K is specified on the line)
+
+            // calculate arc-distance from last coordinate to the endCoordinate, counter-clockwise (false)
+            // SEG v1.2 - added input for which plane is currently selected (G17,18,19)
+            distanceTraveled = endCoordinate.arcDistanceFromPreviousCoordinate(lastCoordinate, false, distUnits, this.linesProcessed + 1, currentPlaneSelected);
+
+            // used to debug / verify results
+            //publish("- G03 line: " + (this.linesProcessed + 1) + ":  distance traveled =  "+ distanceTraveled);
+            // no A-axis rotation supported in G03 (for this converter)
+            degreesRotated = 0;
+
+            // add F values for G03 commands
+            appendFvalueToLine = true;
+
+            // (error if A is set on this line!
+        } // G03
+
+        // --- scan to see if there was an A specified on this line, deal with it specially if in "wrap only A moves"
+        //      also add it to the count
+        //NO move to later... just check to see if it changed (or didn't exist and now it does)..  only need it when A moves!
+        //-- but also G93 not needed for G0 moves.
+        if (endCoordinate.isAset() == true && lastCoordinate.isAset() == false)
+        {
+            // first move -- which may be to 0-deg so we need to count it specially
+            this.numberLinesWithRotaryMoves++;
+
+            // this actually should never happen, if there was no previous A-axis set, but I guess it is theorectically possible
+            if (currentMoveGCode != 0)
+            {
+                moveContainsRotaryChangeAndNotG00 = true;
+            }
+
+        } else if (endCoordinate.isAset() == true && endCoordinate.getA() != lastCoordinate.getA())
+        {
+            // increment rotary moves
+            this.numberLinesWithRotaryMoves++;
+
+            if (currentMoveGCode != 0)
+            {
+                moveContainsRotaryChangeAndNotG00 = true;
+            }
+
+        } // there was a change in A-axis movement
+
+        // this is a check -- based on the conversion method if we really want to add F to the line
+        if (appendFvalueToLine)
+        {
+            if (conversionMode == ConversionMode.WRAP_EACH_A_MOVE)
+            {
+                if (moveContainsRotaryChangeAndNotG00 != true)
+                {
+                    appendFvalueToLine = false; // we don't need to write the F rate in this case
+                }
+
+            } // if wrap each A-move mode is selected
+
+        } // if appedFvaluesToLine -- check for modes, may have to turn this off if needed
+
+        // if appendFvalueToLine  -- calculate time needed and inverse time value, add to end of the line parameters!
+        if (appendFvalueToLine)
+        {
+
+            if (this.currentFeedRate <= 0)
+            {
+                throw new GCodeException("Feedrate must be positive and non-zero (line: " + (this.linesProcessed + 1) + ")",
+                        this.linesProcessed + 1, 0);
+            }
+
+            // calcuate the time needed to move the distance traveled in this step
+            // distanceTraveled  [dist]
+            //this.currentFeedRate  [dist/min]
+            double timeForStepInMinutes = distanceTraveled / this.currentFeedRate;
+
+            // notes: http://www.cnczone.com/forums/haas-mills/69433-mastercam.html
+            // FRN = Feed rate number in inverse time
+            // TIME = The time in minutes to move from A to B 
+            // FRN = 1 / TIME
+            double frn = 0; // default
+            if (timeForStepInMinutes > 0) // protect from divide by zero
+            {
+                frn = 1.0 / timeForStepInMinutes;
+            } else
+            {
+                publish("WARNING: zero distance, zero speed, or infinte speed for move on line: " + (this.linesProcessed + 1));
+            } // else caught a divide by zero
+           
+            // SEG v1.1 - customizable precision (fFormatter), the F word is formatted when the line is written out
+            feedWordAppended = true;
+            appendedFeedRate = frn;
+
+        } // if appendFvalueToLine -- add F to end of line
+
+        // accumulate total distance traveled X,Y,Z
+        if (distanceTraveled >= 0)
+        {
+            this.totalToolPathDistance += distanceTraveled;
+        }
+
+        // accumulate total rotation
+        if (degreesRotated >= 0)
+        {
+            this.totalDegreesRotated += degreesRotated;
+        }
+
+        // !! the new coordinate becomes the old one...  don't transfer I J K values
+        swapCoordinates();
+
+        // stats on rotary axis max/min
+        if (lastCoordinate.isAset() == true)
+        {
+            if (rotaryMinMaxFound == false)
+            {
+                rotaryMax = lastCoordinate.getA();
+                rotaryMin = lastCoordinate.getA();
+                rotaryMinMaxFound = true; // flag we have found one value
+            } // first rotary data
+            else
+            {
+                // check max
+                if (lastCoordinate.getA() > rotaryMax)
+                {
+                    rotaryMax = lastCoordinate.getA();
+                }
+
+                // check min
+                if (lastCoordinate.getA() < rotaryMin)
+                {
+                    rotaryMin = lastCoordinate.getA();
+                }
+
+            } // check stats, after first A move
+
+        } // A max/min stats
+
+        return moveContainsRotaryChangeAndNotG00;
+
+    } // processMovingGCodesAndImplicitMoves
+
+    // the end point of this move becomes the last point (swap the two, the old one is refilled next move)
+    private void swapCoordinates()
+    {
+        GCodeCoordinate previousCoordinate = lastCoordinate;
+        lastCoordinate = endCoordinate;
+        endCoordinate = previousCoordinate;
+        lastCoordinate.clearArcOffsets();
+    } // swapCoordinates
+
+    // add G94 to the end of program // Every G code file must end in a M2 or M30 or be wrapped with the percent sign %.
+    // returns true if the start percentage sign was found on this line (signals that the header comments can be added)
+    private boolean processStartStopOfProgramAddG94ToEnd() throws GCodeException
+    {
+        //endOfProgramFound = false;
+        //startProgramPercentSignFound = false;
+
+        boolean wasStartPercentSignFoundOnThisLine = false;
+
+        int percentSignToken = wordTable.getPercentSignToken();
+        int programEndToken = wordTable.getProgramEndToken();
+
+        // ------  '%' used to wrap G-code detection ------
+        // (if a M2/M30 comes before the % on the same line, the M2/M30 marks the end of the program instead)
+        if (percentSignToken >= 0 && (programEndToken < 0 || percentSignToken < programEndToken || startProgramPercentSignFound == false))
+        {
+            // is this the first percentage file found?
+            if (startProgramPercentSignFound == false)
+            {
+                wasStartPercentSignFoundOnThisLine = true;
+
+                startProgramPercentSignFound = true;
+
+                publish("- Start of program found (%) on line" + (this.linesProcessed + 1));
+            } // this is the first time detecting an ending "%"
+            else if (endOfProgramFound == false)
+            {
+                // add a G94 command to the line, so it appears on a separate line before the %
+                replacedTokens[percentSignToken] = "\nG94 (Added to revert back to standard G94 feed rate mode)\n" + feedRateWord() + " (last feed rate used)\n" + tokenizer.getTokenText(percentSignToken);
+
+                publish("- End of program found (%) on line" + (this.linesProcessed + 1));
+
+                endOfProgramFound = true;
+            } // if this is the first "end program" found // the end of the program has been found via %
+
+        } // this is a G-code entry
+
+        // ----  M2 or M30 used to detect end ------
+        if (programEndToken >= 0 && endOfProgramFound == false)
+        {
+            // add a G94 command to the line, so it appears on a separate line before the %
+            replacedTokens[programEndToken] = "\nG94 (Added to revert back to standard G94 feed rate mode)\n" + feedRateWord() + " (last feed rate used)\n" + tokenizer.getTokenText(programEndToken);
+
+            publish("- End of program found (M2 and/or M30) on line" + (this.linesProcessed + 1));
+
+            endOfProgramFound = true;
+        } // if -- M2 of M30
+
+        return wasStartPercentSignFoundOnThisLine;
+    } //processStartStopOfProgramAddG94ToEnd
+
+} // GCodeLineConverter class
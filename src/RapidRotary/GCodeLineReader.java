@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Source of the input lines of a conversion: a memory mapped file
+ * (MappedGCodeFileReader) or any stream or channel (ChannelGCodeLineReader).
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public interface GCodeLineReader extends Closeable
+{
+    // points line at the next line of the input, returns false at the end of the input
+    // the line is only valid until the next call
+    boolean readLine(GCodeLine line) throws IOException;
+
+    // number of bytes of the input consumed so far
+    long getPosition();
+
+} // GCodeLineReader interface
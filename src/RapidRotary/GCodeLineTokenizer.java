@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.util.Arrays;
+
+/**
+ * Single pass, character level tokenizer for one line of G-code.
+ *
+ * Words (a letter followed by a number, e.g. "X0.2") are located by their
+ * offsets into the line - no substrings are created.  Packed words such as
+ * "G1X0.2Y0.1" are split into separate words.  A token that starts with a
+ * letter is always a word: if what follows the letter is not a simple number
+ * (e.g. "X1,5" or "Xabc") the word runs to the next whitespace, and getValue
+ * reports the malformed number -- it is never skipped.  Anything else (e.g.
+ * '%' or "#1=2") is kept as a raw token, up to the next whitespace, so it can
+ * be copied to the output as is.
+ *
+ * The tokenizer is reused for every line, its arrays only grow when a line
+ * has more tokens than any line before it.  The tokens of a line can also be
+ * loaded as they were found before (beginLoad), with their parsed values.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class GCodeLineTokenizer
+{
+    private static final int INITIAL_CAPACITY = 16;
+
+    private CharSequence line;
+    private int lineLength;
+    private int tokenCount;
+    private int commentStart; // index of the '(' that starts the comment, -1 if there is no comment
+
+    // per token data (only the first tokenCount entries are valid)
+    private char[] letters = new char[INITIAL_CAPACITY]; // upper case word letter, 0 if the token is a raw (non word) token
+    private int[] tokenStarts = new int[INITIAL_CAPACITY];
+    private int[] valueStarts = new int[INITIAL_CAPACITY]; // first char after the letter
+    private int[] tokenEnds = new int[INITIAL_CAPACITY]; // exclusive
+    private double[] values = new double[INITIAL_CAPACITY]; // of each word once parsed (or loaded), NaN = not parsed yet
+
+    // break the line up into tokens, the comment (if any) is not tokenized
+    // returns the number of tokens found
+    public int tokenize(CharSequence lineIn)
+    {
+        line = lineIn;
+        lineLength = lineIn.length();
+        tokenCount = 0;
+        commentStart = -1;
+
+        int i = 0;
+        while (i < lineLength)
+        {
+            char c = line.charAt(i);
+
+            // skip white space between tokens
+            if (c <= ' ')
+            {
+                i++;
+                continue;
+            }
+
+            // if a '(' is found the rest of the line is a comment
+            if (c == '(')
+            {
+                commentStart = i;
+                break;
+            }
+
+            int tokenStart = i;
+            char letter = upperCaseLetter(c);
+            if (letter != 0)
+            {
+                // numeric span: optional sign, then digits and decimal point
+                int valueStart = i + 1;
+                int j = valueStart;
+                if (j < lineLength && (line.charAt(j) == '-' || line.charAt(j) == '+'))
+                {
+                    j++;
+                }
+                while (j < lineLength && (isDigit(line.charAt(j)) || line.charAt(j) == '.'))
+                {
+                    j++;
+                }
+
+                // a word ends at white space, a comment, or the letter of the next (packed) word
+                if (j <= valueStart || (j < lineLength && !isWordBoundary(line.charAt(j))))
+                {
+                    // not a simple number -- the word runs to the next white space or comment, getValue reports it
+                    j = rawTokenEnd(valueStart);
+                }
+                addToken(letter, tokenStart, valueStart, j);
+                i = j;
+                continue;
+            } // if starts with a letter
+
+            // not a word -- keep it as a raw token up to the next white space or comment
+            int j = rawTokenEnd(i + 1);
+            addToken((char) 0, tokenStart, tokenStart, j);
+            i = j;
+
+        } // while chars left in the line
+
+        return tokenCount;
+
+    } // tokenize
+
+    // instead of tokenize(): the tokens tokenize() found on lineIn before (see CompiledToolpath), add each with addLoadedToken
+    // and then endLoad
+    public void beginLoad(CharSequence lineIn)
+    {
+        line = lineIn;
+        lineLength = lineIn.length();
+        tokenCount = 0;
+        commentStart = -1;
+    } // beginLoad
+
+    // the tokens are loaded, commentStart is the index of the '(' that starts the comment (-1 if none)
+    public void endLoad(int commentStart)
+    {
+        this.commentStart = commentStart;
+    }
+
+    // value is the parsed number of a word (NaN for a raw token, or a word to parse from the line if needed)
+    public void addLoadedToken(char letter, int tokenStart, int tokenEnd, double value)
+    {
+        addToken(letter, tokenStart, (letter != 0) ? tokenStart + 1 : tokenStart, tokenEnd);
+        values[tokenCount - 1] = value;
+    } // addLoadedToken
+
+    // end of a token that runs up to the next white space or comment
+    private int rawTokenEnd(int from)
+    {
+        int j = from;
+        while (j < lineLength && line.charAt(j) > ' ' && line.charAt(j) != '(')
+        {
+            j++;
+        }
+        return j;
+    } // rawTokenEnd
+
+    private void addToken(char letter, int tokenStart, int valueStart, int tokenEnd)
+    {
+        if (tokenCount == letters.length)
+        {
+            int newCapacity = letters.length * 2;
+            letters = Arrays.copyOf(letters, newCapacity);
+            tokenStarts = Arrays.copyOf(tokenStarts, newCapacity);
+            valueStarts = Arrays.copyOf(valueStarts, newCapacity);
+            tokenEnds = Arrays.copyOf(tokenEnds, newCapacity);
+            values = Arrays.copyOf(values, newCapacity);
+        } // grow arrays
+
+        letters[tokenCount] = letter;
+        tokenStarts[tokenCount] = tokenStart;
+        valueStarts[tokenCount] = valueStart;
+        tokenEnds[tokenCount] = tokenEnd;
+        values[tokenCount] = Double.NaN;
+        tokenCount++;
+
+    } // addToken
+
+    private static boolean isDigit(char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWordBoundary(char c)
+    {
+        return c <= ' ' || c == '(' || upperCaseLetter(c) != 0;
+    }
+
+    // returns the upper case version of the letter, or 0 if c is not a letter
+    private static char upperCaseLetter(char c)
+    {
+        if (c >= 'A' && c <= 'Z')
+        {
+            return c;
+        }
+        if (c >= 'a' && c <= 'z')
+        {
+            return (char) (c - ('a' - 'A'));
+        }
+        return 0;
+    } // upperCaseLetter
+
+    public CharSequence getLine()
+    {
+        return line;
+    }
+
+    public int getTokenCount()
+    {
+        return tokenCount;
+    }
+
+    public int getCommentStart()
+    {
+        return commentStart;
+    }
+
+    public boolean hasComment()
+    {
+        return commentStart >= 0;
+    }
+
+    // upper case letter of a word token, 0 for a raw token
+    public char getLetter(int token)
+    {
+        return letters[token];
+    }
+
+    public int getTokenStart(int token)
+    {
+        return tokenStarts[token];
+    }
+
+    public int getTokenEnd(int token)
+    {
+        return tokenEnds[token];
+    }
+
+    public int getValueStart(int token)
+    {
+        return valueStarts[token];
+    }
+
+    public int getValueEnd(int token)
+    {
+        return tokenEnds[token];
+    }
+
+    // first character of the token (e.g. '%' for a raw percent sign token)
+    public char getFirstChar(int token)
+    {
+        return line.charAt(tokenStarts[token]);
+    }
+
+    // numeric value of a word, parsed straight from the line the first time (lineNumber is only used for error messages)
+    public double getValue(int token, int lineNumber) throws GCodeException
+    {
+        double value = values[token];
+        if (value != value) // (NaN: not parsed yet, or not a valid number -- then parsing it gives the error)
+        {
+            value = GCodeNumberParser.parseDouble(line, valueStarts[token], tokenEnds[token], lineNumber);
+            values[token] = value;
+        }
+        return value;
+    }
+
+    // creates a String of the whole token -- only use when the text is really needed
+    public String getTokenText(int token)
+    {
+        return line.subSequence(tokenStarts[token], tokenEnds[token]).toString();
+    }
+
+} // GCodeLineTokenizer class
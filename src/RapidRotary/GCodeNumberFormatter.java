@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Locale;
+
+/**
+ * Fixed precision formatting of the numbers written to the G-code (e.g. the
+ * inverse time F values), with 0 to 7 digits after the decimal point.
+ *
+ * The digits are written into a reused buffer, so formatting does not create
+ * any objects.  The value times 10^digits is computed exactly (as a double plus
+ * its rounding error) so the rounding decision is always right:
+ *  - HALF_UP gives the same result as String.format("%.Nf") (which rounds the
+ *    shortest decimal form of the double), values very close to a tie are left
+ *    to String.format itself
+ *  - HALF_EVEN rounds the exact value of the double, like BigDecimal
+ * Values too large for the fast path (or NaN / infinity) are also left to the
+ * JDK.  Values that must not be rounded (the G94 feed rate) use formatWordPlain.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class GCodeNumberFormatter
+{
+    public static final int MAX_DIGITS = 7;
+
+    private static final long[] POWERS_OF_TEN =
+    {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L
+    };
+    private static final double MAX_FAST_SCALED = 4503599627370496.0; // 2^52, above this the scaled value has no fraction bits
+    private static final double SPLITTER = 134217729.0; // 2^27 + 1, for the exact product
+
+    private final int digits;
+    private final RoundingMode roundingMode;
+    private final double scale; // 10^digits
+    private final String formatString; // for the JDK fallback
+    private final StringBuilder text = new StringBuilder(32); // reused output
+
+    public GCodeNumberFormatter(int digits, RoundingMode roundingMode)
+    {
+        if (digits < 0 || digits > MAX_DIGITS)
+        {
+            throw new IllegalArgumentException("Number of decimal digits must be 0 to " + MAX_DIGITS + ": " + digits);
+        }
+        if (roundingMode != RoundingMode.HALF_UP && roundingMode != RoundingMode.HALF_EVEN)
+        {
+            throw new IllegalArgumentException("Rounding mode must be HALF_UP or HALF_EVEN: " + roundingMode);
+        }
+        this.digits = digits;
+        this.roundingMode = roundingMode;
+        this.scale = POWERS_OF_TEN[digits];
+        this.formatString = "%." + digits + "f";
+    } // constructor
+
+    public int getDigits()
+    {
+        return digits;
+    }
+
+    public RoundingMode getRoundingMode()
+    {
+        return roundingMode;
+    }
+
+    // the value with exactly the number of digits after the decimal point
+    // the returned text is reused, it is only valid until the next call
+    public CharSequence format(double value)
+    {
+        text.setLength(0);
+        appendFixed(value);
+        return text;
+    } // format
+
+    // a G-code word, e.g. formatWord('F', 12.5) = "F12.50000" (5 digits)
+    public CharSequence formatWord(char letter, double value)
+    {
+        text.setLength(0);
+        text.append(letter);
+        appendFixed(value);
+        return text;
+    } // formatWord
+
+    // a G-code word with the value as given, not rounded to any precision (e.g. the G94 feed rate put back
+    // after inverse time), written like Double.toString but never in E notation, e.g. "F30.0", "F0.4"
+    public static String formatWordPlain(char letter, double value)
+    {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+        {
+            return letter + Double.toString(value);
+        }
+        return letter + BigDecimal.valueOf(value).toPlainString();
+    } // formatWordPlain
+
+    private void appendFixed(double value)
+    {
+        boolean negative = (Double.doubleToRawLongBits(value) < 0); // also -0.0, like String.format
+        double magnitude = Math.abs(value);
+
+        // scaled = hi + lo exactly (10^digits is exact and has at most 24 significant bits)
+        double hi = magnitude * scale;
+        if (!(hi < MAX_FAST_SCALED)) // also NaN
+        {
+            appendFallback(value);
+            return;
+        }
+        double lo = twoProductError(magnitude, scale, hi);
+
+        double whole = Math.floor(hi);
+        double halfDiff = (hi - whole) - 0.5; // exact, hi has fraction bits down to ulp(hi)
+
+        long rounded = (long) whole;
+        if (halfDiff == 0 && lo == 0)
+        {
+            // exact tie
+            if (roundingMode == RoundingMode.HALF_UP || (rounded & 1) != 0)
+            {
+                rounded++;
+            }
+        } // tie
+        else if (roundingMode == RoundingMode.HALF_UP && Math.abs(halfDiff) <= 2 * Math.ulp(hi))
+        {
+            // the shortest decimal form (which String.format rounds) could fall on the other side of the tie
+            appendFallback(value);
+            return;
+        }
+        else if (halfDiff > 0 || (halfDiff == 0 && lo > 0))
+        {
+            rounded++;
+        } // above the tie
+        // (below the tie rounds down)
+
+        // write the digits
+        if (negative)
+        {
+            text.append('-');
+        }
+        long power = POWERS_OF_TEN[digits];
+        text.append(rounded / power);
+        if (digits > 0)
+        {
+            text.append('.');
+            long fraction = rounded % power;
+            for (long p = power / 10; p > 0; p /= 10)
+            {
+                text.append((char) ('0' + (fraction / p) % 10));
+            }
+        }
+
+    } // appendFixed
+
+    // error of the product a*b that was rounded to p (Dekker, no fused multiply add needed)
+    private static double twoProductError(double a, double b, double p)
+    {
+        double t = SPLITTER * a;
+        double aHigh = t - (t - a);
+        double aLow = a - aHigh;
+        t = SPLITTER * b;
+        double bHigh = t - (t - b);
+        double bLow = b - bHigh;
+        return ((aHigh * bHigh - p) + aHigh * bLow + aLow * bHigh) + aLow * bLow;
+    } // twoProductError
+
+    // rare cases: very large numbers, NaN/infinity, and HALF_UP values very close to a tie
+    private void appendFallback(double value)
+    {
+        if (roundingMode == RoundingMode.HALF_EVEN && !Double.isNaN(value) && !Double.isInfinite(value))
+        {
+            if (Double.doubleToRawLongBits(value) < 0)
+            {
+                text.append('-');
+            }
+            text.append(new BigDecimal(Math.abs(value)).setScale(digits, RoundingMode.HALF_EVEN).toPlainString());
+        }
+        else
+        {
+            text.append(String.format(Locale.ROOT, formatString, value));
+        }
+    } // appendFallback
+
+} // GCodeNumberFormatter class
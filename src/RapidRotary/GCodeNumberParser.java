@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+/**
+ * Parses the numbers found in G-code words (e.g. the "-1.2345" of "X-1.2345")
+ * directly from the line, without creating a substring or a boxed value.
+ *
+ * Supported format: optional sign, digits, optional decimal point and fraction
+ * digits (no exponents).  Results are correctly rounded: numbers with up to 15
+ * significant digits and 22 fraction digits are converted exactly with one
+ * division, anything longer falls back to Double.parseDouble.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class GCodeNumberParser
+{
+    // the mantissa is exact in a double up to 15 digits, and these powers of ten are exact too
+    static final int MAX_FAST_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN =
+    {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private GCodeNumberParser()
+    {
+    }
+
+    // parse the number in line[start, end) -- line is the whole G-code line so start is also the column for error messages
+    public static double parseDouble(CharSequence line, int start, int end, int lineNumber) throws GCodeException
+    {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (line.charAt(i) == '-' || line.charAt(i) == '+'))
+        {
+            negative = (line.charAt(i) == '-');
+            i++;
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int fractionDigits = 0;
+        boolean anyDigits = false;
+        boolean decimalPointFound = false;
+
+        for (; i < end; i++)
+        {
+            char c = line.charAt(i);
+            if (c >= '0' && c <= '9')
+            {
+                anyDigits = true;
+                if (significantDigits <= MAX_FAST_DIGITS)
+                {
+                    mantissa = mantissa * 10 + (c - '0');
+                }
+                if (mantissa != 0)
+                {
+                    significantDigits++;
+                }
+                if (decimalPointFound)
+                {
+                    fractionDigits++;
+                }
+            } // digit
+            else if (c == '.' && !decimalPointFound)
+            {
+                decimalPointFound = true;
+            }
+            else
+            {
+                throw malformedNumber(line.subSequence(start, end).toString(), lineNumber, start + 1);
+            }
+        } // for each char
+
+        if (!anyDigits)
+        {
+            throw malformedNumber(line.subSequence(start, end).toString(), lineNumber, start + 1);
+        }
+
+        // too many digits to be exact, let the JDK do the (rare) hard cases
+        if (significantDigits > MAX_FAST_DIGITS || fractionDigits >= POWERS_OF_TEN.length)
+        {
+            return Double.parseDouble(line.subSequence(start, end).toString());
+        }
+
+        return toDouble(mantissa, fractionDigits, negative);
+
+    } // parseDouble
+
+    // the value of a number with the digits mantissa, fractionDigits of them after the decimal point -- the same as parseDouble
+    // gives for its text (at most MAX_FAST_DIGITS digits and 22 fraction digits)
+    static double toDouble(long mantissa, int fractionDigits, boolean negative)
+    {
+        double value = (fractionDigits == 0) ? (double) mantissa : (double) mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    private static GCodeException malformedNumber(String text, int lineNumber, int column)
+    {
+        return new GCodeException("Malformed number '" + text + "' (line: " + lineNumber + ", column: " + column + ")", lineNumber, column);
+    }
+
+} // GCodeNumberParser class
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.util.Arrays;
+
+/**
+ * Compact table of the words found on one line of G-code: one value and one
+ * presence bit per letter (if a letter is repeated the last value wins), plus
+ * the results of the movement and start/end of program checks.
+ *
+ * It is filled in a single pass over the line's words and then read by the
+ * feed, motion, coordinate and end of program handling.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class GCodeWordTable
+{
+    private final double[] values = new double[26]; // indexed by letter - 'A'
+    private int presentLetters; // bit (letter - 'A') is set if the letter is on the line
+
+    // movement: the first G0/1/2/3 or X/Y/Z/A word on the line decides what kind of move the line is
+    private boolean movementLine;
+    private boolean implicitMovement;
+    private int movementGCode; // 0,1,2,3 for an explicit move, -1 otherwise
+
+    // token index of each F word on the line (they may have to be removed from the line)
+    private int[] feedWordTokens = new int[4];
+    private int feedWordCount;
+
+    // start / end of program markers (token index in the line, -1 if not on the line)
+    private int percentSignToken;
+    private int programEndToken; // M2 or M30
+
+    public GCodeWordTable()
+    {
+        clear();
+    }
+
+    // reset before the next line
+    public void clear()
+    {
+        presentLetters = 0;
+        feedWordCount = 0;
+        movementLine = false;
+        implicitMovement = false;
+        movementGCode = -1;
+        percentSignToken = -1;
+        programEndToken = -1;
+    } // clear
+
+    public void set(char letter, double value)
+    {
+        values[letter - 'A'] = value;
+        presentLetters |= (1 << (letter - 'A'));
+    }
+
+    public boolean has(char letter)
+    {
+        return (presentLetters & (1 << (letter - 'A'))) != 0;
+    }
+
+    // value of the letter, only meaningful if has(letter) is true
+    public double get(char letter)
+    {
+        return values[letter - 'A'];
+    }
+
+    public void noteFeedWord(int token)
+    {
+        if (feedWordCount == feedWordTokens.length)
+        {
+            feedWordTokens = Arrays.copyOf(feedWordTokens, feedWordCount * 2);
+        }
+        feedWordTokens[feedWordCount++] = token;
+    } // noteFeedWord
+
+    // G0, G1, G2 or G3 found on the line
+    public void noteMovementGCode(int gCode)
+    {
+        if (!movementLine)
+        {
+            movementLine = true;
+            implicitMovement = false;
+            movementGCode = gCode;
+        }
+    } // noteMovementGCode
+
+    // X, Y, Z or A found on the line
+    public void noteAxisWord()
+    {
+        if (!movementLine)
+        {
+            movementLine = true;
+            implicitMovement = true;
+        }
+    } // noteAxisWord
+
+    public void notePercentSign(int token)
+    {
+        if (percentSignToken < 0)
+        {
+            percentSignToken = token;
+        }
+    }
+
+    public void noteProgramEnd(int token)
+    {
+        if (programEndToken < 0)
+        {
+            programEndToken = token;
+        }
+    }
+
+    public boolean isMovementLine()
+    {
+        return movementLine;
+    }
+
+    public boolean isImplicitMovement()
+    {
+        return implicitMovement;
+    }
+
+    public int getMovementGCode()
+    {
+        return movementGCode;
+    }
+
+    public int getFeedWordCount()
+    {
+        return feedWordCount;
+    }
+
+    public int getFeedWordToken(int index)
+    {
+        return feedWordTokens[index];
+    }
+
+    public int getPercentSignToken()
+    {
+        return percentSignToken;
+    }
+
+    public int getProgramEndToken()
+    {
+        return programEndToken;
+    }
+
+} // GCodeWordTable class
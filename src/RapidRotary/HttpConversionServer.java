@@ -0,0 +1,618 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP conversion service (the JDK's built in HTTP server, nothing else
+ * needed), so machines on the shop network can convert without the GUI:
+ *
+ *   java -cp RapidRotary.jar RapidRotary.HttpConversionServer --port 8093
+ *   curl --data-binary @part.ngc -o part_G93.ngc "http://converter:8093/convert?z=0.25&mode=each"
+ *
+ * POST /convert takes the G94 G-code as the request body and sends the G93
+ * G-code back as a chunked response while it is converted line by line, so
+ * the memory used doesn't grow with the size of the file.  The settings are
+ * query parameters: z (required), mode (all|each), units (in|mm), fdigits
+ * (0-7) and rounding (half-up|half-even), the same as the command line options.
+ *
+ * Once output has been sent the status can't change anymore: if the
+ * conversion fails after that (e.g. a G93 further down the file) the
+ * connection is closed without ending the chunked response, so the client
+ * sees an incomplete response instead of a short G-code file.  The output is
+ * sent in buffers of GCodeFileWriter.DEFAULT_BUFFER_SIZE, and a failed
+ * conversion doesn't send the buffer it was filling, so errors before the
+ * first buffer is full are sent as 400 (bad settings) or 422 (bad G-code)
+ * with the error text.
+ *
+ * At most --max-conversions run at once, a request waits up to --queue-timeout
+ * seconds for its turn and then gets 503.  A conversion that takes longer than
+ * --timeout seconds (e.g. a stalled upload) is stopped and its connection
+ * closed.  GET /metrics has the
+ * request counts and throughput as JSON.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class HttpConversionServer
+{
+    public static final int DEFAULT_PORT = 8093;
+    public static final int DEFAULT_QUEUE_TIMEOUT_SECONDS = 30;
+    public static final int DEFAULT_TIMEOUT_SECONDS = 600;
+
+    private static final int EXTRA_THREADS = 4; // for /metrics and the requests waiting for a turn
+
+    private static final String USAGE =
+            "Usage: java -cp RapidRotary.jar RapidRotary.HttpConversionServer [options]\n"
+            + "HTTP conversion service: POST G94 G-code to /convert?z=<offset>[&mode=all|each][&units=in|mm][&fdigits=0-7]\n"
+            + "[&rounding=half-up|half-even] and get the G93 G-code back.  GET /metrics for the counts and throughput.\n"
+            + "\n"
+            + "  -p, --port <port>             port to listen on (default " + DEFAULT_PORT + ")\n"
+            + "  -b, --bind <address>          address to listen on (default: all)\n"
+            + "  -c, --max-conversions <n>     conversions at once (default: the number of cores)\n"
+            + "      --queue-timeout <s>       seconds a request waits for its turn before a 503 (default " + DEFAULT_QUEUE_TIMEOUT_SECONDS + ")\n"
+            + "  -t, --timeout <s>             seconds a conversion may take, 0 = no limit (default " + DEFAULT_TIMEOUT_SECONDS + ")\n"
+            + "  -q, --quiet                   don't log each request on stderr\n"
+            + "  -h, --help                    show this help\n";
+
+    private final PrintStream out;
+    private final PrintStream err;
+
+    // settings from the arguments
+    private int port = DEFAULT_PORT;
+    private String bindAddress = null; // null = all
+    private int maxConversions = Runtime.getRuntime().availableProcessors();
+    private int queueTimeoutSeconds = DEFAULT_QUEUE_TIMEOUT_SECONDS;
+    private int timeoutSeconds = DEFAULT_TIMEOUT_SECONDS;
+    private boolean quiet = false;
+
+    // while running
+    private Semaphore conversionPermits;
+    private ScheduledExecutorService timeoutTimer;
+    private long startTime;
+
+    // metrics
+    private final AtomicLong requests = new AtomicLong(); // conversion requests
+    private final AtomicLong converted = new AtomicLong();
+    private final AtomicLong badRequests = new AtomicLong(); // 4xx
+    private final AtomicLong failed = new AtomicLong(); // G-code errors and broken connections
+    private final AtomicLong rejected = new AtomicLong(); // 503, no turn within the queue timeout
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong linesConverted = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong conversionNanos = new AtomicLong(); // total time of the conversions (they overlap)
+
+    public HttpConversionServer(PrintStream out, PrintStream err)
+    {
+        this.out = out;
+        this.err = err;
+    } // constructor
+
+    public static void main(String[] args)
+    {
+        int status = new HttpConversionServer(System.out, System.err).run(args);
+        if (status != BatchConverter.EXIT_OK)
+        {
+            System.exit(status);
+        }
+        // (otherwise the server threads keep running)
+    } // main
+
+    // start the server, returns the exit status (the server keeps running on its own threads)
+    public int run(String[] args)
+    {
+        try
+        {
+            if (!parseArguments(args))
+            {
+                out.print(USAGE);
+                return BatchConverter.EXIT_OK; // help
+            }
+        }
+        catch (BatchConverter.UsageException e)
+        {
+            err.println("ERROR: " + e.getMessage());
+            err.println("(use --help for the options)");
+            return BatchConverter.EXIT_USAGE;
+        }
+
+        HttpServer server;
+        try
+        {
+            InetSocketAddress address = (bindAddress != null) ? new InetSocketAddress(bindAddress, port) : new InetSocketAddress(port);
+            server = HttpServer.create(address, 0);
+        }
+        catch (IOException e)
+        {
+            err.println("ERROR: " + e.getMessage());
+            return BatchConverter.EXIT_FILES_FAILED;
+        }
+
+        conversionPermits = new Semaphore(maxConversions, true);
+        timeoutTimer = Executors.newSingleThreadScheduledExecutor();
+        startTime = System.nanoTime();
+
+        ExecutorService requestThreads = Executors.newFixedThreadPool(maxConversions + EXTRA_THREADS);
+        server.setExecutor(requestThreads);
+        server.createContext("/convert", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                handleConvert(exchange);
+            }
+        });
+        server.createContext("/metrics", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                handleMetrics(exchange);
+            }
+        });
+        server.createContext("/", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                sendText(exchange, exchange.getRequestURI().getPath().equals("/") ? 200 : 404, USAGE);
+            }
+        });
+        server.start();
+
+        out.println("RapidRotary " + GCodeConversionEngine.VERSION + " HTTP conversion service on "
+                + server.getAddress().getHostString() + ":" + server.getAddress().getPort()
+                + " (" + maxConversions + " conversions at once)");
+        out.flush();
+        return BatchConverter.EXIT_OK;
+
+    } // run
+
+    // returns false if only the help was asked for
+    private boolean parseArguments(String[] args) throws BatchConverter.UsageException
+    {
+        for (int i = 0; i < args.length; i++)
+        {
+            String arg = args[i];
+            switch (arg)
+            {
+                case "-h":
+                case "--help":
+                    return false;
+                case "-p":
+                case "--port":
+                    port = BatchConverter.parseInt(arg, BatchConverter.optionValue(args, ++i, arg), 0, 65535);
+                    break;
+                case "-b":
+                case "--bind":
+                    bindAddress = BatchConverter.optionValue(args, ++i, arg);
+                    break;
+                case "-c":
+                case "--max-conversions":
+                    maxConversions = BatchConverter.parseInt(arg, BatchConverter.optionValue(args, ++i, arg), 1, Integer.MAX_VALUE);
+                    break;
+                case "--queue-timeout":
+                    queueTimeoutSeconds = BatchConverter.parseInt(arg, BatchConverter.optionValue(args, ++i, arg), 0, Integer.MAX_VALUE);
+                    break;
+                case "-t":
+                case "--timeout":
+                    timeoutSeconds = BatchConverter.parseInt(arg, BatchConverter.optionValue(args, ++i, arg), 0, Integer.MAX_VALUE);
+                    break;
+                case "-q":
+                case "--quiet":
+                    quiet = true;
+                    break;
+                default:
+                    throw new BatchConverter.UsageException("unknown option " + arg);
+            } // switch on option
+        } // for each argument
+        return true;
+
+    } // parseArguments
+
+    // --- /convert ---
+
+    private void handleConvert(HttpExchange exchange) throws IOException
+    {
+        // (every response is closed when it is sent: an exception out of here instead breaks the connection)
+        if (!exchange.getRequestMethod().equals("POST"))
+        {
+            exchange.getResponseHeaders().set("Allow", "POST");
+            sendText(exchange, 405, "POST the G-code to convert\n");
+            return;
+        }
+        requests.incrementAndGet();
+
+        GCodeConversionSettings settings;
+        try
+        {
+            settings = settingsFromQuery(exchange.getRequestURI().getRawQuery());
+        }
+        catch (BatchConverter.UsageException e)
+        {
+            badRequests.incrementAndGet();
+            sendText(exchange, 400, "ERROR: " + e.getMessage() + "\n");
+            return;
+        }
+
+        // wait for a turn
+        waiting.incrementAndGet();
+        boolean haveTurn = false;
+        try
+        {
+            haveTurn = conversionPermits.tryAcquire(queueTimeoutSeconds, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            waiting.decrementAndGet();
+        }
+        if (!haveTurn)
+        {
+            rejected.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", Integer.toString(Math.max(1, queueTimeoutSeconds)));
+            sendText(exchange, 503, "ERROR: all " + maxConversions + " conversions are busy, try again later\n");
+            return;
+        }
+
+        active.incrementAndGet();
+        try
+        {
+            convert(exchange, settings);
+        }
+        finally
+        {
+            active.decrementAndGet();
+            conversionPermits.release();
+        }
+
+    } // handleConvert
+
+    private void convert(final HttpExchange exchange, GCodeConversionSettings settings) throws IOException
+    {
+        long conversionStart = System.nanoTime();
+        CountingInputStream in = new CountingInputStream(exchange.getRequestBody());
+        StreamingResponse response = new StreamingResponse(exchange);
+
+        // a conversion that takes too long is interrupted, this stops the reads and writes of the stream channels
+        final Thread conversionThread = Thread.currentThread();
+        final boolean[] timeoutHit = new boolean[1];
+        ScheduledFuture<?> timeout = null;
+        if (timeoutSeconds > 0)
+        {
+            timeout = timeoutTimer.schedule(new Runnable()
+            {
+                public void run()
+                {
+                    synchronized (timeoutHit)
+                    {
+                        timeoutHit[0] = true;
+                        conversionThread.interrupt();
+                    }
+                }
+            }, timeoutSeconds, TimeUnit.SECONDS);
+        }
+
+        GCodeConversionEngine engine = new GCodeConversionEngine(settings);
+        Exception error = null;
+        try
+        {
+            engine.convert(GCodeConversionInput.fromStream(in), GCodeConversionOutput.toStream(response));
+        }
+        catch (Exception e)
+        {
+            error = e;
+        }
+        finally
+        {
+            if (timeout != null)
+            {
+                synchronized (timeoutHit)
+                {
+                    timeout.cancel(false);
+                    Thread.interrupted(); // (clear it, this pool thread serves other requests next)
+                }
+            }
+        }
+
+        long elapsedNanos = System.nanoTime() - conversionStart;
+        GCodeConversionResult result = engine.getResult();
+        long lines = (result != null) ? result.getLinesProcessed() : 0;
+        linesConverted.addAndGet(lines);
+        bytesIn.addAndGet(in.count);
+        bytesOut.addAndGet(response.count);
+        conversionNanos.addAndGet(elapsedNanos);
+
+        String client = exchange.getRemoteAddress().getAddress().getHostAddress();
+        if (error == null)
+        {
+            response.finish();
+            exchange.close();
+            converted.incrementAndGet();
+            log(client + " converted " + lines + " lines in " + (elapsedNanos / 1000000) + " ms");
+            return;
+        }
+
+        String message = (error.getMessage() != null) ? error.getMessage() : error.toString();
+        if (timeoutHit[0])
+        {
+            timedOut.incrementAndGet();
+            message = "conversion took longer than " + timeoutSeconds + " s";
+        }
+        else
+        {
+            failed.incrementAndGet();
+        }
+        log(client + " failed after " + lines + " lines: " + message);
+
+        if (!response.started && !timeoutHit[0])
+        {
+            sendText(exchange, (error instanceof GCodeException) ? 422 : 400, "ERROR: " + message + "\n");
+            return;
+        }
+        // part of the output has been sent with a 200 status (or the interrupt closed the request stream)
+        // -- break the connection so the response isn't complete
+        throw new IOException("conversion stopped after the response started: " + message);
+
+    } // convert
+
+    // the settings from the query (z=0.25&mode=each...), with the same values as the command line options
+    private static GCodeConversionSettings settingsFromQuery(String rawQuery) throws BatchConverter.UsageException
+    {
+        Map<String, String> parameters = new HashMap<String, String>();
+        if (rawQuery != null && !rawQuery.isEmpty())
+        {
+            for (String pair : rawQuery.split("&"))
+            {
+                int equals = pair.indexOf('=');
+                String name = decode((equals >= 0) ? pair.substring(0, equals) : pair);
+                String value = decode((equals >= 0) ? pair.substring(equals + 1) : "");
+                parameters.put(name, value);
+            }
+        }
+
+        GCodeConversionSettings settings = new GCodeConversionSettings();
+        settings.setPipelined(false); // the upload and download are the slow part, and conversions run at the same time
+        settings.setParallelism(1, settings.getMinChunkSize()); // (only used for files anyway)
+        for (Map.Entry<String, String> parameter : parameters.entrySet())
+        {
+            String value = parameter.getValue();
+            switch (parameter.getKey())
+            {
+                case "z":
+                    settings.setZZeroOffset(BatchConverter.parseDouble("z", value));
+                    break;
+                case "mode":
+                    settings.setConversionMode(BatchConverter.parseConversionMode(value));
+                    break;
+                case "units":
+                    settings.setDistanceUnits(BatchConverter.parseDistanceUnits(value));
+                    break;
+                case "fdigits":
+                    settings.setFOutputPrecision(BatchConverter.parseInt("fdigits", value, 0, GCodeNumberFormatter.MAX_DIGITS));
+                    break;
+                case "rounding":
+                    settings.setFRoundingMode(BatchConverter.parseRoundingMode(value));
+                    break;
+                default:
+                    throw new BatchConverter.UsageException("unknown parameter " + parameter.getKey());
+            } // switch on parameter
+        } // for each parameter
+
+        if (!parameters.containsKey("z"))
+        {
+            throw new BatchConverter.UsageException("the Z-zero offset distance from the rotary axis is missing (z=): "
+                    + "use 0.0 for the center of the material or the radius of the material if touching off the top surface");
+        }
+        return settings;
+
+    } // settingsFromQuery
+
+    private static String decode(String s) throws BatchConverter.UsageException
+    {
+        try
+        {
+            return URLDecoder.decode(s, "UTF-8");
+        }
+        catch (UnsupportedEncodingException | IllegalArgumentException e)
+        {
+            throw new BatchConverter.UsageException("bad query parameter: " + s);
+        }
+    } // decode
+
+    // --- /metrics ---
+
+    private void handleMetrics(HttpExchange exchange) throws IOException
+    {
+        long uptimeNanos = System.nanoTime() - startTime;
+        long busyNanos = conversionNanos.get();
+        long lines = linesConverted.get();
+
+        JsonWriter json = new JsonWriter();
+        json.beginObject();
+        json.field("version", GCodeConversionEngine.VERSION);
+        json.field("uptimeSeconds", uptimeNanos / 1000000000L);
+        json.field("maxConversions", maxConversions);
+        json.field("activeConversions", active.get());
+        json.field("waitingRequests", waiting.get());
+
+        json.name("requests");
+        json.beginObject();
+        json.field("total", requests.get());
+        json.field("converted", converted.get());
+        json.field("badRequest", badRequests.get());
+        json.field("failed", failed.get());
+        json.field("timedOut", timedOut.get());
+        json.field("rejected", rejected.get());
+        json.endObject();
+
+        json.field("lines", lines);
+        json.field("bytesIn", bytesIn.get());
+        json.field("bytesOut", bytesOut.get());
+        json.field("conversionSeconds", busyNanos / 1000000000.0); // added up, more than the uptime when conversions overlap
+        json.field("linesPerSecond", (busyNanos > 0) ? Math.round(lines / (busyNanos / 1000000000.0)) : 0); // of one conversion
+        json.field("linesPerSecondOverall", (uptimeNanos > 0) ? Math.round(lines / (uptimeNanos / 1000000000.0)) : 0); // of the server
+        json.endObject();
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        byte[] body = (json.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream responseBody = exchange.getResponseBody();
+        responseBody.write(body);
+        exchange.close();
+
+    } // handleMetrics
+
+    // --- helpers ---
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException
+    {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    } // sendText
+
+    private void log(String message)
+    {
+        if (!quiet)
+        {
+            synchronized (err)
+            {
+                err.println(message);
+            }
+        }
+    } // log
+
+    // the request body, counting the bytes read
+    private static class CountingInputStream extends InputStream
+    {
+        private final InputStream in;
+        long count;
+
+        CountingInputStream(InputStream in)
+        {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = in.read();
+            if (b >= 0)
+            {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int n = in.read(b, off, len);
+            if (n > 0)
+            {
+                count += n;
+            }
+            return n;
+        }
+    } // CountingInputStream class
+
+    // the response body: the 200 status and chunked headers are only sent with the first output, so an
+    // error before that can still be sent with an error status
+    private static class StreamingResponse extends FilterOutputStream
+    {
+        private final HttpExchange exchange;
+        boolean started = false;
+        long count;
+
+        StreamingResponse(HttpExchange exchange)
+        {
+            super(null);
+            this.exchange = exchange;
+        }
+
+        private void start() throws IOException
+        {
+            if (!started)
+            {
+                started = true;
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=us-ascii");
+                exchange.sendResponseHeaders(200, 0); // 0 = chunked
+                out = exchange.getResponseBody();
+            }
+        } // start
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            start();
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            start();
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            if (started)
+            {
+                out.flush();
+            }
+        }
+
+        // the conversion is done: end the response (an empty output is sent too)
+        void finish() throws IOException
+        {
+            start();
+            out.close();
+        }
+    } // StreamingResponse class
+
+} // HttpConversionServer class
@@ -0,0 +1,640 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Converts a file again after it was changed (e.g. the CAM job was posted
+ * again after one toolpath was edited), converting only the parts of it that
+ * changed and copying the rest from the output of the last conversion.
+ *
+ * The input is split into chunks at line breaks chosen by its content (a gear
+ * rolling hash of the bytes before each line break), not by their offset, so
+ * an edit only changes the chunks around it: the chunks after it still start
+ * at the same lines.  Each line is converted the same by any converter in the
+ * same state (see GCodeLineConverter.getStateBytes), so a chunk whose bytes
+ * (SHA-256) and starting state are the same as a chunk of the last conversion
+ * converts to the same output -- that output is copied from the old output
+ * file (FileChannel.transferTo), and its statistics and messages (with their
+ * line numbers moved) are taken from the last conversion.  The other chunks
+ * are converted, so the time taken grows with the size of the edit, not the
+ * size of the file.  The chunk holding the start of the program is always
+ * converted, for a new time stamp in the header.
+ *
+ * What is needed for that -- the hash, starting and ending state, output size,
+ * statistics and messages of each chunk -- is kept in a hidden file next to
+ * the output file (.<output file name>.rrinc), saved after the output file is
+ * in place.  It is only used if it was made with the same settings and the
+ * output file is still the one it was saved with (same size and time), else
+ * the whole file is converted.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class IncrementalGCodeFileConverter
+{
+    public static final String MANIFEST_SUFFIX = ".rrinc";
+    static final int MIN_CHUNK_SIZE = 16 * 1024; // bytes
+    static final int MAX_CHUNK_SIZE = 1024 * 1024; // bytes (cut at the next line break)
+    private static final int BOUNDARY_BITS = 10; // a line break ends a chunk 1 time in 2^10 (about every 1000 lines)
+    private static final int SCAN_BUFFER_SIZE = 256 * 1024; // bytes
+    private static final int MAX_CHUNK_MESSAGES = 2048; // a chunk with more is always converted again
+    private static final int MAX_MESSAGE_LENGTH = 16 * 1024; // chars
+    private static final String MANIFEST_FORMAT = "RapidRotary incremental 1"; // change when the manifest or chunking changes
+
+    // the gear hash table: a fixed random number for each byte value (the same in every run, or no chunk would match)
+    private static final long[] GEAR = new long[256];
+    static
+    {
+        Random random = new Random(0x5261706964526FL);
+        for (int i = 0; i < GEAR.length; i++)
+        {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final Path outputFile; // the last conversion's output is read from here
+    private final Path manifestFile;
+    private final String settingsKey;
+
+    private List<ChunkRecord> chunks; // of this conversion, for saveManifest
+    private int chunksConverted;
+    private int chunksReused;
+    private long bytesReused;
+
+    // a chunk of the input file [start, end) and the SHA-256 of its bytes
+    private static class InputChunk
+    {
+        final long start;
+        final long end;
+        final byte[] hash;
+
+        InputChunk(long start, long end, byte[] hash)
+        {
+            this.start = start;
+            this.end = end;
+            this.hash = hash;
+        }
+    } // InputChunk class
+
+    // a message of a chunk, line is the line number in the chunk (0 = first) its text ended with (-1 = none)
+    private static class ChunkMessage
+    {
+        final int line;
+        final String text;
+
+        ChunkMessage(int line, String text)
+        {
+            this.line = line;
+            this.text = text;
+        }
+    } // ChunkMessage class
+
+    // a converted chunk, as kept in the manifest
+    private static class ChunkRecord
+    {
+        long inputLength;
+        int lineCount;
+        byte[] hash;
+        byte[] entryState; // GCodeLineConverter.getStateBytes at the start of the chunk
+        byte[] exitState; // and at its end
+        long outputOffset;
+        long outputLength;
+        boolean reusable; // false: always convert it (the program start and its time stamp, or too many messages)
+        byte[] statistics; // GCodeLineConverter.getStatisticsBytes of the chunk alone
+        List<ChunkMessage> messages = new ArrayList<ChunkMessage>(); // null if there were too many to keep
+
+        // the same chunk at another place in the output
+        ChunkRecord movedTo(long newOutputOffset)
+        {
+            ChunkRecord moved = new ChunkRecord();
+            moved.inputLength = inputLength;
+            moved.lineCount = lineCount;
+            moved.hash = hash;
+            moved.entryState = entryState;
+            moved.exitState = exitState;
+            moved.outputOffset = newOutputOffset;
+            moved.outputLength = outputLength;
+            moved.reusable = reusable;
+            moved.statistics = statistics;
+            moved.messages = messages;
+            return moved;
+        } // movedTo
+    } // ChunkRecord class
+
+    // passes a chunk's messages on, and keeps them with the line they were on for its record
+    private static class ChunkMessageRecorder implements GCodeConversionListener
+    {
+        private final ChunkRecord record;
+        private final GCodeLineConverter chunkConverter;
+        private final int startLine; // lines processed before the chunk
+        private final GCodeConversionListener target;
+
+        ChunkMessageRecorder(ChunkRecord record, GCodeLineConverter chunkConverter, GCodeConversionListener target)
+        {
+            this.record = record;
+            this.chunkConverter = chunkConverter;
+            this.startLine = chunkConverter.getLinesProcessed();
+            this.target = target;
+        }
+
+        public void message(String message)
+        {
+            target.message(message);
+            if (record.messages == null)
+            {
+                return;
+            }
+            if (record.messages.size() >= MAX_CHUNK_MESSAGES || message.length() > MAX_MESSAGE_LENGTH)
+            {
+                record.messages = null;
+                return;
+            }
+
+            // the messages about a line end with its number ("... Line =  1234"), which changes when lines before the chunk are added or removed
+            String lineNumber = Integer.toString(chunkConverter.getLinesProcessed() + 1);
+            int numberStart = message.length() - lineNumber.length();
+            if (message.endsWith(lineNumber) && (numberStart == 0 || !Character.isDigit(message.charAt(numberStart - 1))))
+            {
+                record.messages.add(new ChunkMessage(chunkConverter.getLinesProcessed() - startLine, message.substring(0, numberStart)));
+            }
+            else
+            {
+                record.messages.add(new ChunkMessage(-1, message));
+            }
+        } // message
+
+        public void progress(int percent)
+        {
+        }
+    } // ChunkMessageRecorder class
+
+    // outputFile is where the output ends up (it may have the output of the last conversion), settingsKey see ConversionCache.settingsKey
+    public IncrementalGCodeFileConverter(Path outputFile, String settingsKey)
+    {
+        this.outputFile = outputFile;
+        this.manifestFile = manifestFileFor(outputFile);
+        this.settingsKey = settingsKey;
+    } // constructor
+
+    // the hidden file next to the output file with what the next conversion can reuse
+    public static Path manifestFileFor(Path outputFile)
+    {
+        return outputFile.toAbsolutePath().resolveSibling("." + outputFile.getFileName() + MANIFEST_SUFFIX);
+    }
+
+    // convert inputFile into tempFile (which must exist and be empty), converter has the settings and ends up with the final
+    // state and total statistics -- call saveManifest() once tempFile is moved to the output file
+    public void convert(Path inputFile, Path tempFile, GCodeLineConverter converter, GCodeConversionListener listener) throws Exception
+    {
+        List<InputChunk> inputChunks = findChunks(inputFile);
+        long inputSize = inputChunks.isEmpty() ? 0 : inputChunks.get(inputChunks.size() - 1).end;
+        Map<ByteBuffer, List<ChunkRecord>> previousChunks = loadManifest();
+
+        chunks = null;
+        List<ChunkRecord> newChunks = new ArrayList<ChunkRecord>(inputChunks.size());
+        chunksConverted = 0;
+        chunksReused = 0;
+        bytesReused = 0;
+
+        GCodeLineConverter statisticsOfReused = converter.createWithSameSettings();
+        FileChannel previousOutput = previousChunks.isEmpty() ? null : FileChannel.open(outputFile, StandardOpenOption.READ);
+        FileChannel out = FileChannel.open(tempFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        MappedGCodeFileReader reader = null; // of the run of chunks being converted (null if none)
+        GCodeFileWriter writer = null;
+        try
+        {
+            long copyStart = -1; // pending run [copyStart, copyEnd) of the previous output to copy (copyStart < 0 if none)
+            long copyEnd = -1;
+            long outputSize = 0;
+            int lastProgress = 0;
+            GCodeLine line = new GCodeLine();
+
+            for (InputChunk chunk : inputChunks)
+            {
+                byte[] entryState = converter.getStateBytes();
+                ChunkRecord previous = findReusable(previousChunks, chunk, entryState);
+
+                if (previous != null)
+                {
+                    // --- unchanged: copy the output, statistics and messages of the last conversion ---
+                    if (writer != null)
+                    {
+                        writer.close(); // (first, it may still copy from the input file)
+                        writer = null;
+                        reader.close();
+                        reader = null;
+                    }
+                    if (copyStart >= 0 && copyEnd == previous.outputOffset)
+                    {
+                        copyEnd += previous.outputLength; // the next chunk of the old output too
+                    }
+                    else
+                    {
+                        copyRange(previousOutput, copyStart, copyEnd, out);
+                        copyStart = previous.outputOffset;
+                        copyEnd = copyStart + previous.outputLength;
+                    }
+
+                    int startLine = converter.getLinesProcessed();
+                    for (ChunkMessage message : previous.messages)
+                    {
+                        listener.message((message.line < 0) ? message.text : message.text + (startLine + message.line + 1));
+                    }
+                    converter.setState(previous.exitState, startLine + previous.lineCount);
+                    statisticsOfReused.setStatistics(previous.statistics);
+                    converter.addStatisticsFrom(statisticsOfReused);
+
+                    newChunks.add(previous.movedTo(outputSize));
+                    outputSize += previous.outputLength;
+                    chunksReused++;
+                    bytesReused += previous.inputLength;
+                } // reuse
+                else
+                {
+                    // --- changed (or new): convert it, the chunks converted one after the other share a reader and writer ---
+                    copyRange(previousOutput, copyStart, copyEnd, out);
+                    copyStart = -1;
+                    if (writer == null)
+                    {
+                        reader = new MappedGCodeFileReader(inputFile.toString(), chunk.start, -1, MappedGCodeFileReader.DEFAULT_WINDOW_SIZE);
+                        writer = new GCodeFileWriter(FileChannel.open(tempFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND), reader);
+                    }
+
+                    ChunkRecord record = new ChunkRecord();
+                    record.inputLength = chunk.end - chunk.start;
+                    record.hash = chunk.hash;
+                    record.entryState = entryState;
+
+                    GCodeLineConverter chunkConverter = converter.createWithSameSettings();
+                    chunkConverter.copyStateFrom(converter);
+                    chunkConverter.setListener(new ChunkMessageRecorder(record, chunkConverter, listener));
+                    chunkConverter.setOutput(writer);
+                    try
+                    {
+                        while (reader.getPosition() < chunk.end && reader.readLine(line))
+                        {
+                            chunkConverter.processInputLine(line);
+                        }
+                    }
+                    finally
+                    {
+                        // (after an error: the state and statistics up to it)
+                        converter.addStatisticsFrom(chunkConverter);
+                        record.lineCount = chunkConverter.getLinesProcessed() - converter.getLinesProcessed();
+                        record.reusable = record.messages != null
+                                && (converter.startProgramPercentSignFound || !chunkConverter.startProgramPercentSignFound);
+                        converter.copyStateFrom(chunkConverter);
+                    }
+                    writer.flush();
+
+                    record.exitState = converter.getStateBytes();
+                    record.statistics = chunkConverter.getStatisticsBytes();
+                    record.outputOffset = outputSize;
+                    record.outputLength = out.size() - outputSize;
+                    newChunks.add(record);
+                    outputSize += record.outputLength;
+                    chunksConverted++;
+                } // convert
+
+                lastProgress = reportProgress(listener, chunk.end, inputSize, lastProgress);
+            } // for each chunk
+
+            copyRange(previousOutput, copyStart, copyEnd, out);
+        }
+        finally
+        {
+            try
+            {
+                if (writer != null)
+                {
+                    writer.close();
+                }
+            }
+            finally
+            {
+                if (reader != null)
+                {
+                    reader.close();
+                }
+                out.close();
+                if (previousOutput != null)
+                {
+                    previousOutput.close();
+                }
+            }
+        } // finally
+
+        chunks = newChunks;
+        listener.message("- Incremental conversion: " + chunksConverted + " of " + newChunks.size() + " chunks converted, "
+                + String.format("%.1f of %.1f MB", bytesReused / (1024.0 * 1024), inputSize / (1024.0 * 1024))
+                + " of the input reused from the last conversion");
+
+    } // convert
+
+    // a chunk of the last conversion with the same bytes and starting state, or null
+    private static ChunkRecord findReusable(Map<ByteBuffer, List<ChunkRecord>> previousChunks, InputChunk chunk, byte[] entryState)
+    {
+        List<ChunkRecord> sameBytes = previousChunks.get(ByteBuffer.wrap(chunk.hash));
+        if (sameBytes != null)
+        {
+            for (ChunkRecord previous : sameBytes)
+            {
+                if (Arrays.equals(previous.entryState, entryState))
+                {
+                    return previous;
+                }
+            }
+        }
+        return null;
+    } // findReusable
+
+    // copy [start, end) of the previous output file to the end of out (nothing if start < 0)
+    private static void copyRange(FileChannel previousOutput, long start, long end, FileChannel out) throws IOException
+    {
+        long position = start;
+        while (start >= 0 && position < end)
+        {
+            long bytesCopied = previousOutput.transferTo(position, end - position, out);
+            if (bytesCopied <= 0)
+            {
+                throw new IOException("Output of the last conversion is shorter than expected: " + previousOutput.size() + " bytes");
+            }
+            position += bytesCopied;
+        }
+    } // copyRange
+
+    // split the input file into chunks at line breaks chosen by the bytes before them (so the same lines make the same chunks)
+    private static List<InputChunk> findChunks(Path inputFile) throws IOException
+    {
+        MessageDigest digest = newDigest();
+        List<InputChunk> inputChunks = new ArrayList<InputChunk>();
+        FileChannel channel = FileChannel.open(inputFile, StandardOpenOption.READ);
+        try
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+            byte[] bytes = buffer.array();
+            long chunkStart = 0;
+            long position = 0; // file offset of bytes[0]
+            long hash = 0;
+            int bytesRead;
+            while ((bytesRead = channel.read(buffer)) >= 0)
+            {
+                int segmentStart = 0; // of the current chunk in bytes
+                for (int i = 0; i < bytesRead; i++)
+                {
+                    byte b = bytes[i];
+                    hash = (hash << 1) + GEAR[b & 0xFF]; // the top bits depend on the last 64 bytes
+                    if (b == '\n')
+                    {
+                        long chunkSize = position + i + 1 - chunkStart;
+                        if ((chunkSize >= MIN_CHUNK_SIZE && (hash >>> (64 - BOUNDARY_BITS)) == 0) || chunkSize >= MAX_CHUNK_SIZE)
+                        {
+                            digest.update(bytes, segmentStart, i + 1 - segmentStart);
+                            chunkStart = position + i + 1;
+                            inputChunks.add(new InputChunk(chunkStart - chunkSize, chunkStart, digest.digest()));
+                            segmentStart = i + 1;
+                        }
+                    }
+                } // for each byte read
+                digest.update(bytes, segmentStart, bytesRead - segmentStart);
+                position += bytesRead;
+                buffer.clear();
+            } // while not at the end of the file
+
+            if (position > chunkStart)
+            {
+                inputChunks.add(new InputChunk(chunkStart, position, digest.digest())); // last line(s)
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+        return inputChunks;
+
+    } // findChunks
+
+    private static MessageDigest newDigest() throws IOException
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IOException(e); // (every Java has SHA-256)
+        }
+    } // newDigest
+
+    // the reusable chunks of the last conversion by their hash, none if there is no manifest or it doesn't fit the output file
+    private Map<ByteBuffer, List<ChunkRecord>> loadManifest()
+    {
+        Map<ByteBuffer, List<ChunkRecord>> previousChunks = new HashMap<ByteBuffer, List<ChunkRecord>>();
+        try
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifestFile)));
+            try
+            {
+                if (!in.readUTF().equals(MANIFEST_FORMAT) || !in.readUTF().equals(settingsKey))
+                {
+                    return previousChunks; // older version, or other settings
+                }
+                long outputSize = in.readLong();
+                long outputModified = in.readLong();
+                if (Files.size(outputFile) != outputSize || Files.getLastModifiedTime(outputFile).toMillis() != outputModified)
+                {
+                    return previousChunks; // the output file was changed since
+                }
+
+                int chunkCount = in.readInt();
+                long outputOffset = 0;
+                for (int i = 0; i < chunkCount; i++)
+                {
+                    ChunkRecord record = new ChunkRecord();
+                    record.inputLength = in.readLong();
+                    record.lineCount = in.readInt();
+                    record.hash = readBytes(in);
+                    record.entryState = readBytes(in);
+                    record.exitState = readBytes(in);
+                    record.outputOffset = outputOffset;
+                    record.outputLength = in.readLong();
+                    record.reusable = in.readBoolean();
+                    record.statistics = readBytes(in);
+                    int messageCount = in.readInt();
+                    for (int j = 0; j < messageCount; j++)
+                    {
+                        record.messages.add(new ChunkMessage(in.readInt(), in.readUTF()));
+                    }
+                    outputOffset += record.outputLength;
+
+                    if (record.reusable)
+                    {
+                        ByteBuffer key = ByteBuffer.wrap(record.hash);
+                        List<ChunkRecord> sameBytes = previousChunks.get(key);
+                        if (sameBytes == null)
+                        {
+                            sameBytes = new ArrayList<ChunkRecord>(1);
+                            previousChunks.put(key, sameBytes);
+                        }
+                        sameBytes.add(record);
+                    }
+                } // for each chunk
+
+                if (outputOffset != outputSize)
+                {
+                    previousChunks.clear();
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (NoSuchFileException e)
+        {
+            // not converted before (or not incrementally)
+        }
+        catch (IOException e)
+        {
+            previousChunks.clear(); // not readable, start over
+        }
+        return previousChunks;
+
+    } // loadManifest
+
+    // keep what the next conversion can reuse -- after the output of convert() was moved into place as the output file
+    public void saveManifest() throws IOException
+    {
+        if (chunks == null)
+        {
+            return; // not converted
+        }
+
+        Path tempFile = GCodeConversionOutput.createTempFileFor(manifestFile);
+        try
+        {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)));
+            try
+            {
+                out.writeUTF(MANIFEST_FORMAT);
+                out.writeUTF(settingsKey);
+                out.writeLong(Files.size(outputFile));
+                out.writeLong(Files.getLastModifiedTime(outputFile).toMillis());
+                out.writeInt(chunks.size());
+                for (ChunkRecord record : chunks)
+                {
+                    boolean keepMessages = record.reusable && record.messages != null;
+                    out.writeLong(record.inputLength);
+                    out.writeInt(record.lineCount);
+                    writeBytes(out, record.hash);
+                    writeBytes(out, record.entryState);
+                    writeBytes(out, record.exitState);
+                    out.writeLong(record.outputLength);
+                    out.writeBoolean(keepMessages);
+                    writeBytes(out, record.statistics);
+                    out.writeInt(keepMessages ? record.messages.size() : 0);
+                    if (keepMessages)
+                    {
+                        for (ChunkMessage message : record.messages)
+                        {
+                            out.writeInt(message.line);
+                            out.writeUTF(message.text);
+                        }
+                    }
+                } // for each chunk
+            }
+            finally
+            {
+                out.close();
+            }
+            GCodeConversionOutput.commitTempFile(tempFile, manifestFile, false);
+            tempFile = null;
+        }
+        finally
+        {
+            if (tempFile != null)
+            {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+
+    } // saveManifest
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException
+    {
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static int reportProgress(GCodeConversionListener listener, long bytesConverted, long fileSize, int lastProgress)
+    {
+        if (fileSize <= 0)
+        {
+            return lastProgress;
+        }
+        int progress = (int) Math.min(100, (bytesConverted * 100) / fileSize);
+        if (progress != lastProgress)
+        {
+            listener.progress(progress);
+        }
+        return progress;
+    } // reportProgress
+
+    // chunks of the input converted by the last convert()
+    public int getChunksConverted()
+    {
+        return chunksConverted;
+    }
+
+    // chunks of the input copied from the output of the conversion before
+    public int getChunksReused()
+    {
+        return chunksReused;
+    }
+
+    public long getBytesReused()
+    {
+        return bytesReused;
+    }
+
+} // IncrementalGCodeFileConverter class
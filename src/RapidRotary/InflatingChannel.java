@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads a decompressing InputStream (e.g. GZIPInputStream) on its own thread,
+ * so inflating the next part of the file happens while the lines already
+ * inflated are converted.
+ *
+ * The inflater thread fills fixed size chunks and hands them over in a
+ * SpscRingBuffer, the reading thread hands the empty chunks back in another
+ * one (so nothing is allocated after the start).  A chunk is a quarter of the
+ * ChannelGCodeLineReader buffer, so each refill of the line reader is a few
+ * chunk copies, and the chunks in flight keep about two reader buffers of
+ * inflated G-code ready.
+ *
+ * Closing the channel stops the inflater thread and closes the stream.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+class InflatingChannel implements ReadableByteChannel
+{
+    static final int CHUNK_SIZE = ChannelGCodeLineReader.DEFAULT_BUFFER_SIZE / 4; // bytes
+    static final int CHUNKS = 8; // must be a power of 2
+
+    private final InputStream in;
+    private final SpscRingBuffer<ByteBuffer> filledChunks = new SpscRingBuffer<ByteBuffer>(CHUNKS);
+    private final SpscRingBuffer<ByteBuffer> emptyChunks = new SpscRingBuffer<ByteBuffer>(CHUNKS);
+    private final Thread inflaterThread;
+    private volatile IOException error; // of the inflater thread, set before filledChunks is closed
+
+    private ByteBuffer current; // being read, null if none
+    private boolean open = true;
+
+    // in is read (and inflated) from now on, by the inflater thread
+    InflatingChannel(InputStream in)
+    {
+        this.in = in;
+        for (int i = 0; i < CHUNKS; i++)
+        {
+            emptyChunks.offer(ByteBuffer.allocate(CHUNK_SIZE));
+        }
+
+        inflaterThread = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                inflate();
+            }
+        }, "RapidRotary inflater");
+        inflaterThread.setDaemon(true);
+        inflaterThread.start();
+    } // constructor
+
+    // inflater thread: fill the empty chunks until the end of the stream (or an error, or the channel is closed)
+    private void inflate()
+    {
+        try
+        {
+            boolean endOfStream = false;
+            ByteBuffer chunk;
+            while (!endOfStream && (chunk = emptyChunks.take()) != null)
+            {
+                byte[] bytes = chunk.array();
+                int length = 0;
+                while (length < bytes.length)
+                {
+                    int bytesRead = in.read(bytes, length, bytes.length - length);
+                    if (bytesRead < 0)
+                    {
+                        endOfStream = true;
+                        break;
+                    }
+                    length += bytesRead;
+                } // fill the chunk
+
+                chunk.clear();
+                chunk.limit(length);
+                if (length > 0 && !filledChunks.put(chunk))
+                {
+                    break; // the channel was closed
+                }
+            } // while chunks to fill
+        }
+        catch (IOException e)
+        {
+            error = e;
+        }
+        catch (InterruptedException e)
+        {
+            // the channel was closed
+        }
+        finally
+        {
+            filledChunks.close(); // end of the stream
+        }
+    } // inflate
+
+    public int read(ByteBuffer dst) throws IOException
+    {
+        if (!open)
+        {
+            throw new ClosedChannelException();
+        }
+
+        while (current == null || !current.hasRemaining())
+        {
+            if (current != null)
+            {
+                emptyChunks.offer(current); // (always room, there are only CHUNKS chunks)
+                current = null;
+            }
+            try
+            {
+                current = filledChunks.take();
+            }
+            catch (InterruptedException e)
+            {
+                close();
+                Thread.currentThread().interrupt();
+                throw new ClosedByInterruptException();
+            }
+            if (current == null)
+            {
+                if (error != null)
+                {
+                    throw new IOException("Error decompressing input: " + error.getMessage(), error);
+                }
+                return -1;
+            }
+        } // until there is an inflated chunk
+
+        int bytesCopied = Math.min(dst.remaining(), current.remaining());
+        int limit = current.limit();
+        current.limit(current.position() + bytesCopied);
+        dst.put(current);
+        current.limit(limit);
+        return bytesCopied;
+    } // read
+
+    public boolean isOpen()
+    {
+        return open;
+    }
+
+    public void close() throws IOException
+    {
+        if (!open)
+        {
+            return;
+        }
+        open = false;
+
+        // stop the inflater thread, then the stream is only used here
+        emptyChunks.close();
+        filledChunks.close();
+        inflaterThread.interrupt();
+        boolean interrupted = false;
+        while (inflaterThread.isAlive())
+        {
+            try
+            {
+                inflaterThread.join();
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true; // (keep waiting, the stream may still be in use)
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+        in.close();
+    } // close
+
+} // InflatingChannel class
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.util.Arrays;
+
+/**
+ * Writes indented JSON text (e.g. the batch conversion summary) without any
+ * library: objects and arrays are opened and closed in order, and the commas
+ * and indentation are added as needed.  Compact text is all on one line (e.g.
+ * one reply per line from the conversion daemon).
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class JsonWriter
+{
+    private static final String INDENT = "  ";
+
+    private final boolean indented;
+    private final StringBuilder text = new StringBuilder();
+    private boolean[] hasElements = new boolean[8]; // for each open object / array: anything written in it yet?
+    private int depth = 0;
+    private boolean afterName = false; // a name was just written, its value comes next
+
+    public JsonWriter()
+    {
+        this(true);
+    }
+
+    // indented = false writes everything on one line
+    public JsonWriter(boolean indented)
+    {
+        this.indented = indented;
+    } // constructor
+
+    public void beginObject()
+    {
+        beginValue();
+        text.append('{');
+        open();
+    }
+
+    public void endObject()
+    {
+        close('}');
+    }
+
+    public void beginArray()
+    {
+        beginValue();
+        text.append('[');
+        open();
+    }
+
+    public void endArray()
+    {
+        close(']');
+    }
+
+    // the name of the next value in an object
+    public void name(String name)
+    {
+        beginValue();
+        appendString(name);
+        text.append(": ");
+        afterName = true;
+    } // name
+
+    public void value(String value)
+    {
+        beginValue();
+        if (value == null)
+        {
+            text.append("null");
+        }
+        else
+        {
+            appendString(value);
+        }
+    } // value
+
+    public void value(long value)
+    {
+        beginValue();
+        text.append(value);
+    }
+
+    // NaN and infinity (not allowed in JSON) are written as null
+    public void value(double value)
+    {
+        beginValue();
+        if (Double.isNaN(value) || Double.isInfinite(value))
+        {
+            text.append("null");
+        }
+        else
+        {
+            text.append(value);
+        }
+    } // value
+
+    public void value(boolean value)
+    {
+        beginValue();
+        text.append(value);
+    }
+
+    public void nullValue()
+    {
+        beginValue();
+        text.append("null");
+    }
+
+    // shortcuts for a name and its value
+    public void field(String name, String value)
+    {
+        name(name);
+        value(value);
+    }
+
+    public void field(String name, long value)
+    {
+        name(name);
+        value(value);
+    }
+
+    public void field(String name, double value)
+    {
+        name(name);
+        value(value);
+    }
+
+    public void field(String name, boolean value)
+    {
+        name(name);
+        value(value);
+    }
+
+    private void open()
+    {
+        if (depth == hasElements.length)
+        {
+            hasElements = Arrays.copyOf(hasElements, depth * 2);
+        }
+        hasElements[depth++] = false;
+    } // open
+
+    private void close(char bracket)
+    {
+        depth--;
+        if (hasElements[depth])
+        {
+            newLine();
+        }
+        text.append(bracket);
+    } // close
+
+    // comma and new line before an element of an object or array (not before the value after a name)
+    private void beginValue()
+    {
+        if (afterName)
+        {
+            afterName = false;
+            return;
+        }
+        if (depth > 0)
+        {
+            if (hasElements[depth - 1])
+            {
+                text.append(',');
+            }
+            hasElements[depth - 1] = true;
+            newLine();
+        }
+    } // beginValue
+
+    private void newLine()
+    {
+        if (!indented)
+        {
+            return;
+        }
+        text.append('\n');
+        for (int i = 0; i < depth; i++)
+        {
+            text.append(INDENT);
+        }
+    } // newLine
+
+    private void appendString(String s)
+    {
+        text.append('"');
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            switch (c)
+            {
+                case '"':
+                    text.append("\\\"");
+                    break;
+                case '\\':
+                    text.append("\\\\");
+                    break;
+                case '\n':
+                    text.append("\\n");
+                    break;
+                case '\r':
+                    text.append("\\r");
+                    break;
+                case '\t':
+                    text.append("\\t");
+                    break;
+                default:
+                    if (c < ' ')
+                    {
+                        text.append(String.format("\\u%04x", (int) c));
+                    }
+                    else
+                    {
+                        text.append(c);
+                    }
+                    break;
+            } // switch on char
+        } // for each char
+        text.append('"');
+    } // appendString
+
+    @Override
+    public String toString()
+    {
+        return text.toString();
+    }
+
+} // JsonWriter class
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Reads the lines of a G-code file straight out of memory mapped windows of
+ * the file (no char decoding and no String per line).  The file is mapped in
+ * windows so files larger than 2 GB work; when a line runs past the end of a
+ * window the next window is mapped starting at that line.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class MappedGCodeFileReader implements GCodeLineReader
+{
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024; // bytes
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final long endOffset; // lines are read up to here (the end of the file, or of a chunk of it)
+    private final int windowSize;
+
+    private MappedByteBuffer window;
+    private long windowStart; // file offset of the first byte in the window
+    private int windowLimit; // number of bytes mapped in the window
+    private int position; // start of the next line in the window
+
+    public MappedGCodeFileReader(String filePath) throws IOException
+    {
+        this(filePath, DEFAULT_WINDOW_SIZE);
+    }
+
+    public MappedGCodeFileReader(String filePath, int windowSize) throws IOException
+    {
+        this(filePath, 0, -1, windowSize);
+    }
+
+    // read only the lines in [startOffset, endOffset) of the file, both should be at the start of a line (endOffset -1 = end of file)
+    public MappedGCodeFileReader(String filePath, long startOffset, long endOffset, int windowSize) throws IOException
+    {
+        this.file = new RandomAccessFile(filePath, "r");
+        this.channel = file.getChannel();
+        this.fileSize = channel.size();
+        this.endOffset = (endOffset < 0) ? fileSize : Math.min(endOffset, fileSize);
+        this.windowSize = windowSize;
+
+        mapWindow(startOffset);
+
+    } // constructor
+
+    private void mapWindow(long start) throws IOException
+    {
+        windowStart = start;
+        windowLimit = (int) Math.min(windowSize, endOffset - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLimit);
+        position = 0;
+    } // mapWindow
+
+    // points line at the next line of the file, returns false at the end of the file
+    // the line is only valid until the next call
+    @Override
+    public boolean readLine(GCodeLine line) throws IOException
+    {
+        if (windowStart + position >= endOffset)
+        {
+            return false; // end of file (or chunk)
+        }
+
+        while (true)
+        {
+            // look for the end of this line in the current window (\n, \r\n, or a lone \r like BufferedReader.readLine)
+            for (int i = position; i < windowLimit; i++)
+            {
+                byte b = window.get(i);
+                if (b == '\n' || b == '\r')
+                {
+                    int terminatorLength = 1;
+                    if (b == '\r')
+                    {
+                        if (i + 1 == windowLimit && windowStart + windowLimit < endOffset)
+                        {
+                            break; // the byte after the \r is in the next window
+                        }
+                        if (i + 1 < windowLimit && window.get(i + 1) == '\n')
+                        {
+                            terminatorLength = 2;
+                        }
+                    }
+                    line.set(window, position, i - position, windowStart + position, terminatorLength);
+                    position = i + terminatorLength;
+                    return true;
+                }
+            } // for each byte left in the window
+
+            // last line of the file, without a line break
+            if (windowStart + windowLimit >= endOffset)
+            {
+                line.set(window, position, windowLimit - position, windowStart + position, 0);
+                position = windowLimit;
+                return true;
+            }
+
+            if (position == 0)
+            {
+                throw new IOException("Line longer than " + windowSize + " bytes at file offset " + windowStart);
+            }
+
+            // the line continues past the window -- map the next window starting at this line
+            mapWindow(windowStart + position);
+
+        } // until a full line is found
+
+    } // readLine
+
+    // copy the file bytes [from, to) into dest (which must have room for them)
+    public void copyTo(long from, long to, ByteBuffer dest) throws IOException
+    {
+        if (from >= windowStart && to <= windowStart + windowLimit)
+        {
+            // normally still in the mapped window
+            ByteBuffer bytes = window.duplicate();
+            bytes.limit((int) (to - windowStart));
+            bytes.position((int) (from - windowStart));
+            dest.put(bytes);
+        }
+        else
+        {
+            int oldLimit = dest.limit();
+            dest.limit(dest.position() + (int) (to - from));
+            long position = from;
+            while (dest.hasRemaining())
+            {
+                int bytesRead = channel.read(dest, position);
+                if (bytesRead < 0)
+                {
+                    throw new EOFException("Input file is shorter than expected (" + position + " bytes)");
+                }
+                position += bytesRead;
+            }
+            dest.limit(oldLimit);
+        }
+    } // copyTo
+
+    // send the file bytes starting at position directly to another channel, returns the number of bytes sent
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException
+    {
+        return channel.transferTo(position, count, target);
+    }
+
+    // number of bytes of the file consumed so far
+    @Override
+    public long getPosition()
+    {
+        return windowStart + position;
+    }
+
+    public long getFileSize()
+    {
+        return fileSize;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        window = null;
+        file.close();
+    } // close
+
+} // MappedGCodeFileReader class
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.util.List;
+import java.util.Locale;
+import javax.swing.AbstractListModel;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JList;
+
+/**
+ * The messages of the GUI's message area: a fixed size ring of the latest
+ * messages (the oldest are dropped), shown in a JList, so the memory used and
+ * the time to add a message stay the same however many messages a file has.
+ * The JList only renders the rows that are visible (use a fixed cell height,
+ * e.g. a prototype cell value, so it doesn't measure the others).
+ *
+ * Each message has a severity (from its text: ERROR, WARNING or anything else)
+ * and the input line it is about, if any.  The list can show only the
+ * messages of at least some severity, and find the first one about a line.
+ *
+ * Only used on the event thread, like any Swing model.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class MessageLogModel extends AbstractListModel<String>
+{
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_CAPACITY = 10000; // messages
+
+    public enum Severity
+    {
+        INFO, WARNING, ERROR
+    } // Severity enum
+
+    private static final Severity[] SEVERITIES = Severity.values();
+
+    // the messages, by sequence number mod capacity: [first, next) are kept
+    private final String[] messages;
+    private final byte[] severities;
+    private final long[] lineNumbers; // -1 = not about a line
+    private long first;
+    private long next;
+    private long dropped; // pushed out by newer messages
+
+    // the sequence numbers of the shown messages (at least minSeverity), oldest first
+    private final long[] shown;
+    private int shownStart;
+    private int shownCount;
+    private Severity minSeverity = Severity.INFO;
+
+    public MessageLogModel()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public MessageLogModel(int capacity)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        }
+        messages = new String[capacity];
+        severities = new byte[capacity];
+        lineNumbers = new long[capacity];
+        shown = new long[capacity];
+    } // constructor
+
+    public int getSize()
+    {
+        return shownCount;
+    }
+
+    public String getElementAt(int index)
+    {
+        return messages[slot(shownSequence(index))];
+    }
+
+    public Severity getSeverityAt(int index)
+    {
+        return SEVERITIES[severities[slot(shownSequence(index))]];
+    }
+
+    // the input line the message is about, -1 if none
+    public long getLineNumberAt(int index)
+    {
+        return lineNumbers[slot(shownSequence(index))];
+    }
+
+    // messages dropped to make room (since the last clear)
+    public long getDroppedCount()
+    {
+        return dropped;
+    }
+
+    public void add(String message)
+    {
+        evict(Math.max(0, (int) (next - first) + 1 - messages.length));
+        if (append(message))
+        {
+            fireIntervalAdded(this, shownCount - 1, shownCount - 1);
+        }
+    } // add
+
+    // add all of them, with one event (only the last capacity of them are kept)
+    public void addAll(List<String> newMessages)
+    {
+        int skipped = Math.max(0, newMessages.size() - messages.length);
+        dropped += skipped;
+        int count = newMessages.size() - skipped;
+
+        evict(Math.max(0, (int) (next - first) + count - messages.length));
+        int added = 0;
+        for (int i = skipped; i < newMessages.size(); i++)
+        {
+            if (append(newMessages.get(i)))
+            {
+                added++;
+            }
+        }
+        if (added > 0)
+        {
+            fireIntervalAdded(this, shownCount - added, shownCount - 1);
+        }
+    } // addAll
+
+    public void clear()
+    {
+        int oldCount = shownCount;
+        for (long sequence = first; sequence < next; sequence++)
+        {
+            messages[slot(sequence)] = null;
+        }
+        first = next;
+        dropped = 0;
+        shownStart = 0;
+        shownCount = 0;
+        if (oldCount > 0)
+        {
+            fireIntervalRemoved(this, 0, oldCount - 1);
+        }
+    } // clear
+
+    public Severity getMinSeverity()
+    {
+        return minSeverity;
+    }
+
+    // show only the messages of at least this severity
+    public void setMinSeverity(Severity severity)
+    {
+        if (severity == minSeverity)
+        {
+            return;
+        }
+        int oldCount = shownCount;
+        minSeverity = severity;
+        shownStart = 0;
+        shownCount = 0;
+        for (long sequence = first; sequence < next; sequence++)
+        {
+            if (severities[slot(sequence)] >= minSeverity.ordinal())
+            {
+                shown[shownCount++] = sequence;
+            }
+        }
+        if (oldCount > 0)
+        {
+            fireIntervalRemoved(this, 0, oldCount - 1);
+        }
+        if (shownCount > 0)
+        {
+            fireIntervalAdded(this, 0, shownCount - 1);
+        }
+    } // setMinSeverity
+
+    // index of the first shown message about this input line or a later one, -1 if none
+    public int indexOfLine(long lineNumber)
+    {
+        for (int i = 0; i < shownCount; i++)
+        {
+            if (getLineNumberAt(i) >= lineNumber)
+            {
+                return i;
+            }
+        }
+        return -1;
+    } // indexOfLine
+
+    // the severity a message's text says it has
+    public static Severity severityOf(String message)
+    {
+        String text = message.toUpperCase(Locale.ROOT);
+        if (text.contains("ERROR"))
+        {
+            return Severity.ERROR;
+        }
+        if (text.contains("WARNING"))
+        {
+            return Severity.WARNING;
+        }
+        return Severity.INFO;
+    } // severityOf
+
+    // the input line a message is about: the number after the last "line" (e.g. "Line =  12", "on line: 12", "(line 12)"), -1 if none
+    public static long lineNumberOf(String message)
+    {
+        String text = message.toLowerCase(Locale.ROOT);
+        int i = text.lastIndexOf("line");
+        while (i >= 0)
+        {
+            int j = i + 4;
+            while (j < text.length() && (text.charAt(j) == ' ' || text.charAt(j) == '=' || text.charAt(j) == ':'))
+            {
+                j++;
+            }
+            int digitsStart = j;
+            while (j < text.length() && j - digitsStart < 18 && Character.isDigit(text.charAt(j)))
+            {
+                j++;
+            }
+            if (j > digitsStart)
+            {
+                return Long.parseLong(text.substring(digitsStart, j));
+            }
+            i = text.lastIndexOf("line", i - 1);
+        } // for each "line" from the end
+        return -1;
+    } // lineNumberOf
+
+    // drop the count oldest messages
+    private void evict(int count)
+    {
+        int removed = 0;
+        for (int n = 0; n < count; n++)
+        {
+            if (shownCount > 0 && shown[shownStart] == first)
+            {
+                shownStart = (shownStart + 1) % shown.length;
+                shownCount--;
+                removed++;
+            }
+            messages[slot(first)] = null;
+            first++;
+            dropped++;
+        }
+        if (removed > 0)
+        {
+            fireIntervalRemoved(this, 0, removed - 1);
+        }
+    } // evict
+
+    // there must be room, returns true if the message is shown
+    private boolean append(String message)
+    {
+        long sequence = next++;
+        int slot = slot(sequence);
+        Severity severity = severityOf(message);
+        messages[slot] = message;
+        severities[slot] = (byte) severity.ordinal();
+        lineNumbers[slot] = lineNumberOf(message);
+
+        if (severity.ordinal() < minSeverity.ordinal())
+        {
+            return false;
+        }
+        shown[(shownStart + shownCount) % shown.length] = sequence;
+        shownCount++;
+        return true;
+    } // append
+
+    private long shownSequence(int index)
+    {
+        if (index < 0 || index >= shownCount)
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + shownCount);
+        }
+        return shown[(shownStart + index) % shown.length];
+    } // shownSequence
+
+    private int slot(long sequence)
+    {
+        return (int) (sequence % messages.length);
+    }
+
+    /**
+     * Shows the errors in red and the warnings in orange, and the whole
+     * message as the tool tip (it may be wider than the list).
+     */
+    public static class Renderer extends DefaultListCellRenderer
+    {
+        private static final long serialVersionUID = 1L;
+
+        private static final Color WARNING_COLOR = new Color(0xB0, 0x60, 0x00);
+        private static final Color ERROR_COLOR = new Color(0xC0, 0x00, 0x00);
+
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus)
+        {
+            super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            setToolTipText(String.valueOf(value));
+            if (!isSelected && list.getModel() instanceof MessageLogModel && index >= 0 && index < list.getModel().getSize())
+            {
+                Severity severity = ((MessageLogModel) list.getModel()).getSeverityAt(index);
+                if (severity == Severity.ERROR)
+                {
+                    setForeground(ERROR_COLOR);
+                }
+                else if (severity == Severity.WARNING)
+                {
+                    setForeground(WARNING_COLOR);
+                }
+            }
+            return this;
+        } // getListCellRendererComponent
+
+    } // Renderer class
+
+} // MessageLogModel class
@@ -0,0 +1,531 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts a large G-code file in chunks on several threads, with the same
+ * output (and messages) as converting it line by line on one thread.
+ *
+ * The file is split at line breaks into chunks.  One quick sequential pass
+ * (a scan only GCodeLineConverter: no distances and no output) finds the
+ * state at the start of each chunk -- modal G codes, feed rate, last position,
+ * start/end of program -- and each chunk is handed to the fork-join pool as
+ * soon as its starting state is known.  The chunks are written straight into
+ * the output file: the first chunk not written yet writes at its place in the
+ * file as it is converted, the chunks after it are kept in memory until it is
+ * done (so the scan only gets a few chunks ahead of the output, and the chunks
+ * are at most MAX_CHUNK_SIZE).  The statistics of the chunks are added
+ * together, and the messages of each chunk are published in order.
+ *
+ * If a chunk has an error, the error of the first chunk (in file order) with
+ * one is reported, after the messages before it -- the same as the sequential
+ * conversion would report.
+ *
+ * With a compiled toolpath of the file (see CompiledToolpath) the chunks are
+ * its segments, and the tokens of the lines are read from it.  Otherwise a
+ * CompiledToolpath.Builder can record the toolpath of each chunk as it is
+ * converted.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class ParallelGCodeFileConverter
+{
+    public static final long DEFAULT_MIN_CHUNK_SIZE = 8L * 1024 * 1024; // bytes
+    private static final long MAX_CHUNK_SIZE = 16L * 1024 * 1024; // (unless the minimum is larger) bytes
+    private static final int CHUNKS_PER_THREAD = 4; // a few chunks per thread keeps all the threads busy to the end
+    private static final int CHUNKS_AHEAD_PER_THREAD = 2; // chunks converted ahead of the output (in memory)
+    private static final int MEMORY_BLOCK_SIZE = 1024 * 1024; // bytes of a chunk's output kept in memory
+    private static final int PROGRESS_CHECK_LINES = 4096; // must be a power of 2
+    private static final long PROGRESS_WAIT_MS = 100;
+
+    private final int threads;
+    private final long minChunkSize;
+
+    public ParallelGCodeFileConverter(int threads, long minChunkSize)
+    {
+        this.threads = Math.max(1, threads);
+        this.minChunkSize = Math.max(1, minChunkSize);
+    } // constructor
+
+    // one chunk of the input file [start, end) and its conversion
+    private static class Chunk
+    {
+        final long start;
+        final long end;
+        final GCodeLineConverter converter;
+        final List<String> messages = new ArrayList<String>();
+        final ChunkOutput output;
+        final CompiledToolpath.SegmentReader tokens; // of the lines, from the compiled toolpath (null = tokenize the text)
+        final CompiledToolpath.SegmentRecorder recorder; // records the toolpath of the chunk (null = don't)
+        ForkJoinTask<Void> task;
+
+        Chunk(long start, long end, GCodeLineConverter converter, FileChannel out, CompiledToolpath.SegmentReader tokens,
+                CompiledToolpath.SegmentRecorder recorder)
+        {
+            this.start = start;
+            this.end = end;
+            this.converter = converter;
+            this.output = new ChunkOutput(out);
+            this.tokens = tokens;
+            this.recorder = recorder;
+        }
+    } // Chunk class
+
+    // the output of one chunk: kept in memory until all the chunks before it are written,
+    // then (and from then on) written at its place in the output file
+    private static class ChunkOutput implements WritableByteChannel
+    {
+        private final FileChannel out;
+        private final List<ByteBuffer> blocks = new ArrayList<ByteBuffer>(); // kept in memory (the last one is being filled)
+        private long position = -1; // in the output file of the next byte, -1 while the chunk is kept in memory
+        private boolean open = true;
+
+        ChunkOutput(FileChannel out)
+        {
+            this.out = out;
+        }
+
+        @Override
+        public synchronized int write(ByteBuffer src) throws IOException
+        {
+            int length = src.remaining();
+            if (position >= 0)
+            {
+                while (src.hasRemaining())
+                {
+                    position += out.write(src, position);
+                }
+                return length;
+            }
+
+            while (src.hasRemaining())
+            {
+                ByteBuffer block = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+                if (block == null || !block.hasRemaining())
+                {
+                    block = ByteBuffer.allocate(MEMORY_BLOCK_SIZE);
+                    blocks.add(block);
+                }
+                int count = Math.min(src.remaining(), block.remaining());
+                ByteBuffer part = src.duplicate();
+                part.limit(part.position() + count);
+                block.put(part);
+                src.position(src.position() + count);
+            }
+            return length;
+        } // write
+
+        // the chunks before this one are written: write what was kept in memory, and from now on straight to the file
+        synchronized void startWritingAt(long outputPosition) throws IOException
+        {
+            position = outputPosition;
+            for (ByteBuffer block : blocks)
+            {
+                block.flip();
+                while (block.hasRemaining())
+                {
+                    position += out.write(block, position);
+                }
+            }
+            blocks.clear();
+        } // startWritingAt
+
+        // where the next chunk starts in the output file, once this one is written
+        synchronized long getPosition()
+        {
+            return position;
+        }
+
+        @Override
+        public synchronized boolean isOpen()
+        {
+            return open;
+        }
+
+        @Override
+        public synchronized void close()
+        {
+            open = false; // (the output file belongs to the converter)
+        }
+    } // ChunkOutput class
+
+    // convert inputFilePath into outputFile, converter has the settings and ends up with the final state and total statistics
+    public void convert(String inputFilePath, Path outputFile, GCodeLineConverter converter, GCodeConversionListener listener) throws Exception
+    {
+        convert(inputFilePath, outputFile, converter, listener, null, null);
+    }
+
+    // the same, with the tokens read from the compiled toolpath of the file (if not null),
+    // or recording its toolpath with toolpathBuilder (if not null)
+    public void convert(String inputFilePath, Path outputFile, GCodeLineConverter converter, GCodeConversionListener listener,
+            CompiledToolpath toolpath, CompiledToolpath.Builder toolpathBuilder) throws Exception
+    {
+        long[] boundaries = (toolpath != null) ? toolpath.getSegmentBoundaries() : findChunkBoundaries(inputFilePath);
+        long fileSize = boundaries[boundaries.length - 1];
+        AtomicLong bytesConverted = new AtomicLong();
+        int maxChunksAhead = CHUNKS_AHEAD_PER_THREAD * threads;
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        FileChannel out = FileChannel.open(outputFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try
+        {
+            int chunksDone = 0; // chunks written and their messages published, in order
+            int lastProgress = 0;
+
+            // --- scan the file, start the conversion of each chunk as soon as its starting state is known ---
+            GCodeLineConverter scanner = converter.createWithSameSettings();
+            scanner.setScanOnly(true);
+
+            MappedGCodeFileReader scanReader = new MappedGCodeFileReader(inputFilePath);
+            try
+            {
+                GCodeLine line = new GCodeLine();
+                CompiledToolpath.SegmentReader scanTokens = null;
+                int nextChunk = 0;
+                while (nextChunk < boundaries.length - 1)
+                {
+                    // start the chunk that begins here
+                    if (scanReader.getPosition() == boundaries[nextChunk])
+                    {
+                        // the chunks after the one being written are kept in memory, don't get too far ahead of it
+                        if (nextChunk - chunksDone >= maxChunksAhead)
+                        {
+                            lastProgress = finishChunk(chunks, chunksDone, converter, listener, bytesConverted, fileSize, lastProgress);
+                            chunksDone++;
+                        }
+
+                        CompiledToolpath.SegmentReader chunkTokens = null;
+                        CompiledToolpath.SegmentRecorder chunkRecorder = null;
+                        if (toolpath != null)
+                        {
+                            scanTokens = toolpath.openSegment(nextChunk);
+                            chunkTokens = toolpath.openSegment(nextChunk);
+                        }
+                        else if (toolpathBuilder != null)
+                        {
+                            chunkRecorder = toolpathBuilder.newSegment(boundaries[nextChunk]);
+                        }
+
+                        Chunk chunk = startChunk(pool, inputFilePath, out, boundaries[nextChunk], boundaries[nextChunk + 1], scanner, bytesConverted,
+                                chunkTokens, chunkRecorder);
+                        chunks.add(chunk);
+                        if (nextChunk == chunksDone)
+                        {
+                            chunk.output.startWritingAt((nextChunk == 0) ? 0 : chunks.get(nextChunk - 1).output.getPosition());
+                        }
+                        nextChunk++;
+                        continue;
+                    }
+
+                    if (!scanReader.readLine(line))
+                    {
+                        break;
+                    }
+
+                    try
+                    {
+                        if (scanTokens != null)
+                        {
+                            scanner.processCompiledLine(line, scanTokens);
+                        }
+                        else
+                        {
+                            scanner.processInputLine(line);
+                        }
+                    }
+                    catch (GCodeException e)
+                    {
+                        // no need to go on, the chunk this line is in will report the error (or one before it)
+                        break;
+                    }
+
+                    if ((scanner.getLinesProcessed() & (PROGRESS_CHECK_LINES - 1)) == 0)
+                    {
+                        lastProgress = reportProgress(listener, bytesConverted.get(), fileSize, lastProgress);
+                    }
+                } // while chunks left to start
+            }
+            finally
+            {
+                scanReader.close();
+            }
+
+            // --- wait for the rest of the chunks in order ---
+            for (; chunksDone < chunks.size(); chunksDone++)
+            {
+                lastProgress = finishChunk(chunks, chunksDone, converter, listener, bytesConverted, fileSize, lastProgress);
+            }
+
+            if (!chunks.isEmpty())
+            {
+                converter.copyStateFrom(chunks.get(chunks.size() - 1).converter);
+            }
+
+        } // try
+        finally
+        {
+            pool.shutdownNow();
+            for (Chunk chunk : chunks)
+            {
+                if (chunk.task != null && !chunk.task.isDone())
+                {
+                    try
+                    {
+                        chunk.task.join(); // (it may still write to the output file)
+                    }
+                    catch (RuntimeException ignore)
+                    {
+                    }
+                }
+            }
+            out.close();
+        } // finally
+
+    } // convert
+
+    // wait for chunk index (all the chunks before it are done): publish its messages, add up its statistics,
+    // and let the next chunk write to the output file after it -- returns the progress reported
+    private static int finishChunk(List<Chunk> chunks, int index, GCodeLineConverter converter, GCodeConversionListener listener,
+            AtomicLong bytesConverted, long fileSize, int lastProgress) throws Exception
+    {
+        Chunk chunk = chunks.get(index);
+        while (true)
+        {
+            try
+            {
+                chunk.task.get(PROGRESS_WAIT_MS, TimeUnit.MILLISECONDS);
+                break;
+            }
+            catch (TimeoutException e)
+            {
+                lastProgress = reportProgress(listener, bytesConverted.get(), fileSize, lastProgress);
+            }
+            catch (ExecutionException e)
+            {
+                // the first error in the file -- the messages and statistics up to it, then the error itself
+                publishMessages(chunk, listener);
+                converter.addStatisticsFrom(chunk.converter);
+                converter.copyStateFrom(chunk.converter);
+
+                Throwable cause = e.getCause();
+                while (cause != null && cause.getClass() == RuntimeException.class && cause.getCause() != null)
+                {
+                    cause = cause.getCause(); // the pool wraps checked exceptions
+                }
+                if (cause instanceof Exception)
+                {
+                    throw (Exception) cause;
+                }
+                throw e;
+            }
+        } // until done
+
+        publishMessages(chunk, listener);
+        converter.addStatisticsFrom(chunk.converter);
+
+        if (index + 1 < chunks.size())
+        {
+            chunks.get(index + 1).output.startWritingAt(chunk.output.getPosition());
+        }
+        return lastProgress;
+
+    } // finishChunk
+
+    private Chunk startChunk(ForkJoinPool pool, final String inputFilePath, FileChannel out, long start, long end,
+            GCodeLineConverter scanner, final AtomicLong bytesConverted, CompiledToolpath.SegmentReader tokens,
+            CompiledToolpath.SegmentRecorder recorder)
+    {
+        GCodeLineConverter chunkConverter = scanner.createWithSameSettings();
+        chunkConverter.copyStateFrom(scanner);
+        chunkConverter.setToolpathRecorder(recorder);
+
+        final Chunk chunk = new Chunk(start, end, chunkConverter, out, tokens, recorder);
+        chunkConverter.setListener(new GCodeConversionListener()
+        {
+            public void message(String message)
+            {
+                chunk.messages.add(message);
+            }
+
+            public void progress(int percent)
+            {
+            }
+        });
+
+        chunk.task = pool.submit(new Callable<Void>()
+        {
+            public Void call() throws Exception
+            {
+                convertChunk(inputFilePath, chunk, bytesConverted);
+                return null;
+            }
+        });
+        return chunk;
+
+    } // startChunk
+
+    private static void convertChunk(String inputFilePath, Chunk chunk, AtomicLong bytesConverted) throws IOException, GCodeException
+    {
+        MappedGCodeFileReader reader = new MappedGCodeFileReader(inputFilePath, chunk.start, chunk.end, MappedGCodeFileReader.DEFAULT_WINDOW_SIZE);
+        try
+        {
+            GCodeFileWriter writer = new GCodeFileWriter(chunk.output, reader);
+            try
+            {
+                chunk.converter.setOutput(writer);
+
+                GCodeLine line = new GCodeLine();
+                long lastPosition = chunk.start;
+                while (reader.readLine(line))
+                {
+                    if (chunk.tokens != null)
+                    {
+                        chunk.converter.processCompiledLine(line, chunk.tokens);
+                    }
+                    else
+                    {
+                        chunk.converter.processInputLine(line);
+                    }
+
+                    if ((chunk.converter.getLinesProcessed() & (PROGRESS_CHECK_LINES - 1)) == 0)
+                    {
+                        bytesConverted.addAndGet(reader.getPosition() - lastPosition);
+                        lastPosition = reader.getPosition();
+                    }
+                } // while lines in the chunk
+                bytesConverted.addAndGet(reader.getPosition() - lastPosition);
+
+                if (chunk.recorder != null)
+                {
+                    chunk.recorder.finish(); // (writes its last block on this thread)
+                }
+            }
+            finally
+            {
+                writer.close(); // (first, it may still copy from the input file)
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+    } // convertChunk
+
+    // chunk start offsets, each at the start of a line, followed by the file size
+    private long[] findChunkBoundaries(String inputFilePath) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(inputFilePath, "r");
+        try
+        {
+            FileChannel channel = file.getChannel();
+            long fileSize = channel.size();
+            long chunkCount = Math.max(1, Math.min((long) threads * CHUNKS_PER_THREAD, fileSize / minChunkSize));
+            long maxChunkSize = Math.max(minChunkSize, MAX_CHUNK_SIZE);
+            chunkCount = Math.max(chunkCount, (fileSize + maxChunkSize - 1) / maxChunkSize);
+            long chunkSize = fileSize / chunkCount;
+
+            List<Long> boundaries = new ArrayList<Long>();
+            boundaries.add(0L);
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            for (long i = 1; i < chunkCount; i++)
+            {
+                // the next line starts after the first line break at or after the target
+                long position = Math.max(i * chunkSize, boundaries.get(boundaries.size() - 1));
+                long lineStart = -1;
+                while (lineStart < 0 && position < fileSize)
+                {
+                    buffer.clear();
+                    int bytesRead = channel.read(buffer, position);
+                    if (bytesRead <= 0)
+                    {
+                        break;
+                    }
+                    for (int j = 0; j < bytesRead; j++)
+                    {
+                        if (buffer.get(j) == '\n')
+                        {
+                            lineStart = position + j + 1;
+                            break;
+                        }
+                    }
+                    position += bytesRead;
+                } // look for a line break
+
+                if (lineStart > boundaries.get(boundaries.size() - 1) && lineStart < fileSize)
+                {
+                    boundaries.add(lineStart);
+                }
+            } // for each chunk after the first
+
+            long[] result = new long[boundaries.size() + 1];
+            for (int i = 0; i < boundaries.size(); i++)
+            {
+                result[i] = boundaries.get(i);
+            }
+            result[boundaries.size()] = fileSize;
+            return result;
+        }
+        finally
+        {
+            file.close();
+        }
+
+    } // findChunkBoundaries
+
+    private static void publishMessages(Chunk chunk, GCodeConversionListener listener)
+    {
+        for (String message : chunk.messages)
+        {
+            listener.message(message);
+        }
+        chunk.messages.clear();
+    } // publishMessages
+
+    private static int reportProgress(GCodeConversionListener listener, long bytesConverted, long fileSize, int lastProgress)
+    {
+        if (fileSize <= 0)
+        {
+            return lastProgress;
+        }
+        int progress = (int) Math.min(100, (bytesConverted * 100) / fileSize);
+        if (progress != lastProgress)
+        {
+            listener.progress(progress);
+        }
+        return progress;
+    } // reportProgress
+
+} // ParallelGCodeFileConverter class
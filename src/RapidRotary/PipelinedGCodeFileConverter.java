@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Converts a G-code file in three stages on three threads, so reading the
+ * input, converting the lines and writing the output overlap (e.g. the CPU
+ * doesn't sit idle while a network drive is read, and the drive doesn't sit
+ * idle while lines are formatted):
+ *  - reader: copies batches of whole lines out of the input file
+ *  - converter (the calling thread): runs GCodeLineConverter on each line, the
+ *    output is collected into buffers
+ *  - writer: writes the full output buffers to the output file
+ *
+ * The stages hand batches and buffers to each other through SpscRingBuffers.
+ * There is a fixed number of each, passed back empty to the stage before once
+ * they are used, so a stage that gets ahead waits for a free one (backpressure)
+ * and the memory used stays the same whatever the file size.  When done, the
+ * time each stage was busy is published, the stage closest to 100% is the one
+ * holding up the conversion.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class PipelinedGCodeFileConverter
+{
+    public static final int DEFAULT_QUEUE_BATCHES = 4; // must be a power of 2
+    private static final int BATCH_SIZE = 256 * 1024; // bytes of input lines per batch
+    private static final int BATCH_MAX_LINES = 16 * 1024;
+
+    private final int queueBatches;
+
+    // the reader and writer stages' errors (null if none), checked once their queue is closed
+    private volatile Exception readerError;
+    private volatile Exception writerError;
+
+    // how long the reader and writer stages ran (set when they finish)
+    private volatile long readerNanos;
+    private volatile long writerNanos;
+
+    // queueBatches (a power of 2) = batches in flight between two stages
+    public PipelinedGCodeFileConverter(int queueBatches)
+    {
+        this.queueBatches = queueBatches;
+    } // constructor
+
+    // a batch of consecutive input lines: a copy of the file bytes [fileOffset, endOffset) and where each line is in it
+    private static class LineBatch
+    {
+        byte[] bytes = new byte[BATCH_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long fileOffset;
+        long endOffset;
+        int lineCount;
+        final int[] lineStarts = new int[BATCH_MAX_LINES];
+        final int[] lineLengths = new int[BATCH_MAX_LINES];
+        final byte[] terminatorLengths = new byte[BATCH_MAX_LINES];
+
+        void begin(long offset)
+        {
+            fileOffset = offset;
+            endOffset = offset;
+            lineCount = 0;
+        } // begin
+
+        // room for the line after the ones already in the batch? (the first line always fits, the bytes grow for it)
+        boolean hasRoomFor(GCodeLine line)
+        {
+            return lineCount < BATCH_MAX_LINES && lineEnd(line) - fileOffset <= bytes.length;
+        }
+
+        void add(GCodeLine line)
+        {
+            int end = (int) (lineEnd(line) - fileOffset);
+            if (end > bytes.length)
+            {
+                bytes = Arrays.copyOf(bytes, end); // a very long line
+                buffer = ByteBuffer.wrap(bytes);
+            }
+            lineStarts[lineCount] = (int) (line.getFileOffset() - fileOffset);
+            lineLengths[lineCount] = line.length();
+            terminatorLengths[lineCount] = (byte) line.getTerminatorLength();
+            lineCount++;
+            endOffset = lineEnd(line);
+        } // add
+
+        private static long lineEnd(GCodeLine line)
+        {
+            return line.getFileOffset() + line.length() + line.getTerminatorLength();
+        }
+    } // LineBatch class
+
+    // convert inputFilePath into outputFile, converter has the settings and ends up with the final state and statistics
+    public void convert(String inputFilePath, Path outputFile, GCodeLineConverter converter, GCodeConversionListener listener) throws Exception
+    {
+        // input batches go reader -> converter, and back empty
+        final SpscRingBuffer<LineBatch> filledInput = new SpscRingBuffer<LineBatch>(queueBatches);
+        final SpscRingBuffer<LineBatch> freeInput = new SpscRingBuffer<LineBatch>(queueBatches);
+        // output buffers go converter -> writer, and back empty
+        final SpscRingBuffer<ByteBuffer> filledOutput = new SpscRingBuffer<ByteBuffer>(queueBatches);
+        final SpscRingBuffer<ByteBuffer> freeOutput = new SpscRingBuffer<ByteBuffer>(queueBatches);
+        for (int i = 0; i < queueBatches; i++)
+        {
+            freeInput.offer(new LineBatch());
+            freeOutput.offer(ByteBuffer.allocateDirect(GCodeFileWriter.DEFAULT_BUFFER_SIZE));
+        }
+
+        long startTime = System.nanoTime();
+        final MappedGCodeFileReader reader = new MappedGCodeFileReader(inputFilePath);
+        long fileSize = reader.getFileSize();
+        Thread readerThread = null;
+        Thread writerThread = null;
+        try
+        {
+            final FileChannel outChannel = FileChannel.open(outputFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+            // --- writer stage ---
+            writerThread = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    writeBuffers(outChannel, filledOutput, freeOutput);
+                }
+            }, "RapidRotary writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+
+            // --- reader stage ---
+            readerThread = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    readBatches(reader, freeInput, filledInput);
+                }
+            }, "RapidRotary reader");
+            readerThread.setDaemon(true);
+            readerThread.start();
+
+            // --- converter stage (this thread), the output goes to the writer stage ---
+            GCodeFileWriter outputFileWriter = new GCodeFileWriter(new OutputPipe(filledOutput, freeOutput), null);
+            converter.setOutput(outputFileWriter);
+            try
+            {
+                GCodeLine line = new GCodeLine();
+                int lastProgress = 0;
+                LineBatch batch;
+                while ((batch = filledInput.take()) != null)
+                {
+                    for (int i = 0; i < batch.lineCount; i++)
+                    {
+                        line.set(batch.buffer, batch.lineStarts[i], batch.lineLengths[i], batch.fileOffset + batch.lineStarts[i], batch.terminatorLengths[i]);
+                        converter.processInputLine(line);
+                    }
+
+                    if (fileSize > 0)
+                    {
+                        int progress = (int) Math.min(100, (batch.endOffset * 100) / fileSize);
+                        if (progress != lastProgress)
+                        {
+                            listener.progress(progress);
+                            lastProgress = progress;
+                        }
+                    }
+
+                    freeInput.put(batch); // (the reader may have stopped already)
+                } // while batches from the reader
+
+                if (readerError != null)
+                {
+                    throw readerError;
+                }
+            }
+            finally
+            {
+                outputFileWriter.close(); // the rest of the output, then the end of the stream for the writer
+            }
+
+            writerThread.join();
+            if (writerError != null)
+            {
+                throw writerError;
+            }
+
+            long elapsedNanos = System.nanoTime() - startTime;
+            listener.message(stageSummary(elapsedNanos, filledInput, freeInput, filledOutput, freeOutput));
+
+        } // try
+        finally
+        {
+            // stop the other stages (if they haven't already), then release the input file
+            freeInput.close();
+            filledInput.close();
+            filledOutput.close();
+            freeOutput.close();
+            if (readerThread != null)
+            {
+                readerThread.join();
+            }
+            if (writerThread != null)
+            {
+                writerThread.join();
+            }
+            reader.close();
+        } // finally
+
+    } // convert
+
+    // reader stage: fill empty batches with lines until the end of the file
+    private void readBatches(MappedGCodeFileReader reader, SpscRingBuffer<LineBatch> freeInput, SpscRingBuffer<LineBatch> filledInput)
+    {
+        long startTime = System.nanoTime();
+        try
+        {
+            GCodeLine line = new GCodeLine();
+            boolean lineRead = reader.readLine(line);
+            while (lineRead)
+            {
+                LineBatch batch = freeInput.take();
+                if (batch == null)
+                {
+                    return; // the converter stopped
+                }
+
+                batch.begin(line.getFileOffset());
+                do
+                {
+                    batch.add(line);
+                    lineRead = reader.readLine(line);
+                } while (lineRead && batch.hasRoomFor(line));
+
+                // all the batch's bytes in one copy (the next line, already read, is not part of it)
+                batch.buffer.clear();
+                reader.copyTo(batch.fileOffset, batch.endOffset, batch.buffer);
+
+                if (!filledInput.put(batch))
+                {
+                    return; // the converter stopped
+                }
+            } // while lines left
+        }
+        catch (Exception e)
+        {
+            readerError = e;
+        }
+        finally
+        {
+            readerNanos = System.nanoTime() - startTime;
+            filledInput.close(); // end of the input (or an error)
+        }
+    } // readBatches
+
+    // writer stage: write the full buffers until the converter is done
+    private void writeBuffers(FileChannel outChannel, SpscRingBuffer<ByteBuffer> filledOutput, SpscRingBuffer<ByteBuffer> freeOutput)
+    {
+        long startTime = System.nanoTime();
+        try
+        {
+            try
+            {
+                ByteBuffer buffer;
+                while ((buffer = filledOutput.take()) != null)
+                {
+                    while (buffer.hasRemaining())
+                    {
+                        outChannel.write(buffer);
+                    }
+                    buffer.clear();
+                    freeOutput.put(buffer);
+                } // while buffers from the converter
+            }
+            finally
+            {
+                outChannel.close();
+            }
+        }
+        catch (Exception e)
+        {
+            writerError = e;
+            filledOutput.close(); // stop the converter
+            freeOutput.close();
+        }
+        finally
+        {
+            writerNanos = System.nanoTime() - startTime;
+        }
+    } // writeBuffers
+
+    // the converter stage's output: each full buffer of the GCodeFileWriter is copied into a free buffer and sent to the writer stage
+    private class OutputPipe implements WritableByteChannel
+    {
+        private final SpscRingBuffer<ByteBuffer> filledOutput;
+        private final SpscRingBuffer<ByteBuffer> freeOutput;
+
+        OutputPipe(SpscRingBuffer<ByteBuffer> filledOutput, SpscRingBuffer<ByteBuffer> freeOutput)
+        {
+            this.filledOutput = filledOutput;
+            this.freeOutput = freeOutput;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException
+        {
+            try
+            {
+                ByteBuffer buffer = freeOutput.take();
+                if (buffer == null)
+                {
+                    throw writerStopped();
+                }
+
+                int count = Math.min(src.remaining(), buffer.remaining());
+                int oldLimit = src.limit();
+                src.limit(src.position() + count);
+                buffer.put(src);
+                src.limit(oldLimit);
+                buffer.flip();
+
+                if (!filledOutput.put(buffer))
+                {
+                    throw writerStopped();
+                }
+                return count;
+            }
+            catch (InterruptedException e)
+            {
+                throw new InterruptedIOException("Conversion interrupted");
+            }
+        } // write
+
+        private IOException writerStopped()
+        {
+            Exception e = writerError;
+            return (e instanceof IOException) ? (IOException) e : new IOException("Output file writer stopped", e);
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return !filledOutput.isClosed();
+        }
+
+        @Override
+        public void close()
+        {
+            filledOutput.close(); // end of the output
+        }
+    } // OutputPipe class
+
+    // e.g. "Pipeline stages busy: reader 12%, converter 98%, writer 7% (queued: input 3.9 of 4, output 0.0 of 4)"
+    private String stageSummary(long elapsedNanos, SpscRingBuffer<LineBatch> filledInput, SpscRingBuffer<LineBatch> freeInput,
+            SpscRingBuffer<ByteBuffer> filledOutput, SpscRingBuffer<ByteBuffer> freeOutput)
+    {
+        // each stage is busy while it runs and isn't waiting on one of its queues
+        long readerWait = freeInput.getConsumerWaitNanos() + filledInput.getProducerWaitNanos();
+        long converterWait = filledInput.getConsumerWaitNanos() + freeOutput.getConsumerWaitNanos()
+                + freeInput.getProducerWaitNanos() + filledOutput.getProducerWaitNanos();
+        long writerWait = filledOutput.getConsumerWaitNanos() + freeOutput.getProducerWaitNanos();
+
+        return String.format("Pipeline stages busy: reader %d%%, converter %d%%, writer %d%% (queued: input %.1f of %d, output %.1f of %d)",
+                busyPercent(readerNanos - readerWait, elapsedNanos), busyPercent(elapsedNanos - converterWait, elapsedNanos),
+                busyPercent(writerNanos - writerWait, elapsedNanos),
+                filledInput.getAverageQueued(), filledInput.getCapacity(), filledOutput.getAverageQueued(), filledOutput.getCapacity());
+    } // stageSummary
+
+    private static int busyPercent(long busyNanos, long elapsedNanos)
+    {
+        if (elapsedNanos <= 0)
+        {
+            return 0;
+        }
+        return (int) Math.max(0, Math.min(100, (busyNanos * 100) / elapsedNanos));
+    } // busyPercent
+
+} // PipelinedGCodeFileConverter class
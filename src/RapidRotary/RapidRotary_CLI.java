@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Converts one file from the command line, quickly: only the conversion core
+ * is loaded (no AWT or Swing, no thread pools), so the JVM start up is most of
+ * the run time.  For a post-processor that calls the converter once per file.
+ *
+ *   java -cp RapidRotary.jar RapidRotary.RapidRotary_CLI -z 0.25 part.ngc
+ *
+ * The output file is named like the GUI names it (part.ngc -> part_G93.ngc)
+ * unless it is given after the input file.
+ *
+ * With "-" as the input it is a filter: standard input is converted to
+ * standard output (or the output file) while it is read, so the program
+ * reading the output can start on the first lines right away:
+ *
+ *   cat job.ngc | java -cp RapidRotary.jar RapidRotary.RapidRotary_CLI --z-offset 1.5 - > job_G93.ngc
+ *
+ * --flush sets when the converted lines are written out: after every line,
+ * every N lines or every N ms (and also whenever the converter waits for more
+ * input), only when the converter waits for more input (the default for
+ * standard output), or only when the buffer is full.  Errors go to stderr with
+ * a non-zero exit status; standard output then ends at the line before the
+ * error (an older output file is deleted).  Nothing is printed unless there is
+ * a warning or an error (on stderr), or -v is given.  Nothing here is set up in
+ * a static initializer, so start up is cheap, and even more so with a class
+ * data sharing archive of the classes a conversion uses:
+ *
+ *   java -XX:ArchiveClassesAtExit=rapidrotary.jsa -cp RapidRotary.jar RapidRotary.RapidRotary_CLI -z 0.25 part.ngc
+ *   java -XX:SharedArchiveFile=rapidrotary.jsa -cp RapidRotary.jar RapidRotary.RapidRotary_CLI -z 0.25 part.ngc
+ *
+ * Use RapidRotary.BatchConverter to convert many files in one run.
+ *
+ * Exit status: 0 converted (possibly with warnings), 1 the conversion failed,
+ * 2 bad arguments.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class RapidRotary_CLI
+{
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_FAILED = 1;
+    public static final int EXIT_USAGE = 2;
+
+    private static final String USAGE =
+            "Usage: java -cp RapidRotary.jar RapidRotary.RapidRotary_CLI [options] <input file|-> [<output file|->]\n"
+            + "Converts one G-code file from G94 to G93 inverse time (default output: <input>_G93.<ext>).\n"
+            + "With - as the input, converts standard input to standard output (or the output file) as it is read.\n"
+            + "\n"
+            + BatchConverter.SETTINGS_USAGE
+            + "      --flush <line|N|Nms|wait|end>  write the output: after every line, every N lines, every N ms,\n"
+            + "                              when waiting for input (default for stdout), or only when the buffer is full\n"
+            + "  -v, --verbose               also print the conversion messages\n"
+            + "  -h, --help                  show this help\n"
+            + "\n"
+            + "Exit status: 0 converted, 1 the conversion failed, 2 bad arguments.\n";
+
+    private final PrintStream out;
+    private final PrintStream err;
+
+    // settings from the arguments
+    private final GCodeConversionSettings settings = new GCodeConversionSettings();
+    private Path inputFile = null;
+    private Path outputFile = null; // null = the default name next to the input file
+    private boolean inputIsStdin = false;
+    private boolean outputIsStdout = false;
+    private String flushPolicy = null; // null = the default for the output
+    private boolean verbose = false;
+
+    public RapidRotary_CLI(PrintStream out, PrintStream err)
+    {
+        this.out = out;
+        this.err = err;
+    } // constructor
+
+    public static void main(String[] args)
+    {
+        System.exit(new RapidRotary_CLI(System.out, System.err).run(args));
+    }
+
+    // convert the file, returns the exit status
+    public int run(String[] args)
+    {
+        try
+        {
+            if (!parseArguments(args))
+            {
+                out.print(USAGE);
+                return EXIT_OK; // help
+            }
+        }
+        catch (BatchConverter.UsageException e)
+        {
+            err.println("ERROR: " + e.getMessage());
+            err.println("(use --help for the options)");
+            return EXIT_USAGE;
+        }
+
+        if (outputFile == null && !outputIsStdout)
+        {
+            outputFile = inputFile.resolveSibling(GCodeConversionOutput.defaultFileName(inputFile.getFileName().toString()));
+        }
+        String inputName = inputIsStdin ? "(stdin)" : inputFile.toString();
+
+        GCodeConversionEngine engine = new GCodeConversionEngine(settings);
+        if (verbose)
+        {
+            engine.setListener(new GCodeConversionListener()
+            {
+                public void message(String message)
+                {
+                    err.println(message);
+                }
+
+                public void progress(int percent)
+                {
+                }
+            });
+        }
+
+        try
+        {
+            GCodeConversionInput input;
+            if (inputIsStdin)
+            {
+                input = GCodeConversionInput.fromStream(new FileInputStream(FileDescriptor.in));
+            }
+            else
+            {
+                // a small file is converted on this thread, the reader and writer threads only pay off for big ones
+                settings.setPipelined(settings.isPipelined() && Files.size(inputFile) >= settings.getMinChunkSize());
+                input = GCodeConversionInput.fromPath(inputFile);
+            }
+
+            // (stdout unbuffered, the conversion has its own buffer and the flush policy)
+            engine.convert(input, outputIsStdout ? GCodeConversionOutput.toStream(new FileOutputStream(FileDescriptor.out))
+                    : GCodeConversionOutput.toPath(outputFile));
+        }
+        catch (Throwable e)
+        {
+            err.println("ERROR: " + GCodeException.locate(inputName, e) + ": " + ((e.getMessage() != null) ? e.getMessage() : e.toString()));
+
+            // delete an older output file so it isn't mistaken for this one! (the engine never leaves a partial one,
+            // what went to stdout is gone already)
+            if (outputFile != null)
+            {
+                try
+                {
+                    Files.deleteIfExists(outputFile);
+                }
+                catch (IOException x)
+                {
+                    err.println("Error deleting output file after error: " + x.getMessage());
+                }
+            }
+            return EXIT_FAILED;
+        }
+
+        GCodeConversionResult result = engine.getResult();
+        if (!result.isEndOfProgramFound() && !verbose) // (verbose already printed it)
+        {
+            err.println(inputName + ": " + GCodeConversionEngine.NO_END_OF_PROGRAM_WARNING.trim());
+        }
+        String hint = result.getConversionModeHint(settings.getConversionMode());
+        if (hint != null)
+        {
+            err.println("WARNING: " + inputName + ": " + hint);
+        }
+        return EXIT_OK;
+
+    } // run
+
+    // returns false if only the help was asked for
+    private boolean parseArguments(String[] args) throws BatchConverter.UsageException
+    {
+        boolean zZeroOffsetSet = false;
+        boolean optionsEnded = false;
+        for (int i = 0; i < args.length; i++)
+        {
+            String arg = args[i];
+            if (optionsEnded || !arg.startsWith("-") || arg.equals("-"))
+            {
+                if (inputFile == null && !inputIsStdin)
+                {
+                    inputIsStdin = arg.equals("-");
+                    inputFile = inputIsStdin ? null : Paths.get(arg);
+                }
+                else if (outputFile == null && !outputIsStdout)
+                {
+                    outputIsStdout = arg.equals("-");
+                    outputFile = outputIsStdout ? null : Paths.get(arg);
+                }
+                else
+                {
+                    throw new BatchConverter.UsageException("only one input and one output file can be given: " + arg);
+                }
+                continue;
+            }
+
+            switch (arg)
+            {
+                case "--":
+                    optionsEnded = true;
+                    break;
+                case "-h":
+                case "--help":
+                    return false;
+                case "--flush":
+                    flushPolicy = BatchConverter.optionValue(args, ++i, arg);
+                    break;
+                case "-v":
+                case "--verbose":
+                    verbose = true;
+                    break;
+                default:
+                    int last = BatchConverter.parseSettingsOption(args, i, settings);
+                    if (last < 0)
+                    {
+                        throw new BatchConverter.UsageException("unknown option " + arg);
+                    }
+                    zZeroOffsetSet |= BatchConverter.isZZeroOffsetOption(arg);
+                    i = last;
+                    break;
+            } // switch on option
+        } // for each argument
+
+        if (!zZeroOffsetSet)
+        {
+            throw new BatchConverter.UsageException(BatchConverter.MISSING_Z_ZERO_OFFSET);
+        }
+        if (inputFile == null && !inputIsStdin)
+        {
+            throw new BatchConverter.UsageException("no input file given");
+        }
+        if (!inputIsStdin && !Files.isRegularFile(inputFile))
+        {
+            throw new BatchConverter.UsageException("input file not found: " + inputFile);
+        }
+        outputIsStdout |= (inputIsStdin && outputFile == null);
+        setFlushPolicy((flushPolicy != null) ? flushPolicy : outputIsStdout ? "wait" : "end");
+        return true;
+
+    } // parseArguments
+
+    // line, N (lines), Nms, wait or end
+    private void setFlushPolicy(String policy) throws BatchConverter.UsageException
+    {
+        String value = policy.trim().toLowerCase(Locale.ROOT);
+        try
+        {
+            if (value.equals("line"))
+            {
+                settings.setFlushPolicy(1, 0, true);
+            }
+            else if (value.equals("wait"))
+            {
+                settings.setFlushPolicy(0, 0, true);
+            }
+            else if (value.equals("end"))
+            {
+                settings.setFlushPolicy(0, 0, false);
+            }
+            else if (value.endsWith("ms"))
+            {
+                settings.setFlushPolicy(0, Long.parseLong(value.substring(0, value.length() - 2).trim()), true);
+            }
+            else
+            {
+                settings.setFlushPolicy(Integer.parseInt(value), 0, true);
+            }
+        }
+        catch (IllegalArgumentException e) // (and NumberFormatException)
+        {
+            throw new BatchConverter.UsageException("--flush must be line, a number of lines, a number of ms (e.g. 100ms), wait or end: " + policy);
+        }
+    } // setFlushPolicy
+
+} // RapidRotary_CLI class
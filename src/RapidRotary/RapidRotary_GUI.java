@@ -29,6 +29,9 @@ import java.awt.Dimension;
 import java.awt.Point;
 import static java.awt.SystemColor.window;
 import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
 import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
@@ -36,8 +39,17 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import javax.imageio.ImageIO;
+import javax.swing.AbstractAction;
+import javax.swing.Action;
+import javax.swing.ButtonGroup;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
+import javax.swing.JPopupMenu;
+import javax.swing.JRadioButtonMenuItem;
+import javax.swing.KeyStroke;
+import javax.swing.ToolTipManager;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
 import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
@@ -48,18 +60,11 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 public class RapidRotary_GUI extends javax.swing.JFrame 
 {
     
-    public enum ConversionMode 
-    {
-       WRAP_ALL, WRAP_EACH_A_MOVE
-    } // ConversionMode enum
-    
-    public enum DistanceUnits 
-    {
-       INCHES, MM
-    } // DistanceUnits enum
-    
-    
-    String versionStr = "v1.2.0";
+    String versionStr = GCodeConversionEngine.VERSION;
+
+    // the message area: the latest messages only, and only the visible rows are drawn (the prototype sets the row size)
+    private final MessageLogModel messageLog = new MessageLogModel();
+    private static final String MESSAGE_PROTOTYPE = "(----------------------------------------------------------------------------------------------------------------------------)";
 
     /**
      * Creates new form G94toG93Converter
@@ -78,6 +83,8 @@ public class RapidRotary_GUI extends javax.swing.JFrame
         
         //set version text
         versionjLabel.setText(versionStr);
+
+        setUpMessageList();
         
         // set window icon
         try
@@ -116,6 +123,95 @@ public static File getSelectedFileWithExtension(JFileChooser c)
     return file;
 } //getSelectedFileWithExtension
 
+// message area: follows the new messages (unless one is selected), right click to filter them or go to a line
+private void setUpMessageList()
+{
+    ToolTipManager.sharedInstance().registerComponent(outputMessagesList); // (the whole message as the tool tip)
+
+    messageLog.addListDataListener(new ListDataListener()
+    {
+        public void intervalAdded(ListDataEvent e)
+        {
+            if (outputMessagesList.isSelectionEmpty())
+            {
+                outputMessagesList.ensureIndexIsVisible(e.getIndex1());
+            }
+        }
+
+        public void intervalRemoved(ListDataEvent e)
+        {
+        }
+
+        public void contentsChanged(ListDataEvent e)
+        {
+        }
+    });
+
+    JPopupMenu popupMenu = new JPopupMenu();
+    ButtonGroup severityGroup = new ButtonGroup();
+    String[] severityNames = { "Show all messages", "Show warnings and errors", "Show errors only" };
+    for (final MessageLogModel.Severity severity : MessageLogModel.Severity.values())
+    {
+        JRadioButtonMenuItem item = new JRadioButtonMenuItem(severityNames[severity.ordinal()], severity == messageLog.getMinSeverity());
+        item.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                messageLog.setMinSeverity(severity);
+            }
+        });
+        severityGroup.add(item);
+        popupMenu.add(item);
+    } // for each severity
+    popupMenu.addSeparator();
+
+    Action goToLineAction = new AbstractAction("Go to line...")
+    {
+        public void actionPerformed(ActionEvent e)
+        {
+            goToMessageForLine();
+        }
+    };
+    goToLineAction.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke(KeyEvent.VK_G, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
+    popupMenu.add(goToLineAction);
+    outputMessagesList.getInputMap().put((KeyStroke) goToLineAction.getValue(Action.ACCELERATOR_KEY), "goToLine");
+    outputMessagesList.getActionMap().put("goToLine", goToLineAction);
+
+    outputMessagesList.setComponentPopupMenu(popupMenu);
+
+} // setUpMessageList
+
+// select the first message about a line of the input file (or the next line with one)
+private void goToMessageForLine()
+{
+    String answer = JOptionPane.showInputDialog(this, "Input file line number:", "Go to line", JOptionPane.QUESTION_MESSAGE);
+    if (answer == null || answer.trim().isEmpty())
+    {
+        return;
+    }
+
+    long lineNumber;
+    try
+    {
+        lineNumber = Long.parseLong(answer.trim());
+    }
+    catch (NumberFormatException e)
+    {
+        JOptionPane.showMessageDialog(this, "Not a line number: " + answer, "Go to line", JOptionPane.ERROR_MESSAGE);
+        return;
+    }
+
+    int index = messageLog.indexOfLine(lineNumber);
+    if (index < 0)
+    {
+        JOptionPane.showMessageDialog(this, "No message about line " + lineNumber + " or after it is shown.", "Go to line", JOptionPane.INFORMATION_MESSAGE);
+        return;
+    }
+    outputMessagesList.setSelectedIndex(index);
+    outputMessagesList.ensureIndexIsVisible(index);
+
+} // goToMessageForLine
+
 public void conversionSwingWorkerFinishedCallback()
 {
     // re-enable buttons
@@ -152,7 +248,7 @@ public void conversionSwingWorkerFinishedCallback()
         jLabel3 = new javax.swing.JLabel();
         convertFileButton = new javax.swing.JButton();
         jScrollPane1 = new javax.swing.JScrollPane();
-        outputMessagesTextArea = new javax.swing.JTextArea();
+        outputMessagesList = new javax.swing.JList<>();
         versionjLabel = new javax.swing.JLabel();
         jLabel7 = new javax.swing.JLabel();
         conversionProgressBar = new javax.swing.JProgressBar();
@@ -212,10 +308,11 @@ public void conversionSwingWorkerFinishedCallback()
             }
         });
 
-        outputMessagesTextArea.setColumns(20);
-        outputMessagesTextArea.setFont(new java.awt.Font("Lucida Grande", 0, 11)); // NOI18N
-        outputMessagesTextArea.setRows(5);
-        jScrollPane1.setViewportView(outputMessagesTextArea);
+        outputMessagesList.setFont(new java.awt.Font("Lucida Grande", 0, 11)); // NOI18N
+        outputMessagesList.setModel(messageLog);
+        outputMessagesList.setCellRenderer(new MessageLogModel.Renderer());
+        outputMessagesList.setPrototypeCellValue(MESSAGE_PROTOTYPE);
+        jScrollPane1.setViewportView(outputMessagesList);
 
         versionjLabel.setHorizontalAlignment(javax.swing.SwingConstants.TRAILING);
         versionjLabel.setText("vX.X");
@@ -429,6 +526,7 @@ public void conversionSwingWorkerFinishedCallback()
         
         // setup file filters
         FileFilter ngcFileFilter = new FileNameExtensionFilter("G-code format (LinuxCNC)", "ngc");
+        fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("Compressed G-code (.ngc.gz, .zip)", "gz", "zip"));
         fileChooser.setFileFilter(ngcFileFilter);
         
         int result = fileChooser.showOpenDialog(this);
@@ -442,9 +540,7 @@ public void conversionSwingWorkerFinishedCallback()
             
             // also "auto" set the output file with a _G93 added before extension
             // add suffix to file
-            String name = selectedFile.getName();
-            int i = name.contains(".") ? name.lastIndexOf('.') : name.length();
-            String outDefaultFilePath = name.substring(0, i) + "_G93" + name.substring(i);
+            String outDefaultFilePath = GCodeConversionOutput.defaultFileName(selectedFile.getName());
             File outDefaultFile = new File(selectedFile.getParent(), outDefaultFilePath);
             outFilePathTextField.setText(outDefaultFile.getAbsolutePath());
             
@@ -471,6 +567,7 @@ public void conversionSwingWorkerFinishedCallback()
         
         // setup file filters
         FileFilter ngcFileFilter = new FileNameExtensionFilter("G-code format (LinuxCNC)", "ngc");
+        fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("Compressed G-code (.ngc.gz, .zip)", "gz", "zip"));
         fileChooser.setFileFilter(ngcFileFilter);
         
         int result = fileChooser.showSaveDialog(this);
@@ -504,7 +601,8 @@ public void conversionSwingWorkerFinishedCallback()
         unitsComboBox.setEnabled(false);
         
         
-        outputMessagesTextArea.setText(""); // clear message area
+        messageLog.clear(); // clear message area
+        outputMessagesList.clearSelection(); // (follow the new messages)
         
         
         // make sure files are specified
@@ -625,7 +723,7 @@ public void conversionSwingWorkerFinishedCallback()
         
         // start converting in a thread // SEG v1.1 added fPrecision
         GlobalFileConverterSwingWorker converter = new GlobalFileConverterSwingWorker(this.inFilePathTextField.getText(),
-                this.outFilePathTextField.getText(),zZeroOffset, conversionMode, distUnits, fPrecision, outputMessagesTextArea, this, versionStr);
+                this.outFilePathTextField.getText(),zZeroOffset, conversionMode, distUnits, fPrecision, messageLog, this, versionStr);
         // add listener to update progressbar
         converter.addPropertyChangeListener(new PropertyChangeListener() 
         {
@@ -734,7 +832,7 @@ public void conversionSwingWorkerFinishedCallback()
     private javax.swing.JScrollPane jScrollPane1;
     private javax.swing.JButton outFileBrowsejButton;
     private javax.swing.JTextField outFilePathTextField;
-    private javax.swing.JTextArea outputMessagesTextArea;
+    private javax.swing.JList<String> outputMessagesList;
     private javax.swing.JComboBox<String> unitsComboBox;
     private javax.swing.JLabel versionjLabel;
     private javax.swing.JTextField zZeroOffsetTextField;
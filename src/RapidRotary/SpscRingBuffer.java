@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, lock free queue between exactly one producer thread and exactly one
+ * consumer thread (e.g. two stages of the conversion pipeline).
+ *
+ * The producer only writes the tail and the consumer only writes the head, so
+ * no locks or compare-and-set are needed -- each side publishes its index with
+ * an ordered store.  put() blocks while the queue is full (backpressure on the
+ * producer) and take() blocks while it is empty, first yielding a few times and
+ * then parking briefly.  Either side can close the queue: the producer to mark
+ * the end of the stream, or either one to stop the other after an error.
+ *
+ * The time each side spent blocked and the average number of queued elements
+ * are kept, so the slow stage of a pipeline can be found.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class SpscRingBuffer<E>
+{
+    private static final int SPIN_TRIES = 100; // yields before parking
+    private static final long PARK_NANOS = 100000L; // 0.1 ms
+
+    private final Object[] elements;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // next element to take (written by the consumer)
+    private final AtomicLong tail = new AtomicLong(); // next free slot (written by the producer)
+    private volatile boolean closed;
+
+    // statistics -- each is only written by one side
+    private long producerWaitNanos;
+    private long consumerWaitNanos;
+    private long takeCount;
+    private long queuedSum; // elements waiting each time take() was called, for the average
+
+    // capacity must be a power of 2
+    public SpscRingBuffer(int capacity)
+    {
+        if (capacity < 1 || (capacity & (capacity - 1)) != 0)
+        {
+            throw new IllegalArgumentException("Capacity must be a power of 2: " + capacity);
+        }
+        elements = new Object[capacity];
+        mask = capacity - 1;
+    } // constructor
+
+    // producer: add e if there is room, returns false if the queue is full
+    public boolean offer(E e)
+    {
+        long t = tail.get();
+        if (t - head.get() == elements.length)
+        {
+            return false;
+        }
+        elements[(int) t & mask] = e;
+        tail.lazySet(t + 1); // publishes the element
+        return true;
+    } // offer
+
+    // consumer: the next element, or null if the queue is empty
+    @SuppressWarnings("unchecked")
+    public E poll()
+    {
+        long h = head.get();
+        if (h == tail.get())
+        {
+            return null;
+        }
+        int index = (int) h & mask;
+        E e = (E) elements[index];
+        elements[index] = null;
+        head.lazySet(h + 1); // frees the slot
+        return e;
+    } // poll
+
+    // producer: add e, waiting while the queue is full; returns false (e not added) if the queue was closed
+    public boolean put(E e) throws InterruptedException
+    {
+        if (closed)
+        {
+            return false;
+        }
+        if (offer(e))
+        {
+            return true;
+        }
+
+        long waitStart = System.nanoTime();
+        try
+        {
+            int spins = 0;
+            while (!offer(e))
+            {
+                if (closed)
+                {
+                    return false;
+                }
+                spins = backOff(spins);
+            }
+            return true;
+        }
+        finally
+        {
+            producerWaitNanos += System.nanoTime() - waitStart;
+        }
+    } // put
+
+    // consumer: the next element, waiting while the queue is empty; returns null once the queue is closed and empty
+    public E take() throws InterruptedException
+    {
+        takeCount++;
+        queuedSum += size();
+
+        E e = poll();
+        if (e != null)
+        {
+            return e;
+        }
+
+        long waitStart = System.nanoTime();
+        try
+        {
+            int spins = 0;
+            while ((e = poll()) == null)
+            {
+                if (closed)
+                {
+                    return poll(); // anything put just before the close
+                }
+                spins = backOff(spins);
+            }
+            return e;
+        }
+        finally
+        {
+            consumerWaitNanos += System.nanoTime() - waitStart;
+        }
+    } // take
+
+    private static int backOff(int spins) throws InterruptedException
+    {
+        if (Thread.interrupted())
+        {
+            throw new InterruptedException();
+        }
+        if (spins < SPIN_TRIES)
+        {
+            Thread.yield();
+            return spins + 1;
+        }
+        LockSupport.parkNanos(PARK_NANOS);
+        return spins;
+    } // backOff
+
+    // no more puts (end of stream, or stop after an error) -- the consumer can still take what is queued
+    public void close()
+    {
+        closed = true;
+    }
+
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    public int getCapacity()
+    {
+        return elements.length;
+    }
+
+    // elements in the queue right now (approximate while the other side is running)
+    public int size()
+    {
+        return (int) (tail.get() - head.get());
+    }
+
+    // total time put() waited for room (the consumer was the slow side)
+    public long getProducerWaitNanos()
+    {
+        return producerWaitNanos;
+    }
+
+    // total time take() waited for an element (the producer was the slow side)
+    public long getConsumerWaitNanos()
+    {
+        return consumerWaitNanos;
+    }
+
+    // average number of elements already waiting when take() was called (0 = the consumer always had to wait)
+    public double getAverageQueued()
+    {
+        return (takeCount > 0) ? (double) queuedSum / takeCount : 0;
+    }
+
+} // SpscRingBuffer class
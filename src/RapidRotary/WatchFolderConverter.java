@@ -0,0 +1,542 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watch folder mode: converts the G-code files that appear in (or change in)
+ * the watched directories, so nobody has to remember to run the converter.
+ *
+ *   java -cp RapidRotary.jar RapidRotary.WatchFolderConverter -z 0.25 -m each posted/
+ *
+ * A new or changed file is converted once its size and modification time
+ * have stopped changing for the --settle time (the CAM system may still be
+ * writing it), and all the events for a file in that time count as one
+ * (debouncing).  Settled files go to a bounded queue of the worker pool -- when
+ * it is full, they wait and are queued as soon as there is room.
+ *
+ * The output file (part.ngc -> part_G93.ngc, next to the input or in the
+ * --output-dir) is written to a temporary file first and then moved into
+ * place (by the engine), so nothing ever sees a half written output file.  A file whose
+ * contents (SHA-256) are the same as when it was last converted is skipped,
+ * e.g. when it is saved again unchanged.
+ *
+ * Each conversion is logged on stderr with its latency from when the file
+ * appeared to when its output was in place.  Stop with Ctrl-C.
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class WatchFolderConverter
+{
+    public static final long DEFAULT_SETTLE_MILLIS = 500;
+    public static final int DEFAULT_QUEUE_SIZE = 64;
+
+    private static final long POLL_MILLIS = 50; // how often waiting files are checked
+
+    private static final String USAGE =
+            "Usage: java -cp RapidRotary.jar RapidRotary.WatchFolderConverter [options] <directory>...\n"
+            + "Watches the directories and converts each G-code file that appears or changes, from G94 to G93 inverse time.\n"
+            + "\n"
+            + BatchConverter.SETTINGS_USAGE
+            + "  -o, --output-dir <dir>      write the output files here (default: next to each input file)\n"
+            + "  -e, --ext <ext,...>         extensions of the files to convert (default ngc, .gz of them too)\n"
+            + "  -j, --jobs <n>              files converted at once (default: the number of cores)\n"
+            + "      --settle <ms>           how long a file must stay unchanged before it is converted (default "
+            + DEFAULT_SETTLE_MILLIS + ")\n"
+            + "      --queue <n>             settled files waiting for a worker, at most (default " + DEFAULT_QUEUE_SIZE + ")\n"
+            + "      --existing              also convert the files already in the directories at start up\n"
+            + "  -h, --help                  show this help\n";
+
+    private final PrintStream out;
+    private final PrintStream err;
+
+    // settings from the arguments
+    private final GCodeConversionSettings settings = new GCodeConversionSettings();
+    private final List<Path> directories = new ArrayList<Path>();
+    private final Set<String> extensions = new HashSet<String>(Arrays.asList("ngc"));
+    private Path outputDirectory = null; // null = next to each input file
+    private int jobs = Runtime.getRuntime().availableProcessors();
+    private long settleMillis = DEFAULT_SETTLE_MILLIS;
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private boolean convertExisting = false;
+
+    // files seen but not queued yet (only used by the watching thread)
+    private final Map<Path, PendingFile> pendingFiles = new HashMap<Path, PendingFile>();
+
+    // shared with the workers
+    private final Set<Path> filesInWork = ConcurrentHashMap.newKeySet(); // queued or converting
+    private final Map<Path, String> convertedHashes = new ConcurrentHashMap<Path, String>(); // input file -> hash of what was converted
+
+    // a file waiting to settle
+    private static class PendingFile
+    {
+        final Path file;
+        final long firstSeenNanos; // when it appeared (or changed), for the latency
+        long size = -1;
+        long lastModified = -1;
+        long unchangedSinceNanos;
+
+        PendingFile(Path file, long now)
+        {
+            this.file = file;
+            this.firstSeenNanos = now;
+            this.unchangedSinceNanos = now;
+        }
+    } // PendingFile class
+
+    public WatchFolderConverter(PrintStream out, PrintStream err)
+    {
+        this.out = out;
+        this.err = err;
+    } // constructor
+
+    public static void main(String[] args)
+    {
+        System.exit(new WatchFolderConverter(System.out, System.err).run(args));
+    }
+
+    // watch until stopped, returns the exit status
+    public int run(String[] args)
+    {
+        try
+        {
+            if (!parseArguments(args))
+            {
+                out.print(USAGE);
+                return BatchConverter.EXIT_OK; // help
+            }
+        }
+        catch (BatchConverter.UsageException e)
+        {
+            err.println("ERROR: " + e.getMessage());
+            err.println("(use --help for the options)");
+            return BatchConverter.EXIT_USAGE;
+        }
+
+        // the workers use the cores, big files only get the cores left over
+        int threadsPerFile = Math.max(1, Runtime.getRuntime().availableProcessors() / jobs);
+        settings.setParallelism(threadsPerFile, settings.getMinChunkSize());
+        settings.setPipelined(threadsPerFile > 1);
+
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(jobs, jobs, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize));
+        WatchService watchService = null;
+        try
+        {
+            watchService = directories.get(0).getFileSystem().newWatchService();
+            Map<WatchKey, Path> watchedDirectories = new HashMap<WatchKey, Path>();
+            for (Path directory : directories)
+            {
+                WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                watchedDirectories.put(key, directory);
+                if (convertExisting)
+                {
+                    addFilesInDirectory(directory, System.nanoTime());
+                }
+            }
+            out.println("RapidRotary " + GCodeConversionEngine.VERSION + " watching " + directories + " (" + jobs + " jobs)");
+            out.flush();
+
+            watch(watchService, watchedDirectories, workers);
+            return BatchConverter.EXIT_OK;
+        }
+        catch (IOException e)
+        {
+            err.println("ERROR: " + e.getMessage());
+            return BatchConverter.EXIT_FILES_FAILED;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return BatchConverter.EXIT_OK;
+        }
+        finally
+        {
+            workers.shutdown();
+            if (watchService != null)
+            {
+                try
+                {
+                    watchService.close();
+                }
+                catch (IOException ignore)
+                {
+                }
+            }
+        } // finally
+
+    } // run
+
+    // returns false if only the help was asked for
+    private boolean parseArguments(String[] args) throws BatchConverter.UsageException
+    {
+        boolean zZeroOffsetSet = false;
+        boolean optionsEnded = false;
+        for (int i = 0; i < args.length; i++)
+        {
+            String arg = args[i];
+            if (optionsEnded || !arg.startsWith("-"))
+            {
+                Path directory = Paths.get(arg);
+                if (!Files.isDirectory(directory))
+                {
+                    throw new BatchConverter.UsageException("directory not found: " + arg);
+                }
+                directories.add(directory);
+                continue;
+            }
+
+            switch (arg)
+            {
+                case "--":
+                    optionsEnded = true;
+                    break;
+                case "-h":
+                case "--help":
+                    return false;
+                case "-o":
+                case "--output-dir":
+                    outputDirectory = Paths.get(BatchConverter.optionValue(args, ++i, arg));
+                    break;
+                case "-e":
+                case "--ext":
+                    extensions.clear();
+                    for (String ext : BatchConverter.optionValue(args, ++i, arg).split(","))
+                    {
+                        ext = ext.trim();
+                        extensions.add((ext.startsWith(".") ? ext.substring(1) : ext).toLowerCase(Locale.ROOT));
+                    }
+                    break;
+                case "-j":
+                case "--jobs":
+                    jobs = BatchConverter.parseInt(arg, BatchConverter.optionValue(args, ++i, arg), 1, Integer.MAX_VALUE);
+                    break;
+                case "--settle":
+                    settleMillis = BatchConverter.parseInt(arg, BatchConverter.optionValue(args, ++i, arg), 0, Integer.MAX_VALUE);
+                    break;
+                case "--queue":
+                    queueSize = BatchConverter.parseInt(arg, BatchConverter.optionValue(args, ++i, arg), 1, Integer.MAX_VALUE);
+                    break;
+                case "--existing":
+                    convertExisting = true;
+                    break;
+                default:
+                    int last = BatchConverter.parseSettingsOption(args, i, settings);
+                    if (last < 0)
+                    {
+                        throw new BatchConverter.UsageException("unknown option " + arg);
+                    }
+                    zZeroOffsetSet |= BatchConverter.isZZeroOffsetOption(arg);
+                    i = last;
+                    break;
+            } // switch on option
+        } // for each argument
+
+        if (!zZeroOffsetSet)
+        {
+            throw new BatchConverter.UsageException(BatchConverter.MISSING_Z_ZERO_OFFSET);
+        }
+        if (directories.isEmpty())
+        {
+            throw new BatchConverter.UsageException("no directories to watch given");
+        }
+        return true;
+
+    } // parseArguments
+
+    // --- watching ---
+
+    private void watch(WatchService watchService, Map<WatchKey, Path> watchedDirectories, ThreadPoolExecutor workers) throws InterruptedException
+    {
+        long settleNanos = TimeUnit.MILLISECONDS.toNanos(settleMillis);
+        while (true)
+        {
+            // wait for events, or only a short time if files are waiting to settle
+            WatchKey key = pendingFiles.isEmpty() ? watchService.take() : watchService.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            long now = System.nanoTime();
+            while (key != null)
+            {
+                Path directory = watchedDirectories.get(key);
+                for (WatchEvent<?> event : key.pollEvents())
+                {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+                    {
+                        // events were lost -- look at every file in the directory again
+                        addFilesInDirectory(directory, now);
+                    }
+                    else
+                    {
+                        Path file = directory.resolve((Path) event.context());
+                        if (isGCodeFile(file) && !pendingFiles.containsKey(file))
+                        {
+                            pendingFiles.put(file, new PendingFile(file, now));
+                        }
+                    }
+                } // for each event
+                if (!key.reset())
+                {
+                    err.println("WARNING: no longer watching " + directory + " (removed?)");
+                    watchedDirectories.remove(key);
+                    if (watchedDirectories.isEmpty())
+                    {
+                        return;
+                    }
+                }
+                key = watchService.poll(); // (all the events waiting, before checking the files)
+            } // while events
+
+            queueSettledFiles(now, settleNanos, workers);
+
+        } // forever
+
+    } // watch
+
+    private void addFilesInDirectory(Path directory, long now)
+    {
+        try
+        {
+            DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+            try
+            {
+                for (Path file : files)
+                {
+                    if (isGCodeFile(file) && !pendingFiles.containsKey(file))
+                    {
+                        pendingFiles.put(file, new PendingFile(file, now));
+                    }
+                }
+            }
+            finally
+            {
+                files.close();
+            }
+        }
+        catch (IOException e)
+        {
+            err.println("ERROR: cannot list " + directory + ": " + e.getMessage());
+        }
+    } // addFilesInDirectory
+
+    private boolean isGCodeFile(Path file)
+    {
+        String name = file.getFileName().toString();
+        String ext = GCodeConversionInput.gcodeExtension(name);
+        return extensions.contains(ext) && !GCodeConversionOutput.isDefaultFileName(name)
+                && !GCodeConversionOutput.isTempFileName(name);
+    } // isGCodeFile
+
+    // queue the files that have not changed for the settle time (as many as the queue has room for)
+    private void queueSettledFiles(long now, long settleNanos, ThreadPoolExecutor workers)
+    {
+        Iterator<PendingFile> pending = pendingFiles.values().iterator();
+        while (pending.hasNext())
+        {
+            final PendingFile file = pending.next();
+            BasicFileAttributes attributes;
+            try
+            {
+                attributes = Files.readAttributes(file.file, BasicFileAttributes.class);
+            }
+            catch (IOException e)
+            {
+                pending.remove(); // deleted (or renamed) before it settled
+                continue;
+            }
+            if (!attributes.isRegularFile())
+            {
+                pending.remove();
+                continue;
+            }
+
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            if (attributes.size() != file.size || lastModified != file.lastModified)
+            {
+                file.size = attributes.size();
+                file.lastModified = lastModified;
+                file.unchangedSinceNanos = now;
+                continue;
+            }
+            if (now - file.unchangedSinceNanos < settleNanos || filesInWork.contains(file.file))
+            {
+                continue; // still settling, or the last version is still being converted
+            }
+
+            filesInWork.add(file.file);
+            try
+            {
+                workers.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            convertFile(file);
+                        }
+                        finally
+                        {
+                            filesInWork.remove(file.file);
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException e)
+            {
+                filesInWork.remove(file.file);
+                return; // the queue is full, try again next time
+            }
+            pending.remove();
+        } // for each pending file
+
+    } // queueSettledFiles
+
+    // --- conversion ---
+
+    private void convertFile(PendingFile file)
+    {
+        long startNanos = System.nanoTime();
+        Path input = file.file;
+        String hash;
+        try
+        {
+            hash = hash(input);
+        }
+        catch (IOException e)
+        {
+            log("ERROR " + input + ": " + e.getMessage());
+            return;
+        }
+        String outputName = GCodeConversionOutput.defaultFileName(input.getFileName().toString());
+        Path output = (outputDirectory != null) ? outputDirectory.resolve(outputName) : input.resolveSibling(outputName);
+        if (hash.equals(convertedHashes.get(input)) && Files.exists(output))
+        {
+            return; // the same contents as last time (saved again, or only touched)
+        }
+
+        GCodeConversionEngine engine = new GCodeConversionEngine(settings);
+        try
+        {
+            engine.convert(GCodeConversionInput.fromPath(input), GCodeConversionOutput.toPath(output)); // (moved into place when done)
+            convertedHashes.put(input, hash);
+        }
+        catch (Throwable e)
+        {
+            log("ERROR " + input + ": " + ((e.getMessage() != null) ? e.getMessage() : e.toString()));
+
+            // delete an older output file so it isn't mistaken for this one! (the engine never leaves a partial one)
+            try
+            {
+                Files.deleteIfExists(output);
+            }
+            catch (IOException x)
+            {
+                log("Error deleting output file after error: " + x.getMessage());
+            }
+            convertedHashes.remove(input);
+            return;
+        }
+
+        long doneNanos = System.nanoTime();
+        GCodeConversionResult result = engine.getResult();
+        StringBuilder line = new StringBuilder();
+        line.append("OK ").append(input).append(" -> ").append(output.getFileName());
+        line.append(" in ").append((doneNanos - file.firstSeenNanos) / 1000000).append(" ms");
+        line.append(" (settle and queue ").append((startNanos - file.firstSeenNanos) / 1000000);
+        line.append(" ms, convert ").append((doneNanos - startNanos) / 1000000).append(" ms, ");
+        line.append(result.getLinesProcessed()).append(" lines)");
+        if (!result.isEndOfProgramFound())
+        {
+            line.append("\n    ").append(GCodeConversionEngine.NO_END_OF_PROGRAM_WARNING.trim());
+        }
+        log(line.toString());
+
+    } // convertFile
+
+    // SHA-256 of the file, as hex
+    private static String hash(Path file) throws IOException
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IOException(e); // (every Java has SHA-256)
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try
+        {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            while (channel.read(buffer) >= 0)
+            {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest())
+        {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    } // hash
+
+    private void log(String message)
+    {
+        synchronized (err)
+        {
+            err.println(message);
+        }
+    } // log
+
+} // WatchFolderConverter class
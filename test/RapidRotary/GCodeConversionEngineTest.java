@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016-2018 Shawn E. Gano, shawn@ganotechnologies.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package RapidRotary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Converts small G-code programs in memory and checks the output (or the error).
+ *
+ * @author Shawn E. Gano, shawn@ganotechnologies.com
+ */
+public class GCodeConversionEngineTest
+{
+    private static final String PREAMBLE = "G17 G20 G90 G94\n"; // (the modes a move needs)
+
+    private static String convert(String gcode, int fOutputPrecision) throws Exception
+    {
+        GCodeConversionSettings settings = new GCodeConversionSettings();
+        settings.setZZeroOffset(0.25);
+        settings.setFOutputPrecision(fOutputPrecision);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GCodeConversionEngine engine = new GCodeConversionEngine(settings);
+        engine.convert(GCodeConversionInput.fromStream(new ByteArrayInputStream(gcode.getBytes(StandardCharsets.ISO_8859_1))),
+                GCodeConversionOutput.toStream(out));
+        return new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+    } // convert
+
+    // the line must not convert, the error must name the malformed number and where it is
+    private static void assertMalformed(String line, String number, int column) throws Exception
+    {
+        try
+        {
+            convert(PREAMBLE + "G0 X0 Y0 Z0 A0\nG1 F100\n" + line + "\nM30\n", 5);
+            fail("No error for: " + line);
+        }
+        catch (GCodeException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed number '" + number + "'"));
+            assertEquals(4, e.getLineNumber());
+            assertEquals(column, e.getColumn());
+        }
+    } // assertMalformed
+
+    @Test
+    public void commaInNumberIsAnError() throws Exception
+    {
+        assertMalformed("G1 X1,5 A10", "1,5", 5);
+    }
+
+    @Test
+    public void lettersInNumberAreAnError() throws Exception
+    {
+        assertMalformed("G1 Xabc Y1", "abc", 5);
+    }
+
+    @Test
+    public void trailingCharacterIsAnError() throws Exception
+    {
+        assertMalformed("G1 X2 Y2 A5;", "5;", 11);
+    }
+
+    @Test
+    public void restoredFeedRateIsNotRounded() throws Exception
+    {
+        // fOutputPrecision only applies to the inverse time F values
+        String output = convert(PREAMBLE + "G0 X0 Y0 Z0 A0\nG1 X1 A10 F0.4\nM30\n", 0);
+        assertTrue(output, output.contains("\nF0.4 (last feed rate used)\n"));
+    }
+
+    @Test
+    public void otherTokensAreCopied() throws Exception
+    {
+        String output = convert("%\n" + PREAMBLE + "G0 X0 Y0 Z0 A0\n#1=2\nG1 X1 A10 F100\n%\n", 5);
+        assertTrue(output, output.contains("\n#1=2\n"));
+    }
+
+    @Test
+    public void nothingIsWrittenBeforeAnError() throws Exception
+    {
+        // the lines converted before the error are still buffered, so a stream (e.g. an HTTP response) gets nothing
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GCodeConversionEngine engine = new GCodeConversionEngine(new GCodeConversionSettings());
+        String gcode = PREAMBLE + "G0 X0\nG93\nG1 X1\n";
+        try
+        {
+            engine.convert(GCodeConversionInput.fromStream(new ByteArrayInputStream(gcode.getBytes(StandardCharsets.ISO_8859_1))),
+                    GCodeConversionOutput.toStream(out));
+            fail("No error for G93 in the input");
+        }
+        catch (GCodeException e)
+        {
+            assertEquals(3, e.getLineNumber());
+        }
+        assertEquals(0, out.size());
+    }
+
+} // GCodeConversionEngineTest